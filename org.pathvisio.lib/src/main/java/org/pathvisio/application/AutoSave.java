@@ -1,13 +1,13 @@
 /*******************************************************************************
  * PathVisio, a tool for data visualization and analysis using biological pathways
   * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License"); you may not
  * use this file except in compliance with the License.  You may obtain a copy
  * of the License at
- * 
+ *
  *   http://www.apache.org/licenses/LICENSE-2.0
- * 
+ *
  * Unless required by applicable law or agreed to in writing, software
  * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
  * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
@@ -16,76 +16,414 @@
  ******************************************************************************/
 package org.pathvisio.application;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 
+import org.pathvisio.controller.ApplicationEvent;
 import org.pathvisio.controller.Engine;
+import org.pathvisio.controller.Engine.ApplicationEventListener;
 import org.pathvisio.debug.Logger;
 import org.pathvisio.gui.SwingEngine;
 import org.pathvisio.io.ConverterException;
 import org.pathvisio.io.GpmlFormat;
+import org.pathvisio.model.PathwayElement;
 import org.pathvisio.model.PathwayModel;
+import org.pathvisio.props.StaticProperty;
+import org.pathvisio.util.preferences.GlobalPreference;
+import org.pathvisio.view.model.PathwaySnapshot;
+import org.pathvisio.view.model.UndoManager;
+import org.pathvisio.view.model.VPathwayModel;
 
 
 /**
- *  Collection of methods for autosave and recovery of PathVisio files
+ * Collection of methods for autosave and recovery of PathVisio files
+ * <p>
+ * Each open document gets its own recovery files in the autosave directory of
+ * the user: a full checkpoint, <code>name-id.N.gpml</code>, and a journal of
+ * the changes made since, <code>name-id.N.journal</code>. A timer tick that finds the
+ * modification count of the pathway unchanged does nothing at all. Otherwise
+ * only a snapshot is taken on the GUI thread, which costs O(changes); the
+ * changed elements are then appended to the journal on the timer thread. A new
+ * checkpoint is written when elements were added or removed, or after
+ * {@link #CHECKPOINT_INTERVAL} journal entries. Checkpoints are written to a
+ * temporary file and renamed, and the previous generation is only deleted
+ * after that, so a crash at any point leaves a consistent checkpoint and
+ * journal to recover from.
  */
-public class AutoSave
+public class AutoSave implements ApplicationEventListener
 {
+	/** number of journal entries after which a new checkpoint is written */
+	static final int CHECKPOINT_INTERVAL = 20;
+
+	private static final Pattern CHECKPOINT_NAME = Pattern.compile("(.+)\\.(\\d+)\\.gpml");
+
+	/**
+	 * The classes that may occur in a journal: the entries themselves, collections
+	 * and the property values of the model.
+	 */
+	private static final ObjectInputFilter JOURNAL_FILTER = ObjectInputFilter.Config.createFilter(
+			"maxdepth=20;java.lang.*;java.util.*;java.awt.Color;org.pathvisio.**;org.bridgedb.**;!*");
+
 	private Timer timer;
 	private final SwingEngine swingEngine;
 	private final Engine engine;
-	private final File autoSaveFile = autoSaveFileLocation();
+	private final File autoSaveDir;
+
+	/** distinguishes untitled documents of this session from other sessions */
+	private final String sessionId = Long.toString(System.currentTimeMillis(), 36);
+	private int untitledCount = 0;
+
+	/** set when the active pathway may have been replaced */
+	private final AtomicBoolean documentChanged = new AtomicBoolean(true);
+	/** the document that is saved, guarded by this */
+	private Document current = null;
+	private boolean stopped = false;
+	/** recovery files of a previous session that are deleted on a clean exit */
+	private final Set<String> leftovers = new HashSet<String>();
 
-	public AutoSave (SwingEngine se) 
+	public AutoSave (SwingEngine se)
 	{
-		engine =se.getEngine();
+		this(se, se.getEngine(), new File(GlobalPreference.getApplicationDir(), "AutoSave"));
+	}
+
+	AutoSave (SwingEngine se, Engine engine, File autoSaveDir)
+	{
+		this.engine = engine;
 		swingEngine = se;
+		this.autoSaveDir = autoSaveDir;
 	}
 
-	private File autoSaveFileLocation() 
+	/**
+	 * The changes of one timer tick: all static properties of each changed
+	 * element, by element id. Pathway information is stored under a null id.
+	 */
+	private static class JournalEntry implements Serializable
 	{
-		String tempDir = System.getProperty("java.io.tmpdir");
-		File autoSaveFile = new File(tempDir, "PathVisioAutoSave.gpml");
-		return autoSaveFile;
+		private static final long serialVersionUID = 1L;
+
+		final Map<String, Map<StaticProperty, Object>> changes =
+				new LinkedHashMap<String, Map<StaticProperty, Object>>();
 	}
 
-	private void autoSaveFile() throws ConverterException 
+	/** what is read from the active pathway on the GUI thread */
+	private static class State
 	{
-		PathwayModel p = engine.getActivePathway();
-		if (p != null) 
+		UndoManager undoManager;
+		File sourceFile;
+		boolean unsaved;
+		int count;
+		PathwaySnapshot snapshot;
+	}
+
+	/**
+	 * Recovery files of one open document. Only used on the timer thread, and
+	 * while holding the lock of the enclosing AutoSave.
+	 */
+	private class Document
+	{
+		final UndoManager undoManager;
+		final String untitledId;
+
+		String key = null;
+		int generation = 0; // 0 if there is no checkpoint yet
+		int journalEntries = 0;
+		PathwaySnapshot saved = null;
+		int savedCount = -1;
+
+		Document(UndoManager undoManager, String untitledId)
+		{
+			this.undoManager = undoManager;
+			this.untitledId = untitledId;
+		}
+
+		void save(State state) throws ConverterException, IOException
+		{
+			if (!state.unsaved)
+			{
+				// saved by the user, nothing to recover
+				delete();
+				savedCount = state.count;
+				return;
+			}
+			String newKey = keyFor(state.sourceFile, untitledId);
+			if (!newKey.equals(key))
+			{
+				delete();
+				key = newKey;
+			}
+			PathwaySnapshot snapshot = state.snapshot;
+			Map<String, PathwayElement> changed = null;
+			if (generation > 0 && saved != null && journalEntries < CHECKPOINT_INTERVAL)
+			{
+				changed = snapshot.getChangedSince(saved);
+			}
+			if (changed == null || !appendJournal(changed, snapshot))
+			{
+				writeCheckpoint(snapshot);
+			}
+			saved = snapshot;
+			savedCount = state.count;
+		}
+
+		/**
+		 * @return false if the changes can't be written to the journal, and a
+		 * checkpoint is needed instead.
+		 */
+		private boolean appendJournal(Map<String, PathwayElement> changed, PathwaySnapshot snapshot) throws IOException
+		{
+			JournalEntry entry = new JournalEntry();
+			for (Map.Entry<String, PathwayElement> e : changed.entrySet())
+			{
+				entry.changes.put(e.getKey(), readProperties(e.getValue()));
+			}
+			Map<StaticProperty, Object> info = readProperties(snapshot.getInfo());
+			if (!info.equals(readProperties(saved.getInfo())))
+			{
+				entry.changes.put(null, info);
+			}
+			if (entry.changes.isEmpty())
+			{
+				return true;
+			}
+
+			byte[] bytes;
+			try
+			{
+				ByteArrayOutputStream buf = new ByteArrayOutputStream();
+				ObjectOutputStream out = new ObjectOutputStream(buf);
+				out.writeObject(entry);
+				out.close();
+				bytes = buf.toByteArray();
+			}
+			catch (IOException e)
+			{
+				// e.g. a property value that isn't serializable
+				Logger.log.debug("Can't journal changes, writing checkpoint: " + e);
+				return false;
+			}
+
+			// length prefixed, so a partly written entry is ignored on recovery
+			FileOutputStream fos = new FileOutputStream(journalFile(key, generation), true);
+			try
+			{
+				DataOutputStream out = new DataOutputStream(fos);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+				out.flush();
+				fos.getChannel().force(false);
+			}
+			finally
+			{
+				fos.close();
+			}
+			journalEntries++;
+			Logger.log.info("Autosaved " + changed.size() + " changed element(s)");
+			return true;
+		}
+
+		private void writeCheckpoint(PathwaySnapshot snapshot) throws ConverterException, IOException
 		{
-			GpmlFormat.writeToXml (p, autoSaveFile, true);
+			autoSaveDir.mkdirs();
+			int next = generation + 1;
+			File target = checkpointFile(key, next);
+			File tmp = new File(autoSaveDir, target.getName() + ".tmp");
+			GpmlFormat.writeToXml (snapshot.toPathwayModel(), tmp, true);
+			try
+			{
+				Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException e)
+			{
+				Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			// only now the previous generation is no longer needed
+			deleteGeneration(key, generation);
+			generation = next;
+			journalEntries = 0;
 			Logger.log.info("Autosaved");
 		}
+
+		void delete()
+		{
+			if (key != null)
+			{
+				deleteGeneration(key, generation);
+			}
+			key = null;
+			generation = 0;
+			journalEntries = 0;
+			saved = null;
+		}
+	}
+
+	private static Map<StaticProperty, Object> readProperties(PathwayElement e)
+	{
+		Map<StaticProperty, Object> result = new HashMap<StaticProperty, Object>();
+		for (StaticProperty p : e.getStaticPropertyKeys())
+		{
+			result.put(p, e.getStaticProperty(p));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the name of the recovery files of a document, without generation
+	 * and extension. Contains no dots, and the part after the last dash contains
+	 * no dashes.
+	 */
+	private String keyFor(File sourceFile, String untitledId)
+	{
+		if (sourceFile == null)
+		{
+			return "untitled-" + untitledId;
+		}
+		String name = sourceFile.getName().replaceAll("\\.[^.]*$", "").replaceAll("[^A-Za-z0-9_\\-]", "_");
+		return name + "-" + Integer.toHexString(sourceFile.getAbsolutePath().hashCode());
+	}
+
+	private File checkpointFile(String key, int generation)
+	{
+		return new File(autoSaveDir, key + "." + generation + ".gpml");
+	}
+
+	private File journalFile(String key, int generation)
+	{
+		return new File(autoSaveDir, key + "." + generation + ".journal");
+	}
+
+	private void deleteGeneration(String key, int generation)
+	{
+		if (generation > 0)
+		{
+			journalFile(key, generation).delete();
+			checkpointFile(key, generation).delete();
+		}
+	}
+
+	/** read the active pathway, on the GUI thread */
+	private void readState(State state)
+	{
+		VPathwayModel vp = engine.getActiveVPathway();
+		PathwayModel p = engine.getActivePathway();
+		if (vp == null || p == null)
+		{
+			return;
+		}
+		readState(state, vp.getUndoManager(), p);
+	}
+
+	private void readState(State state, UndoManager undoManager, PathwayModel p)
+	{
+		state.undoManager = undoManager;
+		state.sourceFile = p.getSourceFile();
+		state.unsaved = p.hasChanged();
+		// read before the snapshot, so no change can be missed
+		state.count = undoManager.getModificationCount();
+		if (state.unsaved)
+		{
+			state.snapshot = undoManager.takeSnapshot();
+		}
+	}
+
+	/** save the state that was read, on the timer thread */
+	private synchronized void save(State state) throws ConverterException, IOException
+	{
+		if (stopped)
+		{
+			return;
+		}
+		if (current != null && current.undoManager != state.undoManager)
+		{
+			// the document was closed
+			current.delete();
+			current = null;
+		}
+		if (state.undoManager == null)
+		{
+			return;
+		}
+		if (current == null)
+		{
+			current = new Document(state.undoManager, sessionId + "_" + (++untitledCount));
+		}
+		current.save(state);
 	}
 
-	private class DoSave extends TimerTask 
+	/**
+	 * Save a pathway right away, like a timer tick does for the active pathway.
+	 * Must be called on the GUI thread, or the thread that changes the pathway.
+	 */
+	void saveNow(UndoManager undoManager, PathwayModel p) throws ConverterException, IOException
 	{
-		public void run() 
+		State state = new State();
+		readState(state, undoManager, p);
+		save(state);
+	}
+
+	private class DoSave extends TimerTask
+	{
+		public void run()
 		{
+			Document doc;
+			synchronized (AutoSave.this)
+			{
+				doc = current;
+			}
+			if (!documentChanged.getAndSet(false)
+					&& (doc == null || doc.undoManager.getModificationCount() == doc.savedCount))
+			{
+				// nothing changed, don't bother the GUI thread
+				return;
+			}
+			final State state = new State();
 			try {
-				// For reasons of thread-safety, autoSaveFile()
-				// must be called on the GUI thread.
+				// For reasons of thread-safety, the snapshot
+				// must be taken on the GUI thread.
 				SwingUtilities.invokeAndWait(new Runnable()
 				{
 					public void run()
 					{
-						try
-						{
-							autoSaveFile();
-						} 
-						catch (ConverterException e) 
-						{
-							Logger.log.error ("Autosave failed", e);
-						}
+						readState(state);
 					}
 				});
+				save(state);
+			}
+			catch (ConverterException e)
+			{
+				Logger.log.error ("Autosave failed", e);
+			}
+			catch (IOException e)
+			{
+				Logger.log.error ("Autosave failed", e);
 			}
 			catch (InterruptedException e)
 			{
@@ -98,35 +436,204 @@ public class AutoSave
 		}
 	}
 
+	public void applicationEvent(ApplicationEvent e)
+	{
+		switch (e.getType())
+		{
+		case VPATHWAY_CREATED:
+		case VPATHWAY_DISPOSED:
+		case PATHWAY_SAVE:
+			documentChanged.set(true);
+			break;
+		default:
+			break;
+		}
+	}
+
 	/**
 	 * @param period autosave period in seconds
 	 */
-	public void startTimer(int period) 
+	public void startTimer(int period)
 	{
-		if (autoSaveFile.exists()) 
-		{
-			autoRecoveryDlg();
-		}
-		timer = new Timer();
+		autoRecovery();
+		engine.addApplicationEventListener(this);
+		timer = new Timer("AutoSave");
 		timer.schedule(new DoSave(), period * 1000, period * 1000);
 	}
 
-	public void stopTimer () 
+	public void stopTimer ()
 	{
 		timer.cancel();
-		autoSaveFile.delete();
+		engine.removeApplicationEventListener(this);
+		synchronized (this)
+		{
+			// a tick that is still running won't save anymore
+			stopped = true;
+			if (current != null)
+			{
+				current.delete();
+				current = null;
+			}
+			for (String key : leftovers)
+			{
+				deleteAll(key);
+			}
+		}
+	}
+
+	/**
+	 * @return the latest checkpoint of each document in the autosave
+	 * directory, by key.
+	 */
+	Map<String, Integer> findCheckpoints()
+	{
+		Map<String, Integer> result = new HashMap<String, Integer>();
+		String[] names = autoSaveDir.list();
+		if (names == null)
+		{
+			return result;
+		}
+		for (String name : names)
+		{
+			Matcher m = CHECKPOINT_NAME.matcher(name);
+			if (m.matches())
+			{
+				int generation = Integer.parseInt(m.group(2));
+				Integer latest = result.get(m.group(1));
+				if (latest == null || latest < generation)
+				{
+					result.put(m.group(1), generation);
+				}
+			}
+		}
+		return result;
 	}
 
-	private void autoRecoveryDlg() 
+	private void deleteAll(String key)
 	{
-		int result = JOptionPane.showConfirmDialog(
-				swingEngine.getApplicationPanel(), 
-				"Sorry, it seems PathVisio crashed.\n" +
-				"Recover the auto-saved file?", 
-				"Crash recovery", JOptionPane.YES_NO_OPTION);
-		if (result == JOptionPane.YES_OPTION)
+		String[] names = autoSaveDir.list();
+		if (names == null)
 		{
-			swingEngine.openPathway(autoSaveFile);
+			return;
+		}
+		for (String name : names)
+		{
+			if (name.startsWith(key + "."))
+			{
+				new File(autoSaveDir, name).delete();
+			}
+		}
+	}
+
+	/**
+	 * Read a checkpoint and replay its journal on top of it.
+	 */
+	PathwayModel recover(String key, int generation) throws ConverterException, IOException
+	{
+		PathwayModel pathwayModel = new PathwayModel();
+		pathwayModel.readFromXml(checkpointFile(key, generation), true);
+
+		File journal = journalFile(key, generation);
+		if (!journal.exists())
+		{
+			return pathwayModel;
+		}
+		Map<String, PathwayElement> byId = new HashMap<String, PathwayElement>();
+		for (PathwayElement e : pathwayModel.getPathwayElements())
+		{
+			if (e.getElementId() != null)
+			{
+				byId.put(e.getElementId(), e);
+			}
+		}
+		DataInputStream in = new DataInputStream(new FileInputStream(journal));
+		try
+		{
+			while (true)
+			{
+				byte[] bytes;
+				try
+				{
+					bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+				}
+				catch (EOFException e)
+				{
+					break; // end of the journal, or an entry that was cut off
+				}
+				JournalEntry entry;
+				try
+				{
+					ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes));
+					objects.setObjectInputFilter(JOURNAL_FILTER);
+					entry = (JournalEntry) objects.readObject();
+				}
+				catch (ClassNotFoundException e)
+				{
+					throw new IOException(e);
+				}
+				for (Map.Entry<String, Map<StaticProperty, Object>> change : entry.changes.entrySet())
+				{
+					PathwayElement target = change.getKey() == null ? pathwayModel.getPathway()
+							: byId.get(change.getKey());
+					if (target == null)
+					{
+						Logger.log.warn("Autosave journal refers to unknown element " + change.getKey());
+						continue;
+					}
+					for (Map.Entry<StaticProperty, Object> p : change.getValue().entrySet())
+					{
+						if (!Objects.equals(target.getStaticProperty(p.getKey()), p.getValue()))
+						{
+							target.setStaticProperty(p.getKey(), p.getValue());
+						}
+					}
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return pathwayModel;
+	}
+
+	private void autoRecovery()
+	{
+		Map<String, Integer> checkpoints = findCheckpoints();
+		boolean recovered = false;
+		for (String key : checkpoints.keySet())
+		{
+			leftovers.add(key);
+			// only one pathway can be open at a time
+			if (recovered)
+			{
+				continue;
+			}
+			String name = key.substring(0, key.lastIndexOf('-'));
+			int result = JOptionPane.showConfirmDialog(
+					swingEngine.getApplicationPanel(),
+					"Sorry, it seems PathVisio crashed.\n" +
+					"Recover the auto-saved copy of " + name + "?",
+					"Crash recovery", JOptionPane.YES_NO_OPTION);
+			if (result == JOptionPane.YES_OPTION)
+			{
+				try
+				{
+					PathwayModel pathwayModel = recover(key, checkpoints.get(key));
+					engine.setWrapper(swingEngine.createWrapper());
+					engine.openPathwayFromMemory(pathwayModel);
+					recovered = true;
+				}
+				catch (ConverterException e)
+				{
+					Logger.log.error ("Crash recovery failed", e);
+				}
+				catch (IOException e)
+				{
+					Logger.log.error ("Crash recovery failed", e);
+				}
+			}
 		}
 	}
 }
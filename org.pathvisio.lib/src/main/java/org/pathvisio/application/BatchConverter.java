@@ -0,0 +1,454 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+  * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.application;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.pathvisio.application.exporter.BatikImageWithDataExporter;
+import org.pathvisio.application.exporter.ImageExporter;
+import org.pathvisio.controller.Engine;
+import org.pathvisio.debug.Logger;
+import org.pathvisio.event.PathwayExporter;
+import org.pathvisio.event.PathwayImporter;
+import org.pathvisio.io.ConverterException;
+import org.pathvisio.io.GpmlFormat;
+import org.pathvisio.model.PathwayModel;
+import org.pathvisio.util.FileUtils;
+import org.pathvisio.util.Utils;
+import org.pathvisio.util.preferences.GlobalPreference;
+import org.pathvisio.util.preferences.PreferenceManager;
+
+/**
+ * Converts all pathways in a directory tree to one or more formats, e.g. to
+ * regenerate the images of a pathway collection. Started from the command
+ * line through {@link #main(String[])}.
+ * <p>
+ * One {@link Engine} is used as the importer and exporter registry for all
+ * files, and files are converted concurrently. Each export draws on a
+ * {@link org.pathvisio.view.model.VPathwayModel} of its own, so no drawing
+ * state is shared between tasks. Files whose content hash is the same as in
+ * the previous run, and whose outputs all exist, are skipped. A report with the
+ * result and timing of each file is written to the output directory.
+ * <p>
+ * Runs headless: it never opens a window or uses the event dispatch thread.
+ */
+public class BatchConverter
+{
+	/** stores the content hash of each converted input file, in the output directory */
+	static final String HASH_FILE = ".batch-hashes";
+	/** the report of the last run, in the output directory */
+	static final String REPORT_FILE = "batch-report.tsv";
+
+	private final Engine engine = new Engine();
+	private final File inputDir;
+	private final File outputDir;
+	private final List<String> formats;
+	private final int threads;
+
+	/** the result of converting one input file */
+	private static class Result
+	{
+		final String path;
+		String status = "converted";
+		String message = "";
+		String hash = null;
+		long millis;
+
+		Result(String path)
+		{
+			this.path = path;
+		}
+	}
+
+	public BatchConverter(File inputDir, File outputDir, List<String> formats, int threads)
+	{
+		this.inputDir = inputDir;
+		this.outputDir = outputDir;
+		this.formats = formats;
+		this.threads = threads;
+
+		GpmlFormat gpml = new GpmlFormat();
+		engine.addPathwayImporter(gpml);
+		engine.addPathwayExporter(gpml);
+		for (String type : new String[] {
+				ImageExporter.TYPE_SVG, ImageExporter.TYPE_PNG, ImageExporter.TYPE_TIFF, ImageExporter.TYPE_PDF })
+		{
+			// no data is loaded, so no visualization manager is needed
+			BatikImageWithDataExporter exporter = new BatikImageWithDataExporter(type, null, null);
+			exporter.setDataVisible(false);
+			engine.addPathwayExporter(exporter);
+		}
+	}
+
+	public static void printUsage()
+	{
+		System.out.println ("Usage:\n" +
+				"\tjava BatchConverter <input directory> <output directory> <formats> [<threads>]\n" +
+				"\n" +
+				"Converts all pathways in the input directory and its subdirectories,\n" +
+				"e.g. with formats png,svg,pdf. Unchanged pathways are skipped.\n" +
+				"The number of threads is the number of processors by default.\n"
+			);
+	}
+
+	/**
+	 * Command line entry point. Exits with the return code of {@link #run(String[])}.
+	 */
+	public static void main(String[] args)
+	{
+		// never open a window, also when a display is available.
+		// This has to happen before any AWT class is used.
+		System.setProperty("java.awt.headless", "true");
+		Logger.log.setStream(System.err);
+		// debug, trace, info, warn, error, fatal
+		Logger.log.setLogLevel(false, false, true, true, true, true);
+		System.exit(run(args));
+	}
+
+	/**
+	 * Converts with the given command line arguments. Doesn't make AWT headless,
+	 * see {@link #main(String[])}.
+	 *
+	 * @return 0 if all files were converted, -1 on a parameter error and -2
+	 * if any file failed.
+	 */
+	public static int run(String[] args)
+	{
+		if (args.length < 3 || args.length > 4)
+		{
+			printUsage();
+			return -1;
+		}
+		File inputDir = new File(args[0]);
+		if (!inputDir.isDirectory())
+		{
+			Logger.log.error("Not a directory: " + inputDir);
+			return -1;
+		}
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (args.length == 4)
+		{
+			try
+			{
+				threads = Integer.parseInt(args[3]);
+			}
+			catch (NumberFormatException e)
+			{
+				Logger.log.error("Invalid number of threads: " + args[3]);
+				return -1;
+			}
+		}
+
+		PreferenceManager.init();
+		//Enable MiM support (for export to graphics formats)
+		PreferenceManager.getCurrent().setBoolean(GlobalPreference.MIM_SUPPORT, true);
+
+		List<String> formats = Arrays.asList(args[2].toLowerCase().split(","));
+		BatchConverter converter = new BatchConverter(inputDir, new File(args[1]), formats, Math.max(1, threads));
+		for (String format : formats)
+		{
+			if (converter.engine.getPathwayExporters(new File("x." + format)) == null)
+			{
+				Logger.log.error("No exporter for format: " + format);
+				return -1;
+			}
+		}
+		try
+		{
+			return converter.convertAll() ? 0 : -2;
+		}
+		catch (IOException e)
+		{
+			Logger.log.error("Batch conversion failed", e);
+			return -2;
+		}
+	}
+
+	/**
+	 * Convert all pathways, and write the hashes and the report.
+	 *
+	 * @return true if all files were converted or skipped.
+	 */
+	public boolean convertAll() throws IOException
+	{
+		outputDir.mkdirs();
+		final Properties hashes = new Properties();
+		File hashFile = new File(outputDir, HASH_FILE);
+		if (hashFile.exists())
+		{
+			InputStream in = new FileInputStream(hashFile);
+			try
+			{
+				hashes.load(in);
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+
+		Set<String> extensions = new HashSet<String>();
+		for (PathwayImporter importer : engine.getPathwayImporters())
+		{
+			for (String ext : importer.getExtensions())
+			{
+				extensions.add(ext.toLowerCase());
+			}
+		}
+		List<String> paths = new ArrayList<String>();
+		listFiles(inputDir, "", extensions, paths);
+		Collections.sort(paths);
+		Logger.log.info("Converting " + paths.size() + " pathways on " + threads + " threads");
+
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Result>> futures = new ArrayList<Future<Result>>();
+		for (final String path : paths)
+		{
+			futures.add(executor.submit(new Callable<Result>()
+			{
+				public Result call()
+				{
+					return convert(path, hashes.getProperty(path));
+				}
+			}));
+		}
+		executor.shutdown();
+
+		List<Result> results = new ArrayList<Result>();
+		Properties newHashes = new Properties();
+		int converted = 0, skipped = 0, failed = 0;
+		for (Future<Result> f : futures)
+		{
+			Result r;
+			try
+			{
+				r = f.get();
+			}
+			catch (InterruptedException e)
+			{
+				throw new IOException(e);
+			}
+			catch (ExecutionException e)
+			{
+				throw new IOException(e.getCause());
+			}
+			results.add(r);
+			if (r.hash != null)
+			{
+				newHashes.setProperty(r.path, r.hash);
+			}
+			if (r.status.equals("failed")) failed++;
+			else if (r.status.equals("skipped")) skipped++;
+			else converted++;
+		}
+		long millis = System.currentTimeMillis() - start;
+
+		writeHashes(newHashes, hashFile);
+		writeReport(results, millis);
+		Logger.log.info("Batch conversion done in " + millis + " ms: " + converted + " converted, " +
+				skipped + " skipped, " + failed + " failed");
+		return failed == 0;
+	}
+
+	private void listFiles(File dir, String prefix, Set<String> extensions, List<String> result)
+	{
+		File[] files = dir.listFiles();
+		if (files == null)
+		{
+			return;
+		}
+		for (File f : files)
+		{
+			if (f.isDirectory())
+			{
+				// don't convert our own output
+				if (!f.getAbsoluteFile().equals(outputDir.getAbsoluteFile()))
+				{
+					listFiles(f, prefix + f.getName() + "/", extensions, result);
+				}
+			}
+			else
+			{
+				String ext = FileUtils.getExtension(f.getName());
+				if (ext != null && extensions.contains(ext.toLowerCase()))
+				{
+					result.add(prefix + f.getName());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the output file for an input file, relative to the input directory.
+	 */
+	private File outputFile(String path, String format)
+	{
+		String base = FileUtils.removeExtension(path);
+		return new File(outputDir, base + "." + format);
+	}
+
+	/**
+	 * Convert one file to all formats. Called on a worker thread.
+	 *
+	 * @param path the file, relative to the input directory.
+	 * @param previousHash the hash of the file in the previous run, or null.
+	 */
+	private Result convert(String path, String previousHash)
+	{
+		Result result = new Result(path);
+		long start = System.currentTimeMillis();
+		File input = new File(inputDir, path);
+		try
+		{
+			String hash = hash(input);
+			boolean complete = true;
+			for (String format : formats)
+			{
+				complete &= outputFile(path, format).exists();
+			}
+			if (complete && hash.equals(previousHash))
+			{
+				result.status = "skipped";
+				result.hash = hash;
+				return result;
+			}
+
+			PathwayImporter importer = Utils.oneOf(engine.getPathwayImporters(input));
+			PathwayModel pathwayModel = importer.doImport(input);
+			for (String format : formats)
+			{
+				File output = outputFile(path, format);
+				output.getParentFile().mkdirs();
+				PathwayExporter exporter = Utils.oneOf(engine.getPathwayExporters(output));
+				exporter.doExport(output, pathwayModel);
+			}
+			result.hash = hash;
+		}
+		catch (ConverterException e)
+		{
+			fail(result, e);
+		}
+		catch (IOException e)
+		{
+			fail(result, e);
+		}
+		catch (RuntimeException e)
+		{
+			// a broken pathway shouldn't stop the batch
+			fail(result, e);
+		}
+		finally
+		{
+			result.millis = System.currentTimeMillis() - start;
+		}
+		return result;
+	}
+
+	private static void fail(Result result, Exception e)
+	{
+		Logger.log.error("Could not convert " + result.path, e);
+		result.status = "failed";
+		result.message = String.valueOf(e.getMessage()).replaceAll("\\s+", " ");
+	}
+
+	private static String hash(File file) throws IOException
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+		byte[] bytes = digest.digest(Files.readAllBytes(file.toPath()));
+		StringBuilder result = new StringBuilder();
+		for (byte b : bytes)
+		{
+			result.append(String.format("%02x", b));
+		}
+		return result.toString();
+	}
+
+	private void writeHashes(Properties hashes, File hashFile) throws IOException
+	{
+		// written next to the old file and renamed, so an interrupted
+		// run can't leave a partial file that skips unconverted pathways
+		File tmp = new File(outputDir, HASH_FILE + ".tmp");
+		OutputStream out = new FileOutputStream(tmp);
+		try
+		{
+			hashes.store(out, "Content hashes of converted pathways");
+		}
+		finally
+		{
+			out.close();
+		}
+		try
+		{
+			Files.move(tmp.toPath(), hashFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException e)
+		{
+			Files.move(tmp.toPath(), hashFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void writeReport(List<Result> results, long millis) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new File(outputDir, REPORT_FILE), "UTF-8");
+		try
+		{
+			out.println("file\tstatus\tms\tmessage");
+			for (Result r : results)
+			{
+				out.println(r.path + "\t" + r.status + "\t" + r.millis + "\t" + r.message);
+			}
+			out.println("# total\t" + results.size() + " files\t" + millis + "\t" + threads + " threads");
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}
@@ -111,10 +111,17 @@ public class PvDesktop
 				.booleanField(GlobalPreference.MIM_SUPPORT,
 						"Load support for molecular interaction maps (MIM) at program start")
 				.booleanField(GlobalPreference.SHOW_ADVANCED_PROPERTIES, "Show advanced properties (e.g. references)")
+				.booleanField(GlobalPreference.UNDO_DELTA,
+						"Record undo steps as changes, for more undo steps (applies to newly opened pathways)")
 				.booleanField(GlobalPreference.USE_SYSTEM_LOOK_AND_FEEL,
 						"Use Java System look-and-feel at program start")
 				.booleanField(GlobalPreference.ENABLE_DOUBLE_BUFFERING,
 						"Enable double-buffering (pathway is drawn slower, but flickerless)")
+				.booleanField(GlobalPreference.ASYNC_RENDERING,
+						"Draw the pathway in steps, to keep large pathways responsive (applies to newly opened pathways)")
+				.booleanField(GlobalPreference.LOD_ENABLED, "Draw a simplified pathway when zoomed out")
+				.integerField(GlobalPreference.LOD_ZOOM_PERCENT, "Simplify below zoom level (percent):", 1, 100)
+				.integerField(GlobalPreference.LOD_MIN_TEXT_SIZE, "Hide text smaller than (pixels):", 0, 100)
 				.build());
 
 		preferencesDlg.addPanel("Display.Colors",
@@ -176,7 +183,7 @@ public class PvDesktop
 		if (p != null && gex != null) {
 			try {
 				gex.clearCache();
-				gex.setMapper(swingEngine.getGdbManager().getCurrentGdb());
+				gex.setMapper(swingEngine.getGdbManager().getCachedGdb());
 				gex.preSeed(p.getDataNodeXrefs());
 				gex.preSeed(p.getStateXrefs()); // TODO
 				gex.preSeed(p.getInteractionXrefs()); // TODO
@@ -371,7 +371,7 @@ public class SearchPane extends JPanel
 				SearchTableModel.Column.DIRECTORY
 				});
 		SearchMethods.searchHelper (
-				new ByXrefMatcher (swingEngine.getGdbManager().getCurrentGdb(), ref),
+				new ByXrefMatcher (swingEngine.getGdbManager().getCachedGdb(), ref),
 				folder, srs, lblNumFound, parent);
 	}
 
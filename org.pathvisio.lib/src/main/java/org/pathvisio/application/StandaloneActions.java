@@ -327,7 +327,13 @@ public class StandaloneActions implements ApplicationEventListener {
 					// i.e using the same scaling ratio for both x and y axis to maintain the aspect
 					// ratio (width:height)
 					g2.scale(minScale, minScale);
-					vPathway.draw(g2);
+					// print everything, regardless of the zoom factor on screen
+					vPathway.setFullDetail(true);
+					try {
+						vPathway.draw(g2);
+					} finally {
+						vPathway.setFullDetail(false);
+					}
 					return Printable.PAGE_EXISTS;
 				}
 			});
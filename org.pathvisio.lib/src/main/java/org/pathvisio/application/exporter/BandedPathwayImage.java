@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.application.exporter;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Vector;
+
+import org.pathvisio.view.model.VPathwayModel;
+
+/**
+ * An image of a pathway that is drawn in horizontal bands, one at a time, when
+ * they are asked for. Image writers such as the PNG writer read an image row by
+ * row, so writing this image only keeps one band in memory instead of the
+ * whole canvas.
+ */
+class BandedPathwayImage implements RenderedImage
+{
+	private final VPathwayModel vPathwayModel;
+	private final int width;
+	private final int height;
+	private final int bandHeight;
+	private final ColorModel colorModel;
+	private final SampleModel sampleModel;
+
+	// the most recently drawn band, as most readers go from top to bottom
+	private int cachedBand = -1;
+	private Raster cachedRaster = null;
+
+	/**
+	 * @param vPathwayModel the pathway to draw.
+	 * @param width the width of the image.
+	 * @param height the height of the image.
+	 * @param bandHeight the height of each band.
+	 */
+	BandedPathwayImage(VPathwayModel vPathwayModel, int width, int height, int bandHeight)
+	{
+		this.vPathwayModel = vPathwayModel;
+		this.width = width;
+		this.height = height;
+		this.bandHeight = bandHeight;
+		BufferedImage prototype = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+		colorModel = prototype.getColorModel();
+		sampleModel = prototype.getSampleModel().createCompatibleSampleModel(width, bandHeight);
+	}
+
+	private Raster drawBand(int band)
+	{
+		int y = band * bandHeight;
+		BufferedImage image = new BufferedImage(width, bandHeight, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = image.createGraphics();
+		g.translate(0, -y);
+		g.setClip(0, y, width, bandHeight);
+		vPathwayModel.draw(g);
+		g.dispose();
+		return image.getRaster().createTranslatedChild(0, y);
+	}
+
+	public synchronized Raster getTile(int tileX, int tileY)
+	{
+		if (tileY != cachedBand)
+		{
+			cachedRaster = null; // let go of the previous band before drawing the next
+			cachedRaster = drawBand(tileY);
+			cachedBand = tileY;
+		}
+		return cachedRaster;
+	}
+
+	public Raster getData()
+	{
+		return getData(new Rectangle(0, 0, width, height));
+	}
+
+	public Raster getData(Rectangle rect)
+	{
+		WritableRaster result = Raster.createWritableRaster(
+				sampleModel.createCompatibleSampleModel(rect.width, rect.height), rect.getLocation());
+		return copyData(result);
+	}
+
+	public WritableRaster copyData(WritableRaster raster)
+	{
+		if (raster == null)
+		{
+			raster = Raster.createWritableRaster(
+					sampleModel.createCompatibleSampleModel(width, height), null);
+		}
+		Rectangle bounds = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+		if (bounds.isEmpty())
+		{
+			return raster;
+		}
+		int first = bounds.y / bandHeight;
+		int last = (bounds.y + bounds.height - 1) / bandHeight;
+		for (int band = first; band <= last; band++)
+		{
+			Raster tile = getTile(0, band);
+			Rectangle part = bounds.intersection(tile.getBounds());
+			raster.setRect(tile.createChild(part.x, part.y, part.width, part.height, part.x, part.y, null));
+		}
+		return raster;
+	}
+
+	public Vector<RenderedImage> getSources()
+	{
+		return null;
+	}
+
+	public Object getProperty(String name)
+	{
+		return java.awt.Image.UndefinedProperty;
+	}
+
+	public String[] getPropertyNames()
+	{
+		return null;
+	}
+
+	public ColorModel getColorModel()
+	{
+		return colorModel;
+	}
+
+	public SampleModel getSampleModel()
+	{
+		return sampleModel;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public int getMinX()
+	{
+		return 0;
+	}
+
+	public int getMinY()
+	{
+		return 0;
+	}
+
+	public int getNumXTiles()
+	{
+		return 1;
+	}
+
+	public int getNumYTiles()
+	{
+		return (height + bandHeight - 1) / bandHeight;
+	}
+
+	public int getMinTileX()
+	{
+		return 0;
+	}
+
+	public int getMinTileY()
+	{
+		return 0;
+	}
+
+	public int getTileWidth()
+	{
+		return width;
+	}
+
+	public int getTileHeight()
+	{
+		return bandHeight;
+	}
+
+	public int getTileGridXOffset()
+	{
+		return 0;
+	}
+
+	public int getTileGridYOffset()
+	{
+		return 0;
+	}
+}
@@ -17,20 +17,34 @@
 package org.pathvisio.application.exporter;
 
 import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.io.Writer;
 
+import javax.imageio.ImageIO;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
 import org.apache.batik.dom.GenericDOMImplementation;
+import org.apache.batik.svggen.SVGCSSStyler;
 import org.apache.batik.svggen.SVGGraphics2D;
 import org.apache.batik.transcoder.Transcoder;
 import org.apache.batik.transcoder.TranscoderInput;
 import org.apache.batik.transcoder.TranscoderOutput;
 import org.apache.batik.transcoder.image.ImageTranscoder;
-import org.apache.batik.transcoder.image.PNGTranscoder;
-import org.apache.batik.transcoder.image.TIFFTranscoder;
 import org.apache.fop.svg.PDFTranscoder;
 import org.bridgedb.IDMapperException;
 import org.pathvisio.debug.Logger;
@@ -43,13 +57,24 @@ import org.pathvisio.application.visualization.VisualizationManager;
 import org.pathvisio.model.PathwayModel;
 import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 /**
  * Same as BatikImageExporter, but can also include visualized data
  * in the resulting image.
+ * <p>
+ * SVG is streamed to the file while the pathway is drawn, PNG and TIFF are
+ * drawn straight into an image. Only PDF still goes through a complete SVG DOM
+ * and a Batik transcoder.
  */
 public class BatikImageWithDataExporter extends ImageExporter
 {
+	/** number of elements drawn before the SVG written so far is flushed */
+	static final int SVG_BATCH_SIZE = 200;
+	/** images with more pixels than this are drawn in bands */
+	static final long MAX_UNBANDED_PIXELS = 4096L * 4096L;
+	static final int BAND_HEIGHT = 256;
+
 	private final VisualizationManager visualizationManager;
 	private final GexManager gexManager;
 
@@ -70,30 +95,110 @@ public class BatikImageWithDataExporter extends ImageExporter
 		dataVisible = value;
 	}
 
-	public void doExport(File file, PathwayModel pathwayModel) throws ConverterException
+	/**
+	 * Draw once without output, so that the size of text is known, and
+	 * return the size of the drawing.
+	 */
+	private static Dimension measure(VPathwayModel vPathwayModel)
 	{
-		VPathwayModel vPathwayModel = new VPathwayModel();
-		vPathwayModel.fromModel(pathwayModel);
+		BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = scratch.createGraphics();
+		vPathwayModel.draw(g);
+		g.dispose();
+		return vPathwayModel.calculateVSize();
+	}
 
-		// if data visualization is enabled, link this VPathway up to the visualization manager.
-		if (dataVisible)
-		{
-			vPathwayModel.addVPathwayListener(visualizationManager);
-			try
-			{
-				if (gexManager.getCachedData() != null)
-					gexManager.getCachedData().syncSeed(pathwayModel.getDataNodeXrefs());
-			}
-			catch (IDMapperException ex)
-			{
-				Logger.log.error ("Could not get data", ex);
-			}
-			catch (DataException ex)
-			{
-				Logger.log.error ("Could not get data", ex);
+	/**
+	 * Write the SVG while the pathway is drawn: after each batch of elements,
+	 * the part of the SVG DOM for that batch is written out and dropped.
+	 * <p>
+	 * SVGGraphics2D.stream writes an XML declaration and DOCTYPE for anything it
+	 * streams, so it is only used for the root element. The group of each batch
+	 * is styled the same way, but written without a header.
+	 */
+	private void exportSvg(VPathwayModel vPathwayModel, File file) throws ConverterException
+	{
+		DOMImplementation domImpl = GenericDOMImplementation.getDOMImplementation();
+		Document svg = domImpl.createDocument ("http://www.w3.org/2000/svg", "svg", null);
+
+		final SVGGraphics2D svgG2d = new SVGGraphics2D(svg);
+		svgG2d.setSVGCanvasSize(measure(vPathwayModel));
+
+		try {
+			final Transformer batchWriter = TransformerFactory.newInstance().newTransformer();
+			batchWriter.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+			final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			try {
+				// the root element with the default style and no content yet,
+				// split before its end tag
+				StringWriter root = new StringWriter();
+				svgG2d.stream(svgG2d.getRoot(), root, true, false);
+				int end = root.toString().lastIndexOf("</svg>");
+				if (end < 0) throw new ConverterException("Unexpected SVG root element");
+				out.write(root.toString().substring(0, end));
+
+				vPathwayModel.drawInBatches(svgG2d, SVG_BATCH_SIZE, new Runnable()
+				{
+					public void run()
+					{
+						Element group = svgG2d.getTopLevelGroup(true);
+						SVGCSSStyler.style(group);
+						try {
+							batchWriter.transform(new DOMSource(group), new StreamResult(out));
+						} catch (TransformerException e) {
+							throw new UncheckedIOException(new IOException(e));
+						}
+					}
+				});
+
+				out.write(root.toString().substring(end));
+				out.flush();
+			} finally {
+				out.close();
 			}
+		} catch(IOException e) {
+			throw new ConverterException(e);
+		} catch(UncheckedIOException e) {
+			throw new ConverterException(e.getCause());
+		} catch(TransformerException e) {
+			throw new ConverterException(e);
+		}
+	}
+
+	/**
+	 * Draw straight into an image. Large images are drawn in bands while
+	 * they are written, see {@link BandedPathwayImage}.
+	 */
+	private void exportRaster(VPathwayModel vPathwayModel, File file) throws ConverterException
+	{
+		Dimension size = measure(vPathwayModel);
+		RenderedImage image;
+		if ((long) size.width * size.height <= MAX_UNBANDED_PIXELS)
+		{
+			BufferedImage buffer = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g2 = buffer.createGraphics();
+			g2.setClip(0, 0, size.width, size.height);
+			vPathwayModel.draw(g2);
+			g2.dispose();
+			image = buffer;
+		}
+		else
+		{
+			image = new BandedPathwayImage(vPathwayModel, size.width, size.height, BAND_HEIGHT);
+		}
+
+		try {
+			if (!ImageIO.write(image, getType(), file)) noExporterException();
+		} catch(IOException e) {
+			throw new ConverterException(e);
 		}
+	}
 
+	/**
+	 * Draw into an SVG DOM and convert that with a Batik transcoder.
+	 */
+	private void exportTranscoded(VPathwayModel vPathwayModel, File file, Transcoder t) throws ConverterException
+	{
 		DOMImplementation domImpl = GenericDOMImplementation.getDOMImplementation();
 		Document svg = domImpl.createDocument ("http://www.w3.org/2000/svg", "svg", null);
 
@@ -105,26 +210,6 @@ public class BatikImageWithDataExporter extends ImageExporter
 		Dimension size = vPathwayModel.calculateVSize();
 		svgG2d.setSVGCanvasSize(size);
 
-		Transcoder t = null;
-		if			(getType().equals(TYPE_SVG)) {
-			try {
-				Writer out = new FileWriter(file);
-				svgG2d.stream(out, true);
-				out.flush();
-				out.close();
-			} catch(Exception e) {
-				throw new ConverterException(e);
-			}
-			return;
-		} else if	(getType().equals(TYPE_PNG)) {
-			t = new PNGTranscoder();
-		} else if	(getType().equals(TYPE_TIFF)) {
-			t = new TIFFTranscoder();
-		} else if	(getType().equals(TYPE_PDF)) {
-			t = new PDFTranscoder();
-		}
-		if(t == null) noExporterException();
-
 		svgG2d.getRoot(svg.getDocumentElement());
 		t.addTranscodingHint(ImageTranscoder.KEY_BACKGROUND_COLOR, java.awt.Color.WHITE);
 
@@ -144,6 +229,54 @@ public class BatikImageWithDataExporter extends ImageExporter
 		} catch(Exception e) {
 			throw new ConverterException(e);
 		}
-		vPathwayModel.dispose();
+	}
+
+	public void doExport(File file, PathwayModel pathwayModel) throws ConverterException
+	{
+		VPathwayModel vPathwayModel = new VPathwayModel(null);
+		vPathwayModel.fromModel(pathwayModel);
+
+		// if data visualization is enabled, link this VPathway up to the visualization manager.
+		if (dataVisible)
+		{
+			vPathwayModel.addVPathwayDrawListener(visualizationManager);
+			try
+			{
+				if (gexManager.getCachedData() != null)
+					gexManager.getCachedData().syncSeed(pathwayModel.getDataNodeXrefs());
+			}
+			catch (IDMapperException ex)
+			{
+				Logger.log.error ("Could not get data", ex);
+			}
+			catch (DataException ex)
+			{
+				Logger.log.error ("Could not get data", ex);
+			}
+		}
+
+		try
+		{
+			if (getType().equals(TYPE_SVG))
+			{
+				exportSvg(vPathwayModel, file);
+			}
+			else if (getType().equals(TYPE_PNG) || getType().equals(TYPE_TIFF))
+			{
+				exportRaster(vPathwayModel, file);
+			}
+			else if (getType().equals(TYPE_PDF))
+			{
+				exportTranscoded(vPathwayModel, file, new PDFTranscoder());
+			}
+			else
+			{
+				noExporterException();
+			}
+		}
+		finally
+		{
+			vPathwayModel.dispose();
+		}
 	}
 }
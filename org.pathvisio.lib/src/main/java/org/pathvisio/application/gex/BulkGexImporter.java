@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.application.gex;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.pathvisio.core.util.ProgressKeeper;
+import org.pathvisio.data.DataException;
+import org.pathvisio.debug.Logger;
+
+/**
+ * Imports a complete tab-delimited (or otherwise delimited) expression matrix into a new {@link SimpleGex}.
+ * <p>
+ * Lines are split and validated on a pool of worker threads, in chunks.
+ * The chunks are then written to the database in their original order
+ * through JDBC batches (see {@link SimpleGex#setBatchSize(int)}).
+ * System codes are resolved while writing, on the importing thread, as
+ * {@link DataSource#getBySystemCode(String)} registers unknown codes in a global registry.
+ * Indices are built once, when the import is finished.
+ * <p>
+ * Each data line becomes one group in the database, numbered from 0 in file order.
+ */
+public class BulkGexImporter
+{
+	private static final int CHUNK_SIZE = 500; // number of lines parsed per task
+
+	private final SimpleGex gex;
+	private final int idColumn;
+	private final int codeColumn;
+	private final DataSource defaultDataSource;
+	private final int[] sampleColumns;
+	private final String[] sampleNames;
+
+	private Pattern separator = Pattern.compile("\t");
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int batchSize = SimpleGex.DEFAULT_BATCH_SIZE;
+
+	// system codes resolved so far, only used on the importing thread
+	private final Map<String, DataSource> dataSources = new HashMap<String, DataSource>();
+
+	private int rowsImported = 0;
+	private int errors = 0;
+	private double rowsPerSecond = 0;
+
+	/**
+	 * @param gex a newly created SimpleGex, i.e. opened with create set to true
+	 * @param idColumn column index of the reporter identifiers
+	 * @param codeColumn column index of the system codes, or -1 to use defaultDataSource for all rows
+	 * @param defaultDataSource the data source for rows that have no system code
+	 * @param sampleColumns column indices of the samples to import
+	 * @param sampleNames names of the samples, in the same order as sampleColumns
+	 */
+	public BulkGexImporter(SimpleGex gex, int idColumn, int codeColumn, DataSource defaultDataSource,
+			int[] sampleColumns, String[] sampleNames)
+	{
+		if (sampleColumns.length != sampleNames.length)
+			throw new IllegalArgumentException("Need exactly one name per sample column");
+		this.gex = gex;
+		this.idColumn = idColumn;
+		this.codeColumn = codeColumn;
+		this.defaultDataSource = defaultDataSource;
+		this.sampleColumns = sampleColumns;
+		this.sampleNames = sampleNames;
+	}
+
+	/** Set the column separator, a regular expression. Default is a tab. */
+	public void setSeparator(String regex) { separator = Pattern.compile(regex); }
+
+	/** Set the number of parser threads. Default is the number of processors. */
+	public void setThreads(int value)
+	{
+		if (value < 1) throw new IllegalArgumentException("Need at least one thread");
+		threads = value;
+	}
+
+	/** Set the number of expression rows per JDBC batch. */
+	public void setBatchSize(int value) { batchSize = value; }
+
+	/** Number of data lines imported by the last call to importData */
+	public int getRowsImported() { return rowsImported; }
+
+	/** Number of lines that were skipped by the last call to importData because they could not be parsed */
+	public int getErrors() { return errors; }
+
+	/** Import speed of the last call to importData, in expression rows (lines) per second */
+	public double getRowsPerSecond() { return rowsPerSecond; }
+
+	/** One parsed line of the input */
+	private static class ParsedLine
+	{
+		final String id;
+		final String code; // null for the default data source
+		final String[] values;
+		final int group;
+
+		ParsedLine(String id, String code, String[] values, int group)
+		{
+			this.id = id;
+			this.code = code;
+			this.values = values;
+			this.group = group;
+		}
+	}
+
+	/** The result of parsing one chunk of lines */
+	private static class ParsedChunk
+	{
+		final List<ParsedLine> lines = new ArrayList<ParsedLine>();
+		int errors = 0;
+	}
+
+	private ParsedChunk parse(List<String> lines, int firstGroup)
+	{
+		ParsedChunk result = new ParsedChunk();
+		int group = firstGroup;
+		for (String line : lines)
+		{
+			String[] fields = separator.split(line, -1);
+			String id = idColumn < fields.length ? fields[idColumn].trim() : "";
+			String code = null;
+			if (codeColumn >= 0 && codeColumn < fields.length && fields[codeColumn].trim().length() > 0)
+			{
+				code = fields[codeColumn].trim();
+			}
+			if (id.length() == 0 || (code == null && defaultDataSource == null))
+			{
+				result.errors++;
+				group++;
+				continue;
+			}
+			String[] values = new String[sampleColumns.length];
+			for (int i = 0; i < sampleColumns.length; ++i)
+			{
+				values[i] = sampleColumns[i] < fields.length ? fields[sampleColumns[i]].trim() : "";
+			}
+			result.lines.add(new ParsedLine(id, code, values, group++));
+		}
+		return result;
+	}
+
+	/**
+	 * Import all lines from the reader, and finalize the database.
+	 * The reader should be positioned after the header line(s).
+	 * <p>
+	 * If the ProgressKeeper has a known total, it is interpreted as the number of data lines.
+	 * The import stops early if the ProgressKeeper is cancelled, the data read so far is kept.
+	 *
+	 * @param in the expression matrix
+	 * @param pk to report progress and check for cancellation, may be null
+	 */
+	public void importData(BufferedReader in, ProgressKeeper pk) throws DataException, IOException
+	{
+		long start = System.currentTimeMillis();
+		rowsImported = 0;
+		errors = 0;
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		// chunks in file order. Limited in size so that parsing can't run too far ahead of the database.
+		LinkedList<Future<ParsedChunk>> pending = new LinkedList<Future<ParsedChunk>>();
+		try
+		{
+			gex.setBatchSize(batchSize);
+			gex.prepare();
+			for (int i = 0; i < sampleNames.length; ++i)
+			{
+				gex.addSample(i, sampleNames[i], Types.REAL);
+			}
+
+			int group = 0;
+			boolean eof = false;
+			while (!eof || pending.size() > 0)
+			{
+				if (pk != null && pk.isCancelled()) break;
+
+				while (!eof && pending.size() < threads * 2)
+				{
+					final List<String> lines = new ArrayList<String>(CHUNK_SIZE);
+					String line;
+					while (lines.size() < CHUNK_SIZE && (line = in.readLine()) != null)
+					{
+						lines.add(line);
+					}
+					if (lines.size() < CHUNK_SIZE) eof = true;
+					if (lines.isEmpty()) break;
+
+					final int firstGroup = group;
+					group += lines.size();
+					pending.add(executor.submit(new Callable<ParsedChunk>()
+					{
+						public ParsedChunk call()
+						{
+							return parse(lines, firstGroup);
+						}
+					}));
+				}
+
+				if (pending.size() > 0)
+				{
+					write(pending.removeFirst().get());
+					if (pk != null)
+					{
+						if (!pk.isIndeterminate()) pk.setProgress(rowsImported + errors);
+						pk.report(rowsImported + " rows imported");
+					}
+				}
+			}
+
+			if (pk != null) pk.setTaskName("Finalizing database");
+			gex.finalize();
+		}
+		catch (SQLException ex)
+		{
+			throw new DataException(ex);
+		}
+		catch (IDMapperException ex)
+		{
+			throw new DataException(ex);
+		}
+		catch (InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new DataException(ex);
+		}
+		catch (ExecutionException ex)
+		{
+			throw new DataException(ex.getCause());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		rowsPerSecond = rowsImported * 1000.0 / elapsed;
+		Logger.log.info("Imported " + rowsImported + " rows (" + errors + " skipped) into " + gex.getDbName() +
+				" in " + elapsed + " ms, " + Math.round(rowsPerSecond) + " rows/sec");
+		if (pk != null) pk.finished();
+	}
+
+	private void write(ParsedChunk chunk) throws SQLException
+	{
+		for (ParsedLine line : chunk.lines)
+		{
+			Xref ref = new Xref(line.id, getDataSource(line.code));
+			for (int i = 0; i < line.values.length; ++i)
+			{
+				gex.addExpr(ref, "" + i, line.values[i], line.group);
+			}
+		}
+		rowsImported += chunk.lines.size();
+		errors += chunk.errors;
+	}
+
+	/** Look up a system code, with a cache so the global registry is only consulted once per code */
+	private DataSource getDataSource(String code)
+	{
+		if (code == null) return defaultDataSource;
+		DataSource ds = dataSources.get(code);
+		if (ds == null)
+		{
+			ds = DataSource.getBySystemCode(code);
+			dataSources.put(code, ds);
+		}
+		return ds;
+	}
+}
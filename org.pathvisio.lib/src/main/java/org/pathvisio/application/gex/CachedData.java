@@ -16,16 +16,25 @@
  ******************************************************************************/
 package org.pathvisio.application.gex;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.SwingUtilities;
 
@@ -49,21 +58,232 @@ import org.pathvisio.debug.WorkerThreadOnly;
  */
 public class CachedData
 {
-	//Data objects for gene-products on the pathway
-	private final ConcurrentHashMap<Xref, List<IRow>> data = new ConcurrentHashMap<Xref, List<IRow>>();
-	private final Executor executor;
+	/** Use as maxEntries or maxBytes to indicate there is no limit */
+	public static final int UNBOUNDED = 0;
+
+	/** Default number of threads that load data in the background */
+	public static final int DEFAULT_POOL_SIZE = 2;
+
+	// lower value means higher priority
+	private static final int PRIORITY_VISIBLE = 0;
+	private static final int PRIORITY_PREFETCH = 1;
+
+	// rough size estimates, used to keep a bounded cache within its byte budget
+	private static final int ROW_OVERHEAD_BYTES = 96;
+	private static final int VALUE_BYTES = 56;
+
+	//Data objects for gene-products on the pathway.
+	//Either a ConcurrentHashMap (unbounded) or an LruMap (bounded), the latter is guarded by its own lock.
+	private final Map<Xref, List<IRow>> data;
+	private final boolean bounded;
+	// entries evicted from a bounded cache, kept until the garbage collector needs the memory. May be null.
+	private final Map<Xref, SpillRef> spill;
+	// spilled references that the garbage collector has cleared, see purgeSpill()
+	private final ReferenceQueue<List<IRow>> spillQueue = new ReferenceQueue<List<IRow>>();
+
+	private final ThreadPoolExecutor executor;
+	// loads that are queued or running, used to coalesce requests for the same Xref
+	private final ConcurrentHashMap<Xref, LoadTask> inFlight = new ConcurrentHashMap<Xref, LoadTask>();
+	// order of submission, to keep tasks of equal priority first-in first-out
+	private final AtomicLong sequence = new AtomicLong();
+	// incremented when the cache is cleared, so loads that started before can't store stale data
+	private final AtomicInteger generation = new AtomicInteger();
+	// incremented whenever the cache is cleared, see getVersion()
+	private final AtomicInteger version = new AtomicInteger();
 
 	private final DataInterface parent;
 
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong spillHits = new AtomicLong();
+	private final AtomicLong loadTime = new AtomicLong();
+
 	/**
 	 * Do not instantiate in the PathVisio environment!
 	 * Use GexManager.getCachedData() instead.
 	 * Or you'll end up with multiple caches.
+	 * <p>
+	 * Creates an unbounded cache, that keeps all data until clearCache() is called.
 	 */
 	public CachedData (DataInterface parent)
+	{
+		this(parent, UNBOUNDED, UNBOUNDED, false, DEFAULT_POOL_SIZE);
+	}
+
+	/**
+	 * Do not instantiate in the PathVisio environment!
+	 * Use GexManager.getCachedData() instead.
+	 * <p>
+	 * Creates a cache that evicts the least recently used entries once it
+	 * holds more than maxEntries entries, or more than an estimated maxBytes.
+	 * @param maxEntries maximum number of Xrefs in the cache, or {@link #UNBOUNDED}
+	 * @param maxBytes maximum estimated size of the cached rows, or {@link #UNBOUNDED}
+	 * @param softSpill if true, evicted entries are kept as soft references,
+	 * 	and are picked up again if the garbage collector hasn't claimed them yet.
+	 * @param poolSize number of threads that load data for asyncGet and preSeed
+	 */
+	public CachedData (DataInterface parent, int maxEntries, long maxBytes, boolean softSpill, int poolSize)
 	{
 		this.parent = parent;
-		executor = Executors.newSingleThreadExecutor();
+		// only execute() is used, so the queue only ever holds LoadTasks, which are Comparable
+		executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>());
+		bounded = maxEntries != UNBOUNDED || maxBytes != UNBOUNDED;
+		if (bounded)
+		{
+			data = new LruMap(maxEntries, maxBytes);
+			spill = softSpill ? new ConcurrentHashMap<Xref, SpillRef>() : null;
+		}
+		else
+		{
+			data = new ConcurrentHashMap<Xref, List<IRow>>();
+			spill = null;
+		}
+	}
+
+	/** Soft reference to evicted rows that remembers its key, so it can be removed once cleared */
+	private static class SpillRef extends SoftReference<List<IRow>>
+	{
+		private final Xref key;
+
+		SpillRef(Xref key, List<IRow> rows, ReferenceQueue<List<IRow>> queue)
+		{
+			super(rows, queue);
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Remove the spill entries whose rows have been claimed by the garbage collector,
+	 * otherwise their keys and wrappers would accumulate in the spill forever.
+	 */
+	private void purgeSpill()
+	{
+		Reference<? extends List<IRow>> cleared;
+		while ((cleared = spillQueue.poll()) != null)
+		{
+			SpillRef ref = (SpillRef)cleared;
+			// the key may have been spilled again since, only remove this reference
+			spill.remove(ref.key, ref);
+		}
+	}
+
+	/**
+	 * Access-ordered map that evicts the least recently used entries when it's over budget.
+	 * Not thread safe, all access goes through lookup(), store() and clearCache().
+	 */
+	private class LruMap extends LinkedHashMap<Xref, List<IRow>>
+	{
+		private final int maxEntries;
+		private final long maxBytes;
+		private long bytes = 0;
+
+		LruMap(int maxEntries, long maxBytes)
+		{
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+			this.maxBytes = maxBytes;
+		}
+
+		private boolean isOverBudget()
+		{
+			return (maxEntries != UNBOUNDED && size() > maxEntries) ||
+				(maxBytes != UNBOUNDED && bytes > maxBytes);
+		}
+
+		@Override
+		public List<IRow> put(Xref key, List<IRow> value)
+		{
+			List<IRow> old = super.put(key, value);
+			if (old != null) bytes -= estimateSize(old);
+			bytes += estimateSize(value);
+
+			// always keep the newest entry, even if it alone is over budget.
+			Iterator<Map.Entry<Xref, List<IRow>>> it = entrySet().iterator();
+			while (isOverBudget() && size() > 1)
+			{
+				Map.Entry<Xref, List<IRow>> eldest = it.next();
+				it.remove();
+				bytes -= estimateSize(eldest.getValue());
+				evictions.incrementAndGet();
+				if (spill != null)
+				{
+					spill.put(eldest.getKey(), new SpillRef(eldest.getKey(), eldest.getValue(), spillQueue));
+				}
+			}
+			if (spill != null) purgeSpill();
+			return old;
+		}
+
+		@Override
+		public void clear()
+		{
+			super.clear();
+			bytes = 0;
+		}
+	}
+
+	/** Rough estimate of the memory used by a list of rows */
+	private static long estimateSize(List<IRow> rows)
+	{
+		long result = 0;
+		for (IRow row : rows)
+		{
+			result += ROW_OVERHEAD_BYTES + (long)VALUE_BYTES * row.getSamples().size();
+		}
+		return result;
+	}
+
+	private List<IRow> lookup(Xref ref)
+	{
+		List<IRow> result;
+		if (bounded)
+		{
+			synchronized (data) { result = data.get(ref); }
+		}
+		else
+		{
+			result = data.get(ref);
+		}
+		if (result == null && spill != null)
+		{
+			purgeSpill();
+			SpillRef spilled = spill.remove(ref);
+			if (spilled != null)
+			{
+				result = spilled.get();
+				if (result != null)
+				{
+					spillHits.incrementAndGet();
+					store(ref, result);
+				}
+			}
+		}
+		return result;
+	}
+
+	private void store(Xref ref, List<IRow> rows)
+	{
+		if (bounded)
+		{
+			synchronized (data) { data.put(ref, rows); }
+		}
+		else
+		{
+			data.put(ref, rows);
+		}
+	}
+
+	/**
+	 * A number that changes whenever the cache is cleared.
+	 * Anything derived from the cached data, such as a rendered visualization,
+	 * is up to date as long as the version stays the same, and no data has been
+	 * loaded for it since, see {@link LoadListener}.
+	 */
+	public int getVersion()
+	{
+		return version.get();
 	}
 
 	/**
@@ -72,7 +292,7 @@ public class CachedData
 	 * @return true if data is available for the gene-product, false if not
 	 */
 	public boolean hasData(Xref pwId) {
-		return data.containsKey(pwId);
+		return lookup(pwId) != null;
 	}
 
 	/**
@@ -82,7 +302,45 @@ public class CachedData
 	 * @return a list of {@link ReporterData} object containing the cached data, or null when no data is available
 	 */
 	public List<? extends IRow> getData(Xref idc) {
-		return data.get(idc);
+		return lookup(idc);
+	}
+
+	/** Number of lookups through syncGet, asyncGet or syncSeed that were served from the cache */
+	public long getHitCount() { return hits.get(); }
+
+	/** Number of lookups through syncGet, asyncGet or syncSeed that had to load data */
+	public long getMissCount() { return misses.get(); }
+
+	/** Number of entries evicted from a bounded cache. Always 0 for an unbounded cache */
+	public long getEvictionCount() { return evictions.get(); }
+
+	/** Number of lookups that recovered an evicted entry from the soft reference spill */
+	public long getSpillHitCount() { return spillHits.get(); }
+
+	/** Total time spent loading data on cache misses, in milliseconds */
+	public long getTotalLoadTime() { return TimeUnit.NANOSECONDS.toMillis(loadTime.get()); }
+
+	/** Number of Xrefs currently in the cache, not counting spilled entries */
+	public int getSize()
+	{
+		if (bounded)
+		{
+			synchronized (data) { return data.size(); }
+		}
+		return data.size();
+	}
+
+	/**
+	 * A one-line summary of the cache statistics, suitable for a log line or status panel.
+	 */
+	public String getStatistics()
+	{
+		long h = hits.get();
+		long m = misses.get();
+		long pct = h + m == 0 ? 0 : Math.round(100.0 * h / (h + m));
+		return "CACHE: " + getSize() + " entries, " + h + " hits, " + m + " misses (" + pct + "% hit rate), " +
+			evictions.get() + " evictions, " + spillHits.get() + " spill hits, " +
+			getTotalLoadTime() + " ms loading";
 	}
 
 	public interface Callback
@@ -90,17 +348,73 @@ public class CachedData
 		public void callback();
 	}
 
-	private volatile int tasks = 0;
+	/**
+	 * Notified when data has been loaded, e.g. to redraw the elements it belongs to.
+	 */
+	public interface LoadListener
+	{
+		/**
+		 * Called on the event dispatch thread. Loads that finish in quick succession
+		 * are reported together.
+		 * @param refs the Xrefs for which data has been loaded since the previous call
+		 */
+		public void dataLoaded(Set<Xref> refs);
+	}
+
+	// only used on the event dispatch thread
+	private final List<LoadListener> loadListeners = new ArrayList<LoadListener>();
+	// loaded Xrefs that haven't been reported to the listeners yet, guarded by itself
+	private final Set<Xref> loaded = new HashSet<Xref>();
 
-	// called from two different threads
+	/** Add a listener for loaded data. Call on the event dispatch thread */
+	public void addLoadListener(LoadListener l)
+	{
+		loadListeners.add(l);
+	}
+
+	/** Remove a listener for loaded data. Call on the event dispatch thread */
+	public void removeLoadListener(LoadListener l)
+	{
+		loadListeners.remove(l);
+	}
+
+	/**
+	 * Report loaded Xrefs to the listeners. Only the first report after the previous
+	 * notification schedules a new one, so a burst of loads causes a single notification.
+	 * Called from the loading threads.
+	 */
+	private void fireLoaded(Collection<Xref> refs)
+	{
+		synchronized (loaded)
+		{
+			boolean pending = !loaded.isEmpty();
+			loaded.addAll(refs);
+			if (pending || loaded.isEmpty()) return;
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				Set<Xref> batch;
+				synchronized (loaded)
+				{
+					batch = new HashSet<Xref>(loaded);
+					loaded.clear();
+				}
+				for (LoadListener l : new ArrayList<LoadListener>(loadListeners)) l.dataLoaded(batch);
+		}});
+	}
+
+	private final AtomicInteger tasks = new AtomicInteger();
+
+	// called from several threads
 	@ThreadSafe
 	private void updateTasks (int delta)
 	{
-		int oldtasks = tasks;
-		tasks += delta;
-		if (oldtasks == 0 || tasks == 0)
+		int newtasks = tasks.addAndGet(delta);
+		int oldtasks = newtasks - delta;
+		if (oldtasks == 0 || newtasks == 0)
 		{
-			Logger.log.info ("CACHE: " + (tasks == 0 ? "STOPPED" : "STARTED"));
+			Logger.log.info ("CACHE: " + (newtasks == 0 ? "STOPPED" : "STARTED"));
+			if (newtasks == 0) Logger.log.info (getStatistics());
 		}
 	}
 
@@ -115,52 +429,176 @@ public class CachedData
 			destFilterCache = parent.getUsedDatasources();
 		}
 
-		List<IRow> result;
-		if (!data.containsKey (ref))
+		int gen = generation.get();
+		List<IRow> result = lookup(ref);
+		if (result == null)
 		{
+			misses.incrementAndGet();
+			long start = System.nanoTime();
 			// get results and sort them
 			result = new ArrayList<IRow>();
 			Collection <? extends IRow> collection = getDataForXref(ref, mapper, destFilterCache);
 			if (collection != null) result.addAll(collection);
 			Collections.sort(result);
-			data.put (ref, result);
+			// don't store if the cache was cleared, e.g. because the mapper changed while we were loading
+			if (gen == generation.get())
+			{
+				store (ref, result);
+				fireLoaded(Collections.singleton(ref));
+			}
+			loadTime.addAndGet(System.nanoTime() - start);
 		}
 		else
 		{
-			result = data.get(ref);
+			hits.incrementAndGet();
 		}
 		return result;
 	}
 
-	public void asyncGet(final Xref ref, final Callback callback)
+	/**
+	 * A queued or running load of the data for a single Xref.
+	 * Callbacks of all requests for the same Xref are collected in the same task.
+	 */
+	private class LoadTask implements Runnable, Comparable<LoadTask>
 	{
-		updateTasks (+1);
-		executor.execute (new Runnable()
+		private final Xref ref;
+		private volatile int priority;
+		private volatile long order;
+		private final List<Callback> callbacks = new ArrayList<Callback>();
+		private boolean done = false;
+
+		LoadTask(Xref ref, int priority)
+		{
+			this.ref = ref;
+			this.priority = priority;
+			this.order = sequence.getAndIncrement();
+		}
+
+		/**
+		 * Add a callback, to be called when this task is done.
+		 * @return false if this task has already finished, in which case the callback is not added.
+		 */
+		synchronized boolean addCallback(Callback callback)
 		{
-			public void run()
+			if (done) return false;
+			if (callback != null) callbacks.add(callback);
+			return true;
+		}
+
+		public void run()
+		{
+			try {
+				syncGet(ref);
+			} catch (IDMapperException e) {
+				Logger.log.error ("Exception while loading expression data for " + ref, e);
+			}
+			catch (DataException e) {
+				Logger.log.error ("Exception while loading expression data for " + ref, e);
+			}
+
+			final List<Callback> toCall;
+			synchronized (this)
+			{
+				done = true;
+				toCall = new ArrayList<Callback>(callbacks);
+			}
+			inFlight.remove(ref, this);
+			updateTasks (-1);
+			if (toCall.size() > 0)
 			{
-				try {
-					syncGet(ref);
-				} catch (IDMapperException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-				catch (DataException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-				updateTasks (-1);
 				SwingUtilities.invokeLater(new Runnable() {
 					public void run() {
-					callback.callback();
+						for (Callback callback : toCall) callback.callback();
 				}});
 			}
-		});
+		}
+
+		public int compareTo(LoadTask o)
+		{
+			if (priority != o.priority) return priority < o.priority ? -1 : 1;
+			return order < o.order ? -1 : (order == o.order ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Queue a load for the given Xref, or join a load that is already queued or running.
+	 * If a queued prefetch is joined by a visible request, it is moved up in the queue.
+	 */
+	private void schedule(Xref ref, Callback callback, int priority)
+	{
+		while (true)
+		{
+			LoadTask task = inFlight.get(ref);
+			if (task != null && task.addCallback(callback))
+			{
+				if (priority < task.priority && executor.remove(task))
+				{
+					task.priority = priority;
+					task.order = sequence.getAndIncrement();
+					executor.execute(task);
+				}
+				return;
+			}
+
+			LoadTask newTask = new LoadTask(ref, priority);
+			newTask.addCallback(callback);
+			boolean added = task == null ?
+					inFlight.putIfAbsent(ref, newTask) == null :
+					inFlight.replace(ref, task, newTask);
+			if (added)
+			{
+				updateTasks (+1);
+				executor.execute(newTask);
+				return;
+			}
+			// another thread got there first, try again
+		}
+	}
+
+	/**
+	 * Load the data for the given Xref in the background, and call callback
+	 * on the event dispatch thread when done.
+	 * Use this for elements that are visible, these requests go ahead of data queued by preSeed.
+	 */
+	public void asyncGet(final Xref ref, final Callback callback)
+	{
+		schedule(ref, callback, PRIORITY_VISIBLE);
+	}
+
+	/**
+	 * Remove all queued prefetch work. Loads requested by asyncGet are kept,
+	 * as somebody is waiting for their callback.
+	 */
+	private void cancelPrefetch()
+	{
+		for (Runnable r : executor.getQueue().toArray(new Runnable[0]))
+		{
+			LoadTask task = (LoadTask)r;
+			if (task.priority == PRIORITY_PREFETCH && executor.remove(task))
+			{
+				inFlight.remove(task.ref, task);
+				updateTasks (-1);
+			}
+		}
 	}
 
 	private Collection<? extends IRow> getDataForXref(Xref srcRef, IDMapper gdb, Set<DataSource> destFilter) throws IDMapperException, DataException
 	{
-		// get all cross-refs for this id
+		Set<Xref> destRefs = getDestRefs(srcRef, gdb, destFilter);
+		if(destRefs.size() > 0)
+		{
+			return parent.getData(destRefs);
+		}
+		else
+			return Collections.emptyList();
+	}
+
+	/**
+	 * Get all cross-refs for the given id that occur in the dataset,
+	 * including the id itself.
+	 */
+	private Set<Xref> getDestRefs(Xref srcRef, IDMapper gdb, Set<DataSource> destFilter) throws IDMapperException
+	{
 		Set<Xref> destRefs = new HashSet<Xref>();
 		if (gdb.isConnected() && srcRef.getId() != null && srcRef.getDataSource() != null)
 		{
@@ -179,13 +617,7 @@ public class CachedData
 		{
 			destRefs.add(srcRef);
 		}
-
-		if(destRefs.size() > 0)
-		{
-			return parent.getData(destRefs);
-		}
-		else
-			return Collections.emptyList();
+		return destRefs;
 	}
 
 	private IDMapper mapper = null;
@@ -205,7 +637,9 @@ public class CachedData
 	}
 
 	/**
-	 * Starts loading expression data for all the given gene ids into memory
+	 * Starts loading expression data for all the given gene ids into memory.
+	 * Loading happens in the background, with lower priority than asyncGet requests.
+	 * Queued work is cancelled when the cache is cleared or the mapper changes.
 	 * @param srcRefs Xrefs to cache the expression data for
 	 * 	(typically all genes and metabolites in a pathway)
 	 */
@@ -214,29 +648,93 @@ public class CachedData
 		// seed samples cache
 		parent.getSamples();
 
-		//TODO preseed cache with srcRefs in background.
-		// somehow with lower priority than the ones for visualization
+		for (Xref ref : srcRefs)
+		{
+			if (lookup(ref) == null) schedule(ref, null, PRIORITY_PREFETCH);
+		}
 	}
 
 	@WorkerThreadOnly
 	/**
 	 * Load expression data for given Xrefs into cache.
 	 * Waits until the process is done.
+	 * <p>
+	 * All Xrefs are first mapped, and then the data for all of them is fetched
+	 * from the parent in a single call, so the parent can use set-based queries.
 	 */
 	public void syncSeed(Collection<Xref> srcRefs) throws DataException, IDMapperException
 	{
 		// seed samples cache
 		parent.getSamples();
 
+		if (destFilterCache == null)
+		{
+			destFilterCache = parent.getUsedDatasources();
+		}
+
+		int gen = generation.get();
+		long start = System.nanoTime();
+		Map<Xref, Set<Xref>> destRefsBySrc = new HashMap<Xref, Set<Xref>>();
+		Set<Xref> allDestRefs = new HashSet<Xref>();
 		for (Xref ref : srcRefs)
 		{
-			syncGet(ref);
+			if (destRefsBySrc.containsKey(ref)) continue;
+			if (lookup(ref) != null)
+			{
+				hits.incrementAndGet();
+				continue;
+			}
+			misses.incrementAndGet();
+			Set<Xref> destRefs = getDestRefs(ref, mapper, destFilterCache);
+			destRefsBySrc.put(ref, destRefs);
+			allDestRefs.addAll(destRefs);
+		}
+		if (destRefsBySrc.isEmpty()) return;
+
+		Map<Xref, List<IRow>> rowsByDest = new HashMap<Xref, List<IRow>>();
+		if (allDestRefs.size() > 0)
+		{
+			for (IRow row : parent.getData(allDestRefs))
+			{
+				List<IRow> rows = rowsByDest.get(row.getXref());
+				if (rows == null)
+				{
+					rows = new ArrayList<IRow>();
+					rowsByDest.put(row.getXref(), rows);
+				}
+				rows.add(row);
+			}
+		}
+
+		for (Map.Entry<Xref, Set<Xref>> entry : destRefsBySrc.entrySet())
+		{
+			List<IRow> result = new ArrayList<IRow>();
+			for (Xref destRef : entry.getValue())
+			{
+				List<IRow> rows = rowsByDest.get(destRef);
+				if (rows != null) result.addAll(rows);
+			}
+			Collections.sort(result);
+			if (gen == generation.get()) store(entry.getKey(), result);
 		}
+		if (gen == generation.get()) fireLoaded(destRefsBySrc.keySet());
+		loadTime.addAndGet(System.nanoTime() - start);
 	}
 
 	public void clearCache()
 	{
-		data.clear();
+		generation.incrementAndGet();
+		cancelPrefetch();
+		if (bounded)
+		{
+			synchronized (data) { data.clear(); }
+		}
+		else
+		{
+			data.clear();
+		}
+		if (spill != null) spill.clear();
+		version.incrementAndGet();
 	}
 
 	public String getDbName()
@@ -273,6 +771,7 @@ public class CachedData
 
 	public void dispose()
 	{
-		((ExecutorService)executor).shutdown();
+		cancelPrefetch();
+		executor.shutdown();
 	}
 }
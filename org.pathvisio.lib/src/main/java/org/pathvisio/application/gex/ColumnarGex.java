@@ -0,0 +1,544 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.application.gex;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+import org.pathvisio.data.ColumnarData;
+import org.pathvisio.data.DataException;
+import org.pathvisio.data.DataInterface;
+import org.pathvisio.data.IRow;
+import org.pathvisio.data.ISample;
+
+/**
+ * Read-only {@link DataInterface} that stores expression data column by column.
+ * <p>
+ * A columnar dataset is a directory (by convention ending in {@link #EXTENSION})
+ * with one file of raw doubles per sample, which is memory-mapped when the dataset is opened,
+ * and a small reporter index that maps each Xref to the rows it occurs in.
+ * The row number is also used as group id.
+ * <p>
+ * Because values are stored as doubles, rows can be read without parsing any strings.
+ * The flip side is that text values can't be stored: missing and non-numeric values are stored as NaN.
+ * <p>
+ * Use {@link Writer} to create a new dataset,
+ * or {@link #create(File, DataInterface)} to convert an existing one such as a {@link SimpleGex}.
+ */
+public class ColumnarGex implements DataInterface, ColumnarData
+{
+	/** Extension of the directory holding a columnar dataset */
+	public static final String EXTENSION = ".cgex";
+
+	private static final int COLUMNAR_COMPAT_VERSION = 1; //Preferred format version
+
+	private static final String INFO_FILE = "info.txt";
+	private static final String SAMPLES_FILE = "samples.txt";
+	private static final String REPORTERS_FILE = "reporters.txt";
+	private static final String COLUMN_PREFIX = "column_";
+	private static final String COLUMN_SUFFIX = ".dat";
+
+	private final File dir;
+
+	private Map<Integer, Sample> samples;
+	private List<Sample> orderedSamples;
+	private Map<ISample, Integer> sampleIndex;
+
+	private Xref[] reporters;
+	private Map<Xref, int[]> reporterIndex;
+	private Set<DataSource> usedDatasources;
+
+	// one column per sample, in the same order as orderedSamples
+	private DoubleBuffer[] columns;
+
+	/**
+	 * Returns true if the given name points to a columnar dataset,
+	 * i.e. a directory with the {@link #EXTENSION} extension.
+	 */
+	public static boolean isColumnarGex(String dbName)
+	{
+		if (dbName == null || !dbName.endsWith(EXTENSION)) return false;
+		return new File(dbName).isDirectory();
+	}
+
+	/**
+	 * Open an existing columnar dataset.
+	 * @param dir the directory that was written by {@link Writer}
+	 */
+	public ColumnarGex(File dir) throws DataException
+	{
+		this.dir = dir;
+		try
+		{
+			checkVersion();
+			readSamples();
+			readReporters();
+			mapColumns();
+		}
+		catch (IOException ex)
+		{
+			throw new DataException ("Could not open columnar dataset " + dir, ex);
+		}
+	}
+
+	private void checkVersion() throws IOException, DataException
+	{
+		BufferedReader reader = new BufferedReader(new FileReader(new File(dir, INFO_FILE)));
+		try
+		{
+			String line = reader.readLine();
+			int version = line == null ? -1 : Integer.parseInt(line.trim());
+			if (version != COLUMNAR_COMPAT_VERSION)
+			{
+				throw new DataException ("Unsupported columnar dataset version " + version);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private void readSamples() throws IOException
+	{
+		samples = new HashMap<Integer, Sample>();
+		BufferedReader reader = new BufferedReader(new FileReader(new File(dir, SAMPLES_FILE)));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				// name goes last, so it may contain tabs
+				String[] fields = line.split("\t", 3);
+				int id = Integer.parseInt(fields[0]);
+				int dataType = Integer.parseInt(fields[1]);
+				samples.put(id, new Sample(id, fields[2], "undefined", dataType));
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		orderedSamples = new ArrayList<Sample>(samples.values());
+		Collections.sort(orderedSamples);
+		sampleIndex = new HashMap<ISample, Integer>();
+		for (int i = 0; i < orderedSamples.size(); ++i)
+		{
+			sampleIndex.put(orderedSamples.get(i), i);
+		}
+	}
+
+	private void readReporters() throws IOException
+	{
+		List<Xref> refs = new ArrayList<Xref>();
+		reporterIndex = new HashMap<Xref, int[]>();
+		usedDatasources = new HashSet<DataSource>();
+		BufferedReader reader = new BufferedReader(new FileReader(new File(dir, REPORTERS_FILE)));
+		try
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] fields = line.split("\t", 2);
+				DataSource ds = fields[1].length() == 0 ? null : DataSource.getBySystemCode(fields[1]);
+				Xref ref = new Xref(fields[0], ds);
+				int row = refs.size();
+				refs.add(ref);
+				if (ds != null) usedDatasources.add(ds);
+
+				// reporters occur only once in most datasets, so grow the array one at a time.
+				int[] rows = reporterIndex.get(ref);
+				if (rows == null)
+				{
+					rows = new int[] { row };
+				}
+				else
+				{
+					rows = Arrays.copyOf(rows, rows.length + 1);
+					rows[rows.length - 1] = row;
+				}
+				reporterIndex.put(ref, rows);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		reporters = refs.toArray(new Xref[refs.size()]);
+	}
+
+	private void mapColumns() throws IOException, DataException
+	{
+		columns = new DoubleBuffer[orderedSamples.size()];
+		for (int i = 0; i < columns.length; ++i)
+		{
+			File f = getColumnFile(dir, orderedSamples.get(i));
+			FileInputStream in = new FileInputStream(f);
+			try
+			{
+				FileChannel channel = in.getChannel();
+				if (channel.size() != (long)reporters.length * 8)
+				{
+					throw new DataException ("Column " + f + " does not match the number of reporters");
+				}
+				// the mapping stays valid after the channel is closed.
+				columns[i] = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asDoubleBuffer();
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+	}
+
+	private static File getColumnFile(File dir, ISample s)
+	{
+		return new File(dir, COLUMN_PREFIX + s.getId() + COLUMN_SUFFIX);
+	}
+
+	private int getSampleIndex(ISample s) throws DataException
+	{
+		Integer index = sampleIndex.get(s);
+		if (index == null) throw new DataException ("Sample " + s + " is not part of " + getDbName());
+		return index;
+	}
+
+	/**
+	 * Get a single value without creating a row.
+	 * @return the value, or NaN if the value is missing
+	 */
+	public double getValue(int rowId, ISample s) throws DataException
+	{
+		return columns[getSampleIndex(s)].get(rowId);
+	}
+
+	/**
+	 * Get a copy of all values of one sample, indexed by row number.
+	 */
+	@Override
+	public double[] getColumn(ISample s) throws DataException
+	{
+		double[] result = new double[reporters.length];
+		DoubleBuffer column = columns[getSampleIndex(s)].duplicate();
+		column.rewind();
+		column.get(result);
+		return result;
+	}
+
+	@Override
+	public ISample getSample(int id) throws DataException
+	{
+		return samples.get(id);
+	}
+
+	@Override
+	public ISample findSample(String name) throws DataException
+	{
+		for (Sample s : orderedSamples)
+		{
+			if (s.getName().equals(name)) return s;
+		}
+		return null;
+	}
+
+	@Override
+	public List<String> getSampleNames()
+	{
+		return getSampleNames(-1);
+	}
+
+	@Override
+	public List<String> getSampleNames(int dataType)
+	{
+		List<String> names = new ArrayList<String>();
+		for (Sample s : orderedSamples)
+		{
+			if (dataType == s.getDataType() || dataType == -1)
+				names.add(s.getName());
+		}
+		return names;
+	}
+
+	@Override
+	public List<? extends ISample> getOrderedSamples() throws DataException
+	{
+		return Collections.unmodifiableList(orderedSamples);
+	}
+
+	@Override
+	public Map<Integer, ? extends ISample> getSamples() throws DataException
+	{
+		return samples;
+	}
+
+	@Override
+	public Set<DataSource> getUsedDatasources() throws DataException
+	{
+		return Collections.unmodifiableSet(usedDatasources);
+	}
+
+	@Override
+	public ReporterData getRow(int rowId) throws DataException
+	{
+		if (!isConnected()) throw new DataException ("Dataset " + getDbName() + " is closed");
+		if (rowId < 0 || rowId >= reporters.length) throw new DataException ("No such row: " + rowId);
+		ReporterData result = new ReporterData(reporters[rowId], rowId);
+		for (int i = 0; i < columns.length; ++i)
+		{
+			double value = columns[i].get(rowId);
+			// leave missing values out, so getSampleData returns null for them, not NaN
+			if (!Double.isNaN(value)) result.setSampleAsObject(orderedSamples.get(i), value);
+		}
+		return result;
+	}
+
+	@Override
+	public int getNrRow() throws DataException
+	{
+		return reporters.length;
+	}
+
+	@Override
+	public Collection<? extends IRow> getData(Set<Xref> destRefs) throws DataException
+	{
+		List<IRow> result = new ArrayList<IRow>();
+		for (Xref destRef : destRefs)
+		{
+			int[] rows = reporterIndex.get(destRef);
+			if (rows == null) continue;
+			for (int row : rows)
+			{
+				result.add(getRow(row));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public Iterable<IRow> getIterator() throws DataException
+	{
+		return new Iterable<IRow>()
+		{
+			@Override
+			public Iterator<IRow> iterator()
+			{
+				return new Iterator<IRow>()
+				{
+					private int next = 0;
+
+					@Override
+					public boolean hasNext()
+					{
+						return next < reporters.length;
+					}
+
+					@Override
+					public IRow next()
+					{
+						if (!hasNext()) throw new NoSuchElementException();
+						try
+						{
+							return getRow(next++);
+						}
+						catch (DataException e)
+						{
+							throw new NoSuchElementException("Error fetching next element: " + e.getMessage());
+						}
+					}
+
+					@Override
+					public void remove()
+					{
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public boolean isConnected()
+	{
+		return columns != null;
+	}
+
+	@Override
+	public String getDbName()
+	{
+		return dir.getAbsolutePath();
+	}
+
+	/**
+	 * Releases the column buffers. The memory mappings themselves
+	 * are released once the buffers are garbage collected.
+	 */
+	@Override
+	public void close() throws DataException
+	{
+		columns = null;
+	}
+
+	/**
+	 * Convert any other dataset into a columnar dataset.
+	 * Non-numeric values are stored as NaN.
+	 * @param dir the directory to write to, should end with {@link #EXTENSION}
+	 * @param source the dataset to convert
+	 * @return the newly written dataset, opened for reading
+	 */
+	public static ColumnarGex create(File dir, DataInterface source) throws DataException
+	{
+		List<? extends ISample> ordered = source.getOrderedSamples();
+		Writer writer = new Writer(dir, ordered);
+		double[] values = new double[ordered.size()];
+		for (IRow row : source.getIterator())
+		{
+			for (int i = 0; i < values.length; ++i)
+			{
+				Object value = row.getSampleData(ordered.get(i));
+				values[i] = value instanceof Number ? ((Number)value).doubleValue() : Double.NaN;
+			}
+			writer.addRow(row.getXref(), values);
+		}
+		writer.close();
+		return new ColumnarGex(dir);
+	}
+
+	/**
+	 * Writes a new columnar dataset row by row.
+	 * Values are streamed straight to the column files,
+	 * so the full matrix never has to be in memory.
+	 * Call {@link #close()} when done, the dataset can't be opened before that.
+	 */
+	public static class Writer
+	{
+		private final File dir;
+		private final List<? extends ISample> samples;
+		private final DataOutputStream[] out;
+		private final PrintWriter reporterOut;
+
+		/**
+		 * @param dir directory to write to. It will be created if necessary.
+		 * @param samples the samples, in the order in which values are passed to {@link #addRow(Xref, double[])}
+		 */
+		public Writer(File dir, List<? extends ISample> samples) throws DataException
+		{
+			this.dir = dir;
+			this.samples = new ArrayList<ISample>(samples);
+			if (!dir.isDirectory() && !dir.mkdirs())
+			{
+				throw new DataException ("Could not create directory " + dir);
+			}
+			// invalidate any dataset previously written here until close() is called.
+			new File(dir, INFO_FILE).delete();
+			out = new DataOutputStream[samples.size()];
+			try
+			{
+				for (int i = 0; i < out.length; ++i)
+				{
+					out[i] = new DataOutputStream(new BufferedOutputStream(
+							new FileOutputStream(getColumnFile(dir, samples.get(i)))));
+				}
+				reporterOut = new PrintWriter(new BufferedWriter(new FileWriter(new File(dir, REPORTERS_FILE))));
+			}
+			catch (IOException ex)
+			{
+				throw new DataException (ex);
+			}
+		}
+
+		/**
+		 * Add a row of data.
+		 * @param ref the reporter
+		 * @param values one value per sample, use NaN for missing values
+		 */
+		public void addRow(Xref ref, double[] values) throws DataException
+		{
+			if (values.length != out.length)
+			{
+				throw new IllegalArgumentException ("Expected " + out.length + " values, got " + values.length);
+			}
+			DataSource ds = ref.getDataSource();
+			reporterOut.print(ref.getId());
+			reporterOut.print('\t');
+			reporterOut.println(ds == null ? "" : ds.getSystemCode());
+			try
+			{
+				for (int i = 0; i < out.length; ++i)
+				{
+					out[i].writeDouble(values[i]);
+				}
+			}
+			catch (IOException ex)
+			{
+				throw new DataException (ex);
+			}
+		}
+
+		/**
+		 * Flush all columns and write the sample list and version info.
+		 */
+		public void close() throws DataException
+		{
+			try
+			{
+				for (DataOutputStream o : out) o.close();
+				reporterOut.close();
+				if (reporterOut.checkError()) throw new IOException("Could not write " + REPORTERS_FILE);
+
+				PrintWriter sampleOut = new PrintWriter(new FileWriter(new File(dir, SAMPLES_FILE)));
+				for (ISample s : samples)
+				{
+					sampleOut.println(s.getId() + "\t" + s.getDataType() + "\t" + s.getName());
+				}
+				sampleOut.close();
+
+				// written last, so a half-written dataset can't be opened.
+				PrintWriter infoOut = new PrintWriter(new FileWriter(new File(dir, INFO_FILE)));
+				infoOut.println(COLUMNAR_COMPAT_VERSION);
+				infoOut.close();
+			}
+			catch (IOException ex)
+			{
+				throw new DataException (ex);
+			}
+		}
+	}
+}
@@ -16,6 +16,7 @@
  ******************************************************************************/
 package org.pathvisio.application.gex;
 
+import java.io.File;
 import java.util.EventObject;
 import java.util.HashSet;
 import java.util.Set;
@@ -67,19 +68,44 @@ public class GexManager
 	{
 		close(); // close old gex.
 		currentGex = gex;
-		cachedData = new CachedData(gex);
+		cachedData = createCachedData(gex);
 		fireExpressionDataEvent(new GexManagerEvent(gex, GexManagerEvent.CONNECTION_OPENED));
 	}
 
+	/**
+	 * Create the cache for a newly opened Gex.
+	 * The cache is unbounded, unless limits are set in the preferences.
+	 */
+	private CachedData createCachedData(DataInterface gex)
+	{
+		PreferenceManager prefs = PreferenceManager.getCurrent();
+		int maxEntries = prefs.getInt(GlobalPreference.GEX_CACHE_MAX_ENTRIES);
+		long maxBytes = prefs.getInt(GlobalPreference.GEX_CACHE_MAX_MB) * 1024L * 1024L;
+		boolean softSpill = prefs.getBoolean(GlobalPreference.GEX_CACHE_SOFT_SPILL);
+		int poolSize = Math.max(1, prefs.getInt(GlobalPreference.GEX_CACHE_THREADS));
+		return new CachedData(gex, maxEntries, maxBytes, softSpill, poolSize);
+	}
+
 	/**
 	 * Create or connect to a new Gex based on the dbName.
 	 * Uses a DBConnector obtained from the preferences.
+	 * <p>
+	 * If dbName points to a columnar dataset (see {@link ColumnarGex#isColumnarGex(String)}),
+	 * that is opened instead. Columnar datasets are read-only, use
+	 * {@link ColumnarGex.Writer} to create them.
 	 *
 	 * @param dbName name of the database (usually file or directory name)
 	 * @param create true if you want to create / overwrite a database
 	 */
 	public void setCurrentGex (String dbName, boolean create) throws DataException
 	{
+		if (ColumnarGex.isColumnarGex(dbName))
+		{
+			if (create) throw new DataException ("Can't create " + dbName + ", columnar datasets are read-only");
+			setCurrentGex (new ColumnarGex (new File (dbName)));
+			return;
+		}
+
 		DBConnector connector;
 		try
 		{
@@ -67,9 +67,13 @@ public class SimpleGex implements DataInterface
 	private static final int GEX_COMPAT_VERSION = 2; //Preferred schema version
 	private static final int SAMPLE_NAME_LEN = 50; // max length of sample names
 
+	/** Default number of expression rows sent to the database in one JDBC batch */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
 	private Connection con;
 	private DBConnector dbConnector;
-	private int commitCount = 0;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int pendingBatch = 0;
 
 	private static CachedData cachedData;
 
@@ -116,9 +120,24 @@ public class SimpleGex implements DataInterface
 	}
 
 
+	/**
+	 * Set the number of expression rows that addExpr collects before
+	 * sending them to the database in a single JDBC batch.
+	 * Each batch is committed when it is sent.
+	 */
+	public void setBatchSize(int value)
+	{
+		if (value < 1) throw new IllegalArgumentException("Batch size must be at least 1");
+		batchSize = value;
+	}
+
+	public int getBatchSize() { return batchSize; }
+
 	/**
 	 * add a Sample to the db.
 	 * Must call preprare() before.
+	 * The sample is committed together with the next batch of expression data,
+	 * or by commit() / finalize().
 	 */
 	public void addSample(int sampleId, String value, int type) throws SQLException
 	{
@@ -129,11 +148,11 @@ public class SimpleGex implements DataInterface
 		pstSample.setString(2, value);
 		pstSample.setInt(3, type);
 		pstSample.execute();
-		con.commit();
 	}
 
 	/**
 	 * Add an expression row to the db. Must call prepare() before.
+	 * Rows are collected in a JDBC batch, see setBatchSize().
 	 */
 	public void addExpr(Xref ref, String idSample, String value, int group)
 		throws SQLException
@@ -150,8 +169,21 @@ public class SimpleGex implements DataInterface
 		if (value.length() > 50) truncValue = value.substring(0, 50);
 		pstExpr.setString(4, truncValue);
 		pstExpr.setInt(5, group);
-		pstExpr.execute();
-		if (++commitCount % 1000 == 0) con.commit();
+		pstExpr.addBatch();
+		if (++pendingBatch >= batchSize) executeBatch();
+	}
+
+	/**
+	 * Send pending expression rows to the database and commit them.
+	 */
+	private void executeBatch() throws SQLException
+	{
+		if (pendingBatch > 0)
+		{
+			pstExpr.executeBatch();
+			pendingBatch = 0;
+		}
+		con.commit();
 	}
 
 	public ISample getSample(int id) throws DataException
@@ -275,8 +307,89 @@ public class SimpleGex implements DataInterface
 		}
 	}
 
+	/** Maximum number of Xrefs looked up in a single query by getData */
+	static final int BATCH_SIZE = 100;
+
+	PreparedStatement pstBatch = null;
+
+	/**
+	 * Lazy instantiation of the batched lookup statement.
+	 * The statement always takes {@link #BATCH_SIZE} ids,
+	 * so that it can be prepared once and reused for every batch.
+	 */
+	private PreparedStatement getPstBatch() throws SQLException
+	{
+		if (pstBatch == null)
+		{
+			StringBuilder params = new StringBuilder("?");
+			for (int i = 1; i < BATCH_SIZE; ++i) params.append(", ?");
+			pstBatch = con.prepareStatement(
+			"SELECT id, code, data, idSample, groupId FROM expression " +
+			" WHERE id IN (" + params + ")");
+		}
+		return pstBatch;
+	}
+
+	/**
+	 * Get all data for the given set of Xrefs.
+	 * <p>
+	 * Xrefs are looked up in batches of {@link #BATCH_SIZE} ids per query,
+	 * instead of one query per Xref.
+	 * Rows whose code doesn't match are filtered out afterwards,
+	 * this is cheap because the same id rarely occurs with different codes.
+	 */
 	@Override
 	public Collection<? extends IRow> getData(Set<Xref> destRefs) throws DataException
+	{
+		try
+		{
+			Map<Integer, ReporterData> groupData = new HashMap<Integer, ReporterData>();
+			List<Xref> refs = new ArrayList<Xref>(destRefs);
+
+			for (int start = 0; start < refs.size(); start += BATCH_SIZE)
+			{
+				List<Xref> batch = refs.subList(start, Math.min(start + BATCH_SIZE, refs.size()));
+				PreparedStatement pst = getPstBatch();
+				for (int i = 0; i < BATCH_SIZE; ++i)
+				{
+					// pad a partial batch by repeating the last id, the results are the same.
+					Xref ref = batch.get(Math.min(i, batch.size() - 1));
+					pst.setString(i + 1, ref.getId());
+				}
+				ResultSet r = pst.executeQuery();
+
+				//r contains all data mapping to the ids in this batch
+				//there could be multiple data items per id
+				while(r.next())
+				{
+					Xref ref = new Xref(r.getString("id"), DataSource.getBySystemCode(r.getString("code")));
+					if (!destRefs.contains(ref)) continue;
+
+					int group = r.getInt("groupId");
+					ReporterData data = groupData.get(group);
+					if(data == null) {
+						data = new ReporterData(ref, group);
+						groupData.put(group, data);
+					}
+					int idSample = r.getInt("idSample");
+					data.setSampleData(samples.get(idSample), r.getString("data"));
+				}
+				r.close();
+			}
+			return groupData.values();
+		}
+		catch (SQLException ex)
+		{
+			throw new DataException(ex);
+		}
+	}
+
+	/**
+	 * Get all data for the given set of Xrefs with one query per Xref.
+	 * This was the lookup strategy before {@link #getData(Set)} was batched,
+	 * it's kept as baseline for benchmarking.
+	 */
+	Collection<? extends IRow> getDataPerXref(Set<Xref> destRefs) throws DataException
 	{
 		try
 		{
@@ -288,9 +401,6 @@ public class SimpleGex implements DataInterface
 				pst.setString(1, destRef.getId());
 				pst.setString(2, destRef.getDataSource().getSystemCode());
 				ResultSet r = pst.executeQuery();
-
-				//r contains all data mapping to the destref
-				//there could be multiple data items
 				while(r.next())
 				{
 					int group = r.getInt("groupId");
@@ -438,7 +548,7 @@ public class SimpleGex implements DataInterface
 	//				"     PRIMARY KEY (id, code, idSample, data)	" +
 			")										");
 			con.setAutoCommit(false);
-			commitCount = 0;
+			pendingBatch = 0;
 		}
 		catch (SQLException e)
 		{
@@ -483,6 +593,7 @@ public class SimpleGex implements DataInterface
 	/**
 	 * Run this after insterting all sample / expression data
 	 * once, to defragment the db and create indices.
+	 * Indices are only created here, so they don't slow down inserting.
 	 * This method closes the current database connection in order
 	 * for the {@link DBConnector} to clean up.
 	 */
@@ -490,7 +601,7 @@ public class SimpleGex implements DataInterface
 	{
 		try
 		{
-			con.commit();
+			executeBatch();
 		}
 		catch (SQLException e)
 		{
@@ -514,7 +625,7 @@ public class SimpleGex implements DataInterface
 	{
 		try
 		{
-			con.commit();
+			executeBatch();
 		}
 		catch (SQLException e)
 		{
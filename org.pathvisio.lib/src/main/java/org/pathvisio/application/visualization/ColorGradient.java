@@ -234,8 +234,11 @@ public class ColorGradient extends ColorSetObject {
 	private void loadXML(Element xml) {
 		setName(xml.getAttributeValue(XML_ATTR_NAME));
 		colorValuePairs = new ArrayList<ColorValuePair>();
-		for(Object o : xml.getChildren(ColorValuePair.XML_ELEMENT))
-			colorValuePairs.add(new ColorValuePair((Element) o));
+		for(Object o : xml.getChildren(ColorValuePair.XML_ELEMENT)) {
+			ColorValuePair cvp = new ColorValuePair((Element) o);
+			cvp.setParent(this);
+			colorValuePairs.add(cvp);
+		}
 	}
 
 	/**
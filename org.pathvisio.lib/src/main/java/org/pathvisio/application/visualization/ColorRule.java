@@ -50,11 +50,18 @@ public class ColorRule extends ColorSetObject {
 		return color == null ? INITIAL_COLOR : color;
 	}
 
+	/** The color returned when the rule matches, null if no color was set */
+	Color getMatchColor() {
+		return color;
+	}
+
 	/**
 	 * Returns error message or null if there was no error.
 	 */
 	public String setExpression(String expression, List<String> symbols) {
-		return criterion.setExpression(expression, symbols);
+		String error = criterion.setExpression(expression, symbols);
+		fireModifiedEvent();
+		return error;
 	}
 
 	public String getExpression() {
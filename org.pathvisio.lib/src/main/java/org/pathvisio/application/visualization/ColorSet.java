@@ -29,7 +29,6 @@ import org.pathvisio.util.preferences.PreferenceManager;
 import org.pathvisio.core.util.ColorConverter;
 import org.pathvisio.data.IRow;
 import org.pathvisio.data.ISample;
-import org.pathvisio.application.visualization.Criterion.CriterionException;
 
 /**
  * This class represents a colorset, a set of criteria that can be evaluated and
@@ -65,6 +64,9 @@ public class ColorSet
 	private final List<ColorRule> colorRules = new ArrayList<ColorRule>();
 	private ColorGradient gradient;
 
+	/** compiled form of this color set, created on demand, discarded on each modification */
+	private volatile CompiledColorSet compiled = null;
+
 	public ColorSetManager getColorSetManager() { return colorSetMgr; }
 
 	/**
@@ -162,22 +164,26 @@ public class ColorSet
 	{
 		if(data == null) return colorNoDataFound;
 		Object value = data.getSampleData(key);
-		if(value == null || value.equals(Double.NaN)) return colorNoDataFound;
+		if(value == null || (value instanceof Double && ((Double)value).isNaN())) return colorNoDataFound;
 
-		Color rgb = colorNoCriteriaMet; //The color to return
-		//Evaluate all ColorSet objects, return when a valid color is found
-		for (ColorSetObject gc : getObjects())
+		//Evaluate all ColorSet objects, through the compiled form that is kept until the next modification
+		CompiledColorSet cs = compiled;
+		if (cs == null)
 		{
-			try{
-				Color gcRgb = gc.getColor(data, key);
-				if(gcRgb != null) {
-					return gcRgb;
-				}
-			} catch(CriterionException e) {
-				Logger.log.error("ColorSetObject " + gc + " could not evaluate data: " + e.getMessage());
-			}
+			cs = new CompiledColorSet(this);
+			compiled = cs;
 		}
-		return rgb;
+		Color rgb = cs.getColor(data, key);
+		return rgb == null ? colorNoCriteriaMet : rgb;
+	}
+
+	/**
+	 * Discard the compiled form of this color set. Called whenever a
+	 * {@link ColorSetEvent} is fired for this color set or one of its objects.
+	 */
+	void invalidate()
+	{
+		compiled = null;
 	}
 
 	public void paintPreview(Graphics2D g, Rectangle bounds) {
@@ -268,6 +274,7 @@ public class ColorSet
 	}
 
 	void fireModifiedEvent() {
+		invalidate();
 		if(colorSetMgr != null) {
 			colorSetMgr.fireColorSetEvent(
 					new ColorSetEvent (this, ColorSetEvent.COLORSET_MODIFIED));
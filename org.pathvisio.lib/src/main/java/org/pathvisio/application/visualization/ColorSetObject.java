@@ -80,6 +80,7 @@ public abstract class ColorSetObject {
 	 * changed.
 	 */
 	protected void fireModifiedEvent() {
+		if(parent != null) parent.invalidate();
 		if(parent != null && parent.getColorSetManager() != null)
 			parent.getColorSetManager().fireColorSetEvent(
 				new ColorSetEvent (this, ColorSetEvent.COLORSET_MODIFIED));
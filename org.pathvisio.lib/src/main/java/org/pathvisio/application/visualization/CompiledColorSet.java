@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.application.visualization;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.pathvisio.application.visualization.ColorGradient.ColorValuePair;
+import org.pathvisio.application.visualization.Criterion.CriterionException;
+import org.pathvisio.data.CompiledCriterion;
+import org.pathvisio.data.IRow;
+import org.pathvisio.data.ISample;
+import org.pathvisio.debug.Logger;
+
+/**
+ * Snapshot of a {@link ColorSet} in a form that is fast to evaluate while painting.
+ * <p>
+ * The gradient is turned into a sorted array of breakpoints and a lookup table of
+ * pre-allocated colors, and rule expressions are compiled with {@link CompiledCriterion}
+ * and bound to the samples of the dataset on first use.
+ * Looking up a color this way doesn't allocate anything.
+ * <p>
+ * A ColorSet creates its compiled form on demand, and discards it whenever
+ * a {@link ColorSetEvent} is fired for it or one of its ColorSetObjects.
+ */
+final class CompiledColorSet
+{
+	private final Rule[] rules;
+	private final Gradient gradient; // null if there is no gradient
+
+	CompiledColorSet(ColorSet colorSet)
+	{
+		List<ColorRule> colorRules = colorSet.getColorRules();
+		rules = new Rule[colorRules.size()];
+		for (int i = 0; i < rules.length; ++i) rules[i] = new Rule(colorRules.get(i));
+		gradient = colorSet.getGradient() == null ? null : new Gradient(colorSet.getGradient());
+	}
+
+	/**
+	 * Evaluate the rules, then the gradient, in the same order as {@link ColorSet#getObjects()}.
+	 * @return the first color found, or null if none of the rules match and there is no gradient color
+	 */
+	Color getColor(IRow data, ISample key)
+	{
+		for (Rule rule : rules)
+		{
+			Color c = rule.getColor(data, key);
+			if (c != null) return c;
+		}
+		if (gradient != null)
+		{
+			Object o = data.getSampleData(key);
+			return gradient.getColor(o instanceof Double ? (Double)o : Double.NaN);
+		}
+		return null;
+	}
+
+	/**
+	 * A ColorRule with a compiled criterion. Rules that can't be compiled,
+	 * for example because they compare text, are evaluated by the ColorRule itself.
+	 */
+	private static final class Rule
+	{
+		private final ColorRule source;
+		private final Color color;
+		private final CompiledCriterion criterion; // null if not compiled
+		private final String[] symbols;
+		private final double[] values;
+
+		/** samples in the order of symbols, bound on first use */
+		private volatile ISample[] bound = null;
+
+		Rule(ColorRule source)
+		{
+			this.source = source;
+			this.color = source.getMatchColor();
+			CompiledCriterion compiled = null;
+			List<String> symbolList = new ArrayList<String>();
+			try
+			{
+				org.pathvisio.data.Criterion c = new org.pathvisio.data.Criterion();
+				if (c.setExpression(source.getExpression()) == null)
+				{
+					symbolList = c.getReferencedSymbols();
+					compiled = c.compile(symbolList);
+					if (!compiled.isTyped()) compiled = null;
+				}
+			}
+			catch (org.pathvisio.data.Criterion.CriterionException ex)
+			{
+				compiled = null;
+			}
+			criterion = compiled;
+			symbols = symbolList.toArray(new String[symbolList.size()]);
+			values = new double[symbols.length];
+		}
+
+		Color getColor(IRow data, ISample key)
+		{
+			ISample[] samples = criterion == null ? null : bind(data);
+			if (samples == null) return evaluateUncompiled(data, key);
+
+			boolean match;
+			synchronized (values)
+			{
+				for (int i = 0; i < samples.length; ++i)
+				{
+					Object o = data.getSampleData(samples[i]);
+					// text would become NaN, and then equal any other text
+					if (o != null && !(o instanceof Double)) return evaluateUncompiled(data, key);
+					values[i] = o instanceof Double ? (Double)o : Double.NaN;
+				}
+				match = criterion.evaluate(values);
+			}
+			return match ? color : null;
+		}
+
+		/**
+		 * Look up the samples for the symbols of this rule, unless the current binding
+		 * still applies to this row.
+		 * @return the samples, or null if one of the symbols is not a sample of this row.
+		 */
+		private ISample[] bind(IRow data)
+		{
+			ISample[] result = bound;
+			Collection<? extends ISample> available = data.getSamples();
+			if (result != null && (result.length == 0 || available.contains(result[0]))) return result;
+
+			result = new ISample[symbols.length];
+			for (ISample s : available)
+			{
+				int i = Arrays.asList(symbols).indexOf(s.getName());
+				if (i >= 0) result[i] = s;
+			}
+			for (ISample s : result)
+			{
+				if (s == null) return null;
+			}
+			bound = result;
+			return result;
+		}
+
+		private Color evaluateUncompiled(IRow data, ISample key)
+		{
+			try
+			{
+				return source.getColor(data, key);
+			}
+			catch (CriterionException e)
+			{
+				Logger.log.error("ColorSetObject " + source + " could not evaluate data: " + e.getMessage());
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * A ColorGradient as a sorted array of breakpoints, with a lookup table
+	 * that divides the range between the lowest and highest breakpoint in LUT_SIZE steps.
+	 */
+	private static final class Gradient
+	{
+		private static final int LUT_SIZE = 1024;
+
+		private final double min;
+		private final double max;
+		private final Color[] lut; // null if the gradient has less than two colors
+
+		Gradient(ColorGradient source)
+		{
+			List<ColorValuePair> pairs = new ArrayList<ColorValuePair>(source.getColorValuePairs());
+			int n = pairs.size();
+			double[] breakpoints = new double[n];
+			int[] rgb = new int[n];
+			// ColorValuePair.compareTo truncates differences smaller than 1, so compare values directly
+			Collections.sort(pairs, new Comparator<ColorValuePair>()
+			{
+				public int compare(ColorValuePair a, ColorValuePair b)
+				{
+					return Double.compare(a.getValue(), b.getValue());
+				}
+			});
+			for (int i = 0; i < n; ++i)
+			{
+				breakpoints[i] = pairs.get(i).getValue();
+				rgb[i] = pairs.get(i).getColor().getRGB();
+			}
+
+			if (n < 2)
+			{
+				min = max = Double.NaN;
+				lut = null;
+				return;
+			}
+			min = breakpoints[0];
+			max = breakpoints[n - 1];
+			lut = new Color[LUT_SIZE];
+			int segment = 0;
+			for (int i = 0; i < LUT_SIZE; ++i)
+			{
+				double value = min + (max - min) * i / (LUT_SIZE - 1);
+				while (segment < n - 2 && value > breakpoints[segment + 1]) segment++;
+				lut[i] = new Color(interpolate(breakpoints[segment], rgb[segment],
+						breakpoints[segment + 1], rgb[segment + 1], value));
+			}
+		}
+
+		/** Linear interpolation of the red, green and blue channels, like ColorGradient.getColor(double) */
+		private static int interpolate(double valueStart, int colorStart, double valueEnd, int colorEnd, double value)
+		{
+			double alpha = valueEnd == valueStart ? 0 : (value - valueStart) / (valueEnd - valueStart);
+			int result = 0xFF000000;
+			for (int shift = 16; shift >= 0; shift -= 8)
+			{
+				int start = (colorStart >> shift) & 0xFF;
+				int end = (colorEnd >> shift) & 0xFF;
+				result |= ((int)(start + alpha * (end - start)) & 0xFF) << shift;
+			}
+			return result;
+		}
+
+		/**
+		 * @return the color for this value, clamped to the range of the gradient,
+		 * or null if the value is NaN or the gradient is incomplete
+		 */
+		Color getColor(double value)
+		{
+			if (lut == null || Double.isNaN(value)) return null;
+			if (value <= min) return lut[0];
+			if (value >= max) return lut[LUT_SIZE - 1];
+			return lut[(int)((value - min) / (max - min) * (LUT_SIZE - 1) + 0.5)];
+		}
+	}
+}
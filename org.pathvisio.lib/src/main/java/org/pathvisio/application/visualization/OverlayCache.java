@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.application.visualization;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsDevice;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.pathvisio.view.model.VPathwayObject;
+
+/**
+ * Cache of the rendered visualization overlay of each {@link VPathwayObject}.
+ * <p>
+ * The overlay is rendered once into an image, which is then drawn each time the element
+ * is repainted, e.g. when scrolling. An image is reused as long as the visualization,
+ * the element (see {@link VPathwayObject#getModificationCount()}, which also covers zoom changes)
+ * and the version of the expression data are the same. Changes to the visualization
+ * itself or its color sets, or opening another dataset, should be reported with {@link #clear()},
+ * data that has been loaded for an element with {@link #invalidate(VPathwayObject)}.
+ * <p>
+ * Only drawing to the screen is cached. Other targets, such as image or vector exports and printing,
+ * are drawn directly.
+ */
+class OverlayCache
+{
+	/** room around the element bounds for methods that draw slightly outside the element, in view pixels */
+	static final int MARGIN = 8;
+	/** elements that would need a larger image than this (in pixels) are drawn directly */
+	private static final int MAX_PIXELS = 1024 * 1024;
+
+	private static class Entry
+	{
+		Visualization visualization;
+		int modificationCount;
+		int dataVersion;
+		double scale;
+		Rectangle bounds;
+		BufferedImage image;
+	}
+
+	private final Map<VPathwayObject, Entry> entries = new WeakHashMap<VPathwayObject, Entry>();
+
+	/**
+	 * Draw the overlay of visualization v for element elm, rendering it first if
+	 * there is no up to date image in the cache.
+	 * @param dataVersion the version of the expression data, see {@link org.pathvisio.application.gex.CachedData#getVersion()}
+	 */
+	synchronized void draw(Visualization v, VPathwayObject elm, Graphics2D g, int dataVersion)
+	{
+		AffineTransform tf = g.getTransform();
+		if (!isCacheable(g, tf))
+		{
+			drawDirectly(v, elm, g);
+			return;
+		}
+		double scale = tf.getScaleX();
+
+		Entry entry = entries.get(elm);
+		if (entry == null || entry.visualization != v || entry.modificationCount != elm.getModificationCount()
+				|| entry.dataVersion != dataVersion || entry.scale != scale)
+		{
+			entry = render(v, elm, g, scale, dataVersion);
+			if (entry == null)
+			{
+				entries.remove(elm);
+				drawDirectly(v, elm, g);
+				return;
+			}
+			entries.put(elm, entry);
+		}
+		Rectangle b = entry.bounds;
+		g.drawImage(entry.image, b.x, b.y, b.width, b.height, null);
+	}
+
+	/**
+	 * Draw without caching, on a copy of g, because g is shared by all elements
+	 * of a paint and visualization methods may change its state.
+	 */
+	private static void drawDirectly(Visualization v, VPathwayObject elm, Graphics2D g)
+	{
+		Graphics2D copy = (Graphics2D)g.create();
+		v.visualizeDrawing(elm, copy);
+		copy.dispose();
+	}
+
+	/** Discard the cached overlay of a single element */
+	synchronized void invalidate(VPathwayObject elm)
+	{
+		entries.remove(elm);
+	}
+
+	/** Discard all cached overlays */
+	synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	/**
+	 * Only screen devices, with a transform that doesn't rotate or scale unevenly,
+	 * such as the scaling of high-dpi screens.
+	 */
+	private static boolean isCacheable(Graphics2D g, AffineTransform tf)
+	{
+		GraphicsConfiguration gc = g.getDeviceConfiguration();
+		if (gc == null || gc.getDevice().getType() != GraphicsDevice.TYPE_RASTER_SCREEN) return false;
+		int type = tf.getType() & ~AffineTransform.TYPE_TRANSLATION;
+		return type == AffineTransform.TYPE_IDENTITY || type == AffineTransform.TYPE_UNIFORM_SCALE;
+	}
+
+	private static Entry render(Visualization v, VPathwayObject elm, Graphics2D g, double scale, int dataVersion)
+	{
+		Rectangle2D vb = elm.getVBounds();
+		Rectangle bounds = vb.getBounds();
+		bounds.grow(MARGIN, MARGIN);
+		int w = (int)Math.ceil(bounds.width * scale);
+		int h = (int)Math.ceil(bounds.height * scale);
+		if (w <= 0 || h <= 0 || (long)w * h > MAX_PIXELS) return null;
+
+		Entry entry = new Entry();
+		entry.visualization = v;
+		entry.modificationCount = elm.getModificationCount();
+		entry.dataVersion = dataVersion;
+		entry.scale = scale;
+		entry.bounds = bounds;
+		entry.image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+
+		Graphics2D ig = entry.image.createGraphics();
+		ig.setComposite(AlphaComposite.SrcOver);
+		ig.setRenderingHints(g.getRenderingHints());
+		ig.setFont(g.getFont());
+		ig.setColor(g.getColor());
+		ig.scale(scale, scale);
+		ig.translate(-bounds.x, -bounds.y);
+		v.visualizeDrawing(elm, ig);
+		ig.dispose();
+		return entry;
+	}
+}
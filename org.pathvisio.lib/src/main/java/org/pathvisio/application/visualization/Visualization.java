@@ -70,6 +70,7 @@ public class Visualization
 		if (m.getVisualization() != null) { throw new IllegalArgumentException(
 			"Trying to add Method that is already part of a Visualization"); }
 		methods.put(m.getClass().toString(), m);
+		sortedMethods = null;
 		m.setVisualization(this);
 		modified();
 	}
@@ -79,6 +80,7 @@ public class Visualization
 		if (m.getVisualization() != this) { throw new IllegalArgumentException(
 				"Trying to remove Method from Visualization that is not its parent"); }
 		methods.remove(m.getClass().toString());
+		sortedMethods = null;
 		m.setVisualization(null);
 		modified();
 	}
@@ -130,23 +132,33 @@ public class Visualization
 	 */
 	public void visualizeDrawing(VPathwayObject g, Graphics2D g2d)
 	{
-		// get a list of visualization methods,
-		// sort on default drawing order.
-		List<VisualizationMethod> methods = new ArrayList<VisualizationMethod>();
-		methods.addAll (getMethods());
-		Collections.sort (methods, new Comparator<VisualizationMethod>()
+		for(VisualizationMethod m : getSortedMethods())
 		{
+			m.visualizeOnDrawing(g, g2d);
+		}
+	}
 
-			public int compare(VisualizationMethod arg0,
-					VisualizationMethod arg1) {
-				return arg0.defaultDrawingOrder() - arg1.defaultDrawingOrder();
-			}
+	// methods sorted on default drawing order, null when methods have been added or removed
+	private List<VisualizationMethod> sortedMethods = null;
 
-		});
-		for(VisualizationMethod m : methods)
+	private List<VisualizationMethod> getSortedMethods()
+	{
+		List<VisualizationMethod> result = sortedMethods;
+		if (result == null)
 		{
-			m.visualizeOnDrawing(g, g2d);
+			result = new ArrayList<VisualizationMethod>(getMethods());
+			Collections.sort (result, new Comparator<VisualizationMethod>()
+			{
+
+				public int compare(VisualizationMethod arg0,
+						VisualizationMethod arg1) {
+					return arg0.defaultDrawingOrder() - arg1.defaultDrawingOrder();
+				}
+
+			});
+			sortedMethods = result;
 		}
+		return result;
 	}
 
 	/**
@@ -16,6 +16,8 @@
  ******************************************************************************/
 package org.pathvisio.application.visualization;
 
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -27,30 +29,35 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.bridgedb.Xref;
 import org.jdom2.Document;
 import org.jdom2.Element;
 import org.jdom2.input.SAXBuilder;
 import org.jdom2.output.Format;
 import org.jdom2.output.XMLOutputter;
+import org.pathvisio.application.gex.CachedData;
+import org.pathvisio.application.gex.CachedData.LoadListener;
 import org.pathvisio.application.gex.GexManager;
 import org.pathvisio.application.gex.GexManager.GexManagerEvent;
 import org.pathvisio.application.gex.GexManager.GexManagerListener;
+import org.pathvisio.application.visualization.ColorSetManager.ColorSetListener;
 import org.pathvisio.controller.ApplicationEvent;
 import org.pathvisio.controller.Engine;
 import org.pathvisio.controller.Engine.ApplicationEventListener;
 import org.pathvisio.debug.Logger;
+import org.pathvisio.model.PathwayElement;
 import org.pathvisio.util.preferences.GlobalPreference;
 import org.pathvisio.view.model.VElement;
-import org.pathvisio.view.model.VPathwayEvent;
-import org.pathvisio.view.model.VPathwayEvent.VPathwayEventType;
-import org.pathvisio.view.model.VPathwayListener;
+import org.pathvisio.view.model.VPathwayDrawListener;
 import org.pathvisio.view.model.VPathwayModel;
 import org.pathvisio.view.model.VPathwayObject;
+import org.pathvisio.view.model.VPathwayWrapper;
 
 /**
  * Maintains the visualizations
  */
-public class VisualizationManager implements GexManagerListener, VPathwayListener, ApplicationEventListener {
+public class VisualizationManager
+		implements GexManagerListener, VPathwayDrawListener, ApplicationEventListener, ColorSetListener, LoadListener {
 	/**
 	 * Exceptions for the Visualization Manager, such as failure while loading
 	 * stored visualization xml
@@ -74,6 +81,10 @@ public class VisualizationManager implements GexManagerListener, VPathwayListene
 	private final Engine engine;
 	private final GexManager gexManager;
 	private final VisualizationMethodRegistry methodRegistry;
+	private final OverlayCache overlayCache = new OverlayCache();
+
+	/** the cached data this listens to for loaded data, see {@link #dataLoaded(Set)} */
+	private CachedData listenedData = null;
 
 	public VisualizationManager(Engine engine, GexManager gexManager) {
 		colorSetMgr = new ColorSetManager();
@@ -81,14 +92,16 @@ public class VisualizationManager implements GexManagerListener, VPathwayListene
 		this.gexManager = gexManager;
 		this.methodRegistry = new VisualizationMethodRegistry();
 		gexManager.addListener(this);
+		colorSetMgr.addListener(this);
 		engine.addApplicationEventListener(this);
 		VPathwayModel vp = engine.getActiveVPathway();
 		if (vp != null) {
-			vp.addVPathwayListener(this);
+			vp.addVPathwayDrawListener(this);
 		}
 		if (gexManager.isConnected()) {
 			loadXML();
 		}
+		listenTo(gexManager.getCachedData());
 	}
 
 	public VisualizationMethodRegistry getVisualizationMethodRegistry() {
@@ -248,6 +261,7 @@ public class VisualizationManager implements GexManagerListener, VPathwayListene
 	 * {@link VisualizationListener}s registered to this class
 	 */
 	public void fireVisualizationEvent(VisualizationEvent e) {
+		overlayCache.clear();
 		for (VisualizationListener l : listeners) {
 			l.visualizationEvent(e);
 		}
@@ -260,14 +274,64 @@ public class VisualizationManager implements GexManagerListener, VPathwayListene
 	 * @param v The visualization that has been modified.
 	 */
 	protected void visualizationModified(Visualization v) {
+		redrawActivePathway();
+		fireVisualizationEvent(new VisualizationEvent(this, VisualizationEvent.VISUALIZATION_MODIFIED));
+	}
+
+	/**
+	 * Redraw the active pathway, including the parts of the drawing that the view
+	 * keeps in its render cache.
+	 */
+	private void redrawActivePathway() {
 		VPathwayModel vp = engine.getActiveVPathway();
 		if (vp != null) {
 			vp.redraw();
 		}
-		fireVisualizationEvent(new VisualizationEvent(this, VisualizationEvent.VISUALIZATION_MODIFIED));
+	}
+
+	/**
+	 * Listen for data loaded by the given cache, instead of the previous one.
+	 * 
+	 * @param data the cache to listen to, or null to stop listening.
+	 */
+	private void listenTo(CachedData data) {
+		if (data == listenedData)
+			return;
+		if (listenedData != null)
+			listenedData.removeLoadListener(this);
+		listenedData = data;
+		if (data != null)
+			data.addLoadListener(this);
+	}
+
+	/**
+	 * Expression data arrives in the background. Only the elements it belongs to
+	 * are redrawn, the rest of the rendered pathway stays valid.
+	 */
+	public void dataLoaded(Set<Xref> refs) {
+		VPathwayModel vp = engine.getActiveVPathway();
+		if (vp == null || getActiveVisualization() == null)
+			return;
+		VPathwayWrapper wrapper = vp.getWrapper();
+		for (VElement elm : vp.getDrawingObjects()) {
+			if (!(elm instanceof VPathwayObject))
+				continue;
+			VPathwayObject o = (VPathwayObject) elm;
+			if (o.getPathwayElement() instanceof PathwayElement
+					&& refs.contains(((PathwayElement) o.getPathwayElement()).getXref())) {
+				overlayCache.invalidate(o);
+				if (wrapper != null) {
+					Rectangle r = o.getVBounds().getBounds();
+					r.grow(OverlayCache.MARGIN, OverlayCache.MARGIN);
+					wrapper.redraw(r);
+				}
+			}
+		}
 	}
 
 	public void gexManagerEvent(GexManagerEvent e) {
+		overlayCache.clear();
+		listenTo(gexManager.getCachedData());
 		switch (e.getType()) {
 		case GexManagerEvent.CONNECTION_OPENED:
 			loadXML();
@@ -278,6 +342,7 @@ public class VisualizationManager implements GexManagerListener, VPathwayListene
 		default:
 			assert (false); // Shouldn't occur.
 		}
+		redrawActivePathway();
 	}
 
 	public static final String ROOT_XML_ELEMENT = "expression-data-visualizations";
@@ -390,12 +455,15 @@ public class VisualizationManager implements GexManagerListener, VPathwayListene
 		return doc;
 	}
 
-	public void vPathwayEvent(VPathwayEvent e) {
-		if (e.getType() == VPathwayEventType.ELEMENT_DRAWN) {
-			Visualization v = getActiveVisualization();
-			VElement elm = e.getAffectedElement();
-			if (v != null && elm instanceof VPathwayObject) {
-				v.visualizeDrawing((VPathwayObject) elm, e.getGraphics2D());
+	public void elementsDrawn(VPathwayModel vPathway, List<VElement> elements, Graphics2D g2d) {
+		Visualization v = getActiveVisualization();
+		if (v == null)
+			return;
+		CachedData cache = gexManager.getCachedData();
+		int dataVersion = cache == null ? 0 : cache.getVersion();
+		for (VElement elm : elements) {
+			if (elm instanceof VPathwayObject) {
+				overlayCache.draw(v, (VPathwayObject) elm, g2d, dataVersion);
 			}
 		}
 	}
@@ -403,14 +471,24 @@ public class VisualizationManager implements GexManagerListener, VPathwayListene
 	public void applicationEvent(ApplicationEvent e) {
 		switch (e.getType()) {
 		case VPATHWAY_CREATED:
-			((VPathwayModel) e.getSource()).addVPathwayListener(this);
+			((VPathwayModel) e.getSource()).addVPathwayDrawListener(this);
 			break;
 		case VPATHWAY_DISPOSED:
-			((VPathwayModel) e.getSource()).removeVPathwayListener(this);
+			((VPathwayModel) e.getSource()).removeVPathwayDrawListener(this);
+			overlayCache.clear();
 			break;
 		}
 	}
 
+	/**
+	 * Color sets are evaluated while rendering the visualization, so any change
+	 * invalidates the cached overlays and the rendered pathway.
+	 */
+	public void colorSetEvent(ColorSetEvent e) {
+		overlayCache.clear();
+		redrawActivePathway();
+	}
+
 	private boolean disposed = false;
 
 	/**
@@ -419,11 +497,14 @@ public class VisualizationManager implements GexManagerListener, VPathwayListene
 	 */
 	public void dispose() {
 		assert (!disposed);
+		listenTo(null);
 		gexManager.removeListener(this);
+		colorSetMgr.removeListener(this);
 		engine.removeApplicationEventListener(this);
+		overlayCache.clear();
 		VPathwayModel vpwy = engine.getActiveVPathway();
 		if (vpwy != null) {
-			vpwy.removeVPathwayListener(this);
+			vpwy.removeVPathwayDrawListener(this);
 		}
 		disposed = true;
 	}
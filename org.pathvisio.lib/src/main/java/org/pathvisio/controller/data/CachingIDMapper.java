@@ -0,0 +1,440 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.core.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.IDMapper;
+import org.bridgedb.IDMapperCapabilities;
+import org.bridgedb.IDMapperException;
+import org.bridgedb.Xref;
+import org.pathvisio.debug.Logger;
+
+/**
+ * IDMapper decorator that memoizes the results of mapID.
+ * <p>
+ * Results are kept in memory, and are also appended to a file,
+ * so they survive a restart. The file starts with a description of the
+ * configuration of the underlying mapper (see {@link #setConfiguration(String)}),
+ * if that doesn't match the current configuration, the file is discarded.
+ * Until a configuration has been set, lookups are passed on to the underlying
+ * mapper without caching, so the store is never overwritten for an unknown configuration.
+ * <p>
+ * Only mapID is cached, all other methods are passed on to the underlying mapper.
+ * Results are returned as fresh sets, so callers may modify them.
+ * <p>
+ * Thread-safe.
+ */
+public class CachingIDMapper implements IDMapper
+{
+	private static final int STORE_VERSION = 1;
+
+	private final IDMapper delegate;
+	private final File storeFile;
+
+	private final ConcurrentHashMap<Key, Xref[]> cache = new ConcurrentHashMap<Key, Xref[]>();
+
+	// guarded by this. Null until setConfiguration is called
+	private String configuration = null;
+	// incremented whenever the cache is discarded, so lookups that started before don't store stale results
+	private int generation = 0;
+	private volatile boolean storeOpen = false;
+	private DataOutputStream storeOut = null;
+
+	/**
+	 * @param delegate the mapper to cache results of
+	 * @param storeFile the file to persist results in, or null to cache in memory only
+	 */
+	public CachingIDMapper(IDMapper delegate, File storeFile)
+	{
+		this.delegate = delegate;
+		this.storeFile = storeFile;
+	}
+
+	/** Lookup key, a source Xref and the requested target data sources */
+	private static final class Key
+	{
+		private final Xref src;
+		private final String targets;
+
+		Key(Xref src, DataSource[] tgtDataSources)
+		{
+			this.src = src;
+			this.targets = targetsToString(tgtDataSources);
+		}
+
+		Key(Xref src, String targets)
+		{
+			this.src = src;
+			this.targets = targets;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return src.hashCode() * 31 + targets.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Key)) return false;
+			Key other = (Key)o;
+			return src.equals(other.src) && targets.equals(other.targets);
+		}
+	}
+
+	/** Canonical representation of a set of target data sources, independent of order */
+	private static String targetsToString(DataSource[] tgtDataSources)
+	{
+		if (tgtDataSources == null || tgtDataSources.length == 0) return "";
+		String[] codes = new String[tgtDataSources.length];
+		for (int i = 0; i < codes.length; ++i)
+		{
+			codes[i] = tgtDataSources[i] == null ? "" : tgtDataSources[i].getSystemCode();
+		}
+		Arrays.sort(codes);
+		StringBuilder result = new StringBuilder();
+		for (String code : codes)
+		{
+			if (result.length() > 0) result.append(',');
+			result.append(code);
+		}
+		return result.toString();
+	}
+
+	private static boolean isCacheable(Xref ref)
+	{
+		return ref != null && ref.getId() != null && ref.getDataSource() != null &&
+			ref.getDataSource().getSystemCode() != null;
+	}
+
+	/**
+	 * Set the configuration of the underlying mapper, typically a list
+	 * of connection strings. Cached results are discarded if the configuration changes.
+	 * <p>
+	 * The store on disk is only reopened on the next lookup, so a series
+	 * of changes (e.g. connecting several databases at start-up) only
+	 * touches the store for the final configuration.
+	 */
+	public synchronized void setConfiguration(String value)
+	{
+		if (value.equals(configuration)) return;
+		configuration = value;
+		generation++;
+		cache.clear();
+		closeStore();
+		storeOpen = false;
+	}
+
+	/** Discard all cached results, both in memory and on disk */
+	public synchronized void clear()
+	{
+		generation++;
+		cache.clear();
+		closeStore();
+		if (storeFile != null) storeFile.delete();
+		storeOpen = false;
+	}
+
+	/** Number of lookups currently cached */
+	public int getSize()
+	{
+		return cache.size();
+	}
+
+	private void closeStore()
+	{
+		if (storeOut != null)
+		{
+			try
+			{
+				storeOut.close();
+			}
+			catch (IOException ex)
+			{
+				Logger.log.warn("Could not close id mapping cache " + storeFile + ": " + ex.getMessage());
+			}
+			storeOut = null;
+		}
+	}
+
+	/**
+	 * Load the store for the current configuration, if that hasn't happened yet,
+	 * and open it for appending.
+	 * @return false if no configuration has been set yet, in which case nothing may be cached.
+	 */
+	private boolean ensureStoreOpen()
+	{
+		return storeOpen || openStore();
+	}
+
+	private synchronized boolean openStore()
+	{
+		if (configuration == null) return false;
+		if (storeOpen) return true;
+		storeOpen = true;
+		if (storeFile == null) return true;
+
+		boolean valid = storeFile.exists() && readStore();
+		try
+		{
+			storeOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storeFile, valid)));
+			if (!valid)
+			{
+				storeOut.writeInt(STORE_VERSION);
+				storeOut.writeUTF(configuration);
+				// write back whatever could be salvaged from a damaged store
+				for (Map.Entry<Key, Xref[]> entry : cache.entrySet())
+				{
+					writeRecord(entry.getKey(), entry.getValue());
+				}
+				storeOut.flush();
+			}
+		}
+		catch (IOException ex)
+		{
+			Logger.log.warn("Could not open id mapping cache " + storeFile + ", caching in memory only: " + ex.getMessage());
+			storeOut = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Read all records from the store.
+	 * @return false if the store was written for another configuration, can't be read,
+	 * 	or ends in a partially written record. In the latter case the complete records are kept in memory.
+	 */
+	private boolean readStore()
+	{
+		DataInputStream in = null;
+		try
+		{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile)));
+			if (in.readInt() != STORE_VERSION || !configuration.equals(in.readUTF())) return false;
+			boolean complete = true;
+			while (true)
+			{
+				// check for a clean end of file, before the start of the next record
+				in.mark(1);
+				if (in.read() < 0) break;
+				in.reset();
+
+				Key key;
+				Xref[] result;
+				try
+				{
+					Xref src = readXref(in);
+					String targets = in.readUTF();
+					result = new Xref[in.readInt()];
+					for (int i = 0; i < result.length; ++i) result[i] = readXref(in);
+					key = new Key(src, targets);
+				}
+				catch (EOFException ex)
+				{
+					// a record that was only partially written, e.g. after a crash.
+					// We can't append to the store after that.
+					complete = false;
+					break;
+				}
+				cache.put(key, result);
+			}
+			Logger.log.info("Loaded " + cache.size() + " cached id mappings from " + storeFile);
+			return complete;
+		}
+		catch (IOException ex)
+		{
+			Logger.log.warn("Could not read id mapping cache " + storeFile + ": " + ex.getMessage());
+			cache.clear();
+			return false;
+		}
+		finally
+		{
+			if (in != null) try { in.close(); } catch (IOException ex) { /* ignore */ }
+		}
+	}
+
+	private static Xref readXref(DataInputStream in) throws IOException
+	{
+		String id = in.readUTF();
+		String code = in.readUTF();
+		return new Xref(id, DataSource.getBySystemCode(code));
+	}
+
+	private static void writeXref(DataOutputStream out, Xref ref) throws IOException
+	{
+		out.writeUTF(ref.getId());
+		out.writeUTF(ref.getDataSource().getSystemCode());
+	}
+
+	private void writeRecord(Key key, Xref[] result) throws IOException
+	{
+		writeXref(storeOut, key.src);
+		storeOut.writeUTF(key.targets);
+		storeOut.writeInt(result.length);
+		for (Xref ref : result) writeXref(storeOut, ref);
+	}
+
+	private synchronized int getGeneration()
+	{
+		return generation;
+	}
+
+	// called from put(), with the lock held
+	private void append(Key key, Xref[] result)
+	{
+		if (storeOut == null) return;
+		try
+		{
+			writeRecord(key, result);
+			storeOut.flush();
+		}
+		catch (IOException ex)
+		{
+			Logger.log.warn("Could not write id mapping cache " + storeFile + ", caching in memory only: " + ex.getMessage());
+			closeStore();
+		}
+	}
+
+	/**
+	 * Cache a result of the delegate.
+	 * @param gen the generation at the time the delegate was asked. If the cache has been
+	 * 	discarded since, the result may be for the old configuration and is not stored.
+	 */
+	private synchronized void put(Key key, Set<Xref> result, int gen)
+	{
+		if (gen != generation) return;
+		List<Xref> storable = new ArrayList<Xref>(result.size());
+		for (Xref ref : result)
+		{
+			if (isCacheable(ref)) storable.add(ref);
+		}
+		// don't cache what we can't store faithfully
+		if (storable.size() != result.size()) return;
+		Xref[] value = storable.toArray(new Xref[storable.size()]);
+		if (cache.putIfAbsent(key, value) == null) append(key, value);
+	}
+
+	private static Set<Xref> toSet(Xref[] value)
+	{
+		return new HashSet<Xref>(Arrays.asList(value));
+	}
+
+	@Override
+	public Set<Xref> mapID(Xref srcXref, DataSource... tgtDataSources) throws IDMapperException
+	{
+		if (!isCacheable(srcXref) || !ensureStoreOpen()) return delegate.mapID(srcXref, tgtDataSources);
+
+		Key key = new Key(srcXref, tgtDataSources);
+		Xref[] cached = cache.get(key);
+		if (cached != null) return toSet(cached);
+
+		int gen = getGeneration();
+		Set<Xref> result = delegate.mapID(srcXref, tgtDataSources);
+		if (result == null) return result;
+		put(key, result, gen);
+		return new HashSet<Xref>(result);
+	}
+
+	@Override
+	public Map<Xref, Set<Xref>> mapID(Collection<Xref> srcXrefs, DataSource... tgtDataSources) throws IDMapperException
+	{
+		if (!ensureStoreOpen()) return delegate.mapID(srcXrefs, tgtDataSources);
+		Map<Xref, Set<Xref>> result = new HashMap<Xref, Set<Xref>>();
+		List<Xref> missing = new ArrayList<Xref>();
+		for (Xref src : srcXrefs)
+		{
+			Xref[] cached = isCacheable(src) ? cache.get(new Key(src, tgtDataSources)) : null;
+			if (cached != null)
+			{
+				result.put(src, toSet(cached));
+			}
+			else
+			{
+				missing.add(src);
+			}
+		}
+
+		if (missing.size() > 0)
+		{
+			int gen = getGeneration();
+			Map<Xref, Set<Xref>> mapped = delegate.mapID(missing, tgtDataSources);
+			for (Xref src : missing)
+			{
+				Set<Xref> refs = mapped.get(src);
+				// the delegate leaves out xrefs without results
+				if (refs == null) refs = new HashSet<Xref>();
+				if (isCacheable(src)) put(new Key(src, tgtDataSources), refs, gen);
+				if (mapped.containsKey(src)) result.put(src, new HashSet<Xref>(refs));
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean xrefExists(Xref xref) throws IDMapperException
+	{
+		return delegate.xrefExists(xref);
+	}
+
+	@Override
+	public Set<Xref> freeSearch(String text, int limit) throws IDMapperException
+	{
+		return delegate.freeSearch(text, limit);
+	}
+
+	@Override
+	public IDMapperCapabilities getCapabilities()
+	{
+		return delegate.getCapabilities();
+	}
+
+	/**
+	 * Closes the store on disk. The underlying mapper is not closed,
+	 * as it is owned by whoever created this decorator.
+	 */
+	@Override
+	public synchronized void close() throws IDMapperException
+	{
+		closeStore();
+		storeOpen = false;
+	}
+
+	@Override
+	public boolean isConnected()
+	{
+		return delegate.isConnected();
+	}
+}
@@ -16,6 +16,7 @@
  ******************************************************************************/
 package org.pathvisio.core.data;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -48,6 +49,8 @@ public class GdbManager extends AbstractListModel
 	private IDMapper genes;
 	private IDMapper interactions;
 	private Map<IDMapper, String> connectionStrings = new HashMap<IDMapper, String>();
+	private final CachingIDMapper cachedGdb = new CachingIDMapper(currentGdb,
+			new File(GlobalPreference.getApplicationDir(), "idmapping.cache"));
 
 	public GdbManager()
 	{
@@ -62,6 +65,7 @@ public class GdbManager extends AbstractListModel
 			//TODO: propagate exception???
 		}
 		currentGdb.setTransitive(true);
+		cachedGdb.setConfiguration(getConfiguration());
 	}
 
 	public IDMapperStack getCurrentGdb ()
@@ -69,6 +73,38 @@ public class GdbManager extends AbstractListModel
 		return currentGdb;
 	}
 
+	/**
+	 * Returns the current Gdb, wrapped in a cache that remembers the results of mapID
+	 * across sessions. Use this instead of getCurrentGdb() for repeated lookups.
+	 * The cache is invalidated whenever a database is added or removed.
+	 */
+	public IDMapper getCachedGdb ()
+	{
+		return cachedGdb;
+	}
+
+	/**
+	 * Describes the current set of mappers, used to invalidate
+	 * the mapping cache. For file-based databases, the size and modification time
+	 * are included as well, so that an updated file also invalidates the cache.
+	 */
+	private String getConfiguration()
+	{
+		StringBuilder result = new StringBuilder("transitive=" + currentGdb.getTransitive());
+		for (IDMapper mapper : currentGdb.getMappers())
+		{
+			String connectionString = connectionStrings.get(mapper);
+			result.append('\n').append(connectionString);
+			int pos = connectionString == null ? -1 : connectionString.indexOf(':');
+			if (pos >= 0)
+			{
+				File f = new File(connectionString.substring(pos + 1));
+				if (f.exists()) result.append(" [" + f.length() + "," + f.lastModified() + "]");
+			}
+		}
+		return result.toString();
+	}
+
 	/**
 	 * Returns true if the current Gdb isConnected()
 	 */
@@ -162,6 +198,7 @@ public class GdbManager extends AbstractListModel
 		if (mapper == null) throw new NullPointerException();
 		currentGdb.addIDMapper(mapper);
 		connectionStrings.put(mapper, connectionString);
+		cachedGdb.setConfiguration(getConfiguration());
 		GdbEvent e = new GdbEvent (this, GdbEvent.Type.ADDED, mapper.toString());
 		fireGdbEvent (e);
 		Logger.log.trace("Added database: " + mapper.toString());
@@ -172,6 +209,7 @@ public class GdbManager extends AbstractListModel
 		if (mapper == null) return; // ignore
 		currentGdb.removeIDMapper(mapper);
 		connectionStrings.remove(mapper);
+		cachedGdb.setConfiguration(getConfiguration());
 		if (mapper == metabolites) metabolites = null;
 		if (mapper == interactions) interactions = null;
 		if (mapper == genes) genes = null;
@@ -37,18 +37,17 @@ import org.pathvisio.core.model.PathwayElement;
 import org.pathvisio.core.preferences.PreferenceManager;
 import org.pathvisio.core.view.MIMShapes;
 import org.pathvisio.core.view.VPathway;
-import org.pathvisio.core.view.VPathwayEvent;
-import org.pathvisio.core.view.VPathwayEvent.VPathwayEventType;
 import org.pathvisio.core.view.model.Graphics;
 import org.pathvisio.core.view.model.VElement;
-import org.pathvisio.core.view.VPathwayListener;
+import org.pathvisio.view.model.VPathwayDrawListener;
+import org.pathvisio.view.model.VPathwayModel;
 
 /**
  * Utility that takes a set of graphId/Color pairs and exports a pathway
  * image after coloring the objects with the specified graphIds.
  * @author thomas
  */
-public class ColorExporter implements VPathwayListener {
+public class ColorExporter implements VPathwayDrawListener {
 	Map<PathwayElement, List<Color>> colors;
 	VPathway vPathway;
 
@@ -63,14 +62,13 @@ public class ColorExporter implements VPathwayListener {
 	}
 
 	public void export(BatikImageExporter exporter, File outputFile) throws ConverterException {
-		vPathway.addVPathwayListener(this);
+		vPathway.addVPathwayDrawListener(this);
 		doHighlight();
 		exporter.doExport(outputFile, vPathway);
 	}
 
-	public void vPathwayEvent(VPathwayEvent e) {
-		if(e.getType() == VPathwayEventType.ELEMENT_DRAWN) {
-			VElement vpwe = e.getAffectedElement();
+	public void elementsDrawn(VPathwayModel vPathway, List<VElement> elements, Graphics2D g) {
+		for(VElement vpwe : elements) {
 			if(vpwe instanceof Graphics) {
 				PathwayElement pwe = ((Graphics)vpwe).getPathwayElement();
 				List<Color> elmColors = colors.get(pwe);
@@ -78,11 +76,11 @@ public class ColorExporter implements VPathwayListener {
 					Logger.log.info("Coloring " + pwe + " with " + elmColors);
 					switch(pwe.getObjectType()) {
 					case DATANODE:
-						doColor(e.getGraphics2D(), (Graphics)vpwe, elmColors);
-						drawLabel(e.getGraphics2D(), (Graphics)vpwe);
+						doColor(g, (Graphics)vpwe, elmColors);
+						drawLabel(g, (Graphics)vpwe);
 						break;
 					case GROUP:
-						doColor(e.getGraphics2D(), (Graphics)vpwe, elmColors);
+						doColor(g, (Graphics)vpwe, elmColors);
 						break;
 					}
 				}
@@ -104,6 +102,7 @@ public class ColorExporter implements VPathwayListener {
 			tl.draw(g2d, 	(int)area.getX() + (int)(area.getWidth() / 2) - (int)(tb.getWidth() / 2),
 					(int)area.getY() + (int)(area.getHeight() / 2) + (int)(tb.getHeight() / 2));
 		}
+		g2d.dispose();
 	}
 
 	private void doColor(Graphics2D g, Graphics vpe, List<Color> colors) {
@@ -125,6 +124,7 @@ public class ColorExporter implements VPathwayListener {
 		}
 		g2d.setColor(vpe.getPathwayElement().getColor());
 		g2d.drawRect(area.x, area.y, area.width - 1, area.height - 1);
+		g2d.dispose();
 	}
 
 	/**
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.data;
+
+/**
+ * Optional interface for a {@link DataInterface} that stores its values column by column,
+ * and can return all values of a sample at once.
+ * <p>
+ * Column indices must match the order of {@link DataInterface#getIterator()}.
+ */
+public interface ColumnarData
+{
+	/**
+	 * Get all values of one sample, indexed by row. Missing and non-numeric values are NaN.
+	 * The caller may modify the returned array.
+	 */
+	public double[] getColumn(ISample s) throws DataException;
+}
@@ -0,0 +1,792 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.commons.math.stat.StatUtils;
+import org.pathvisio.data.Criterion.CriterionException;
+import org.pathvisio.data.Criterion.Token;
+import org.pathvisio.data.Criterion.TokenType;
+
+/**
+ * A {@link Criterion} lowered to a tree of typed evaluators, created with {@link Criterion#compile(List)}.
+ * <p>
+ * Symbols are bound to a position in the values array at compile time, and functions are resolved
+ * at compile time, so evaluating a row doesn't do any lookups, boxing or allocation.
+ * <p>
+ * Values are passed as doubles. A NaN value means NA: the value is missing or not a number.
+ * NA follows the same rules as null in {@link Criterion}: comparisons and arithmetic with NA
+ * result in NA, AND / OR / NOT treat NA as false, and an expression that evaluates to NA
+ * as a whole does not meet the criterion.
+ * <p>
+ * The functions of the interpreter don't accept NA arguments. The error that results
+ * makes the whole expression false, even under a NOT, and can't be expressed in the
+ * typed evaluators. So rows with NA values are evaluated through the interpreter if the
+ * expression contains functions other than ISNUMBER.
+ * <p>
+ * Expressions that can't be expressed in numbers and booleans alone, such as string
+ * functions or TTEST, are still accepted, but are evaluated through the
+ * original Criterion, which is a lot slower. Use {@link #isTyped()} to find out which is the case.
+ * Text values can't be passed as doubles, use {@link #evaluate(Object[])} or
+ * {@link #evaluate(DataInterface)} to evaluate rows that may contain them.
+ * <p>
+ * Whole datasets can be evaluated at once with {@link #evaluate(double[][], int)} or
+ * {@link #evaluate(DataInterface)}, which work column-wise and in parallel.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ */
+public final class CompiledCriterion
+{
+	// tri-state results of boolean nodes
+	static final int FALSE = 0;
+	static final int TRUE = 1;
+	static final int NA = -1;
+
+	private final List<String> symbols;
+	private final BoolNode root; // null if the expression could not be typed
+	private final Criterion source; // used for expressions that could not be typed
+	private final boolean interpretNA; // rows with NA values are evaluated by source
+
+	CompiledCriterion(Criterion source, Token parsed, List<String> symbols) throws CriterionException
+	{
+		this.source = source;
+		this.symbols = Collections.unmodifiableList(new ArrayList<String>(symbols));
+		Map<String, Integer> index = new HashMap<String, Integer>();
+		for (int i = 0; i < symbols.size(); ++i) index.put(symbols.get(i), i);
+
+		checkSymbols(parsed, index);
+		BoolNode typed;
+		try
+		{
+			typed = compileBool(parsed, index);
+		}
+		catch (UntypeableException ex)
+		{
+			typed = null;
+		}
+		root = typed;
+		interpretNA = hasFunctions(parsed);
+	}
+
+	/** The symbols in the order in which their values are expected */
+	public List<String> getSymbols()
+	{
+		return symbols;
+	}
+
+	/**
+	 * Returns true if the expression was compiled into typed evaluators,
+	 * false if it falls back on the interpreter in {@link Criterion}.
+	 */
+	public boolean isTyped()
+	{
+		return root != null;
+	}
+
+	/**
+	 * Evaluate the criterion for a single row.
+	 * @param values one value per symbol, in the order of {@link #getSymbols()}. NaN means NA.
+	 * @return true if the criterion is met, false if it is not met or evaluates to NA.
+	 */
+	public boolean evaluate(double[] values)
+	{
+		if (root == null || (interpretNA && hasNA(values))) return interpret(values);
+		return root.eval(values) == TRUE;
+	}
+
+	/**
+	 * Evaluate the criterion for a single row of values as they come from the dataset,
+	 * see {@link IRow#getSampleData(ISample)}. Rows that only hold numbers and missing values
+	 * are evaluated as doubles, other rows, e.g. with text values, through the interpreter.
+	 * @param values one value per symbol, in the order of {@link #getSymbols()}. Null means NA.
+	 * @return true if the criterion is met, false if it is not met or evaluates to NA.
+	 */
+	public boolean evaluate(Object[] values)
+	{
+		if (root == null || !isNumeric(values)) return interpret(values);
+		if (interpretNA && Arrays.asList(values).contains(null)) return interpret(values);
+		double[] numbers = new double[values.length];
+		for (int i = 0; i < values.length; ++i) numbers[i] = toValue(values[i]);
+		return root.eval(numbers) == TRUE;
+	}
+
+	/**
+	 * Evaluate the criterion for a single row of values, stored column-wise.
+	 * @param columns one column per symbol, in the order of {@link #getSymbols()}. NaN means NA.
+	 * @param row the row to evaluate
+	 * @param scratch an array with one element per symbol, to avoid allocation. Overwritten.
+	 */
+	public boolean evaluate(double[][] columns, int row, double[] scratch)
+	{
+		for (int i = 0; i < scratch.length; ++i) scratch[i] = columns[i][row];
+		return evaluate(scratch);
+	}
+
+	/**
+	 * Evaluate the criterion for all rows, stored column-wise.
+	 * Rows are split in blocks that are evaluated in parallel on the common fork-join pool.
+	 * Each row gives the same result as {@link #evaluate(double[])}, including rows with NA arguments to functions.
+	 * @param columns one column per symbol, in the order of {@link #getSymbols()}. NaN means NA.
+	 * @param rows the number of rows, which all columns must have. Passed separately, as an
+	 * 	expression without symbols such as <code>1 = 1</code> has no columns, but still applies to every row.
+	 * @return the set of row indices that meet the criterion.
+	 */
+	public BitSet evaluate(double[][] columns, int rows)
+	{
+		if (columns.length != symbols.size())
+		{
+			throw new IllegalArgumentException("Expected " + symbols.size() + " columns, got " + columns.length);
+		}
+		for (double[] column : columns)
+		{
+			if (column.length != rows) throw new IllegalArgumentException("Expected " + rows + " rows, got " + column.length);
+		}
+		boolean[] matches = new boolean[rows];
+		ForkJoinPool.commonPool().invoke(new EvaluateBlock(columns, matches, 0, rows));
+
+		BitSet result = new BitSet(rows);
+		for (int i = 0; i < rows; ++i)
+		{
+			if (matches[i]) result.set(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Evaluate the criterion for all rows of a dataset. Symbols are interpreted as sample names.
+	 * <p>
+	 * If the dataset implements {@link ColumnarData}, the columns are read directly.
+	 * Otherwise the rows are read once through {@link DataInterface#getIterator()}.
+	 * Rows with values that are not a number, such as text, are evaluated through the interpreter
+	 * with their original values, like all rows if the expression could not be typed.
+	 * @return the set of matching row indices, in the order of {@link DataInterface#getIterator()}.
+	 * 	Use {@link BitSet#cardinality()} to count them.
+	 * @throws DataException if a symbol doesn't match any sample, or the data can't be read.
+	 */
+	public BitSet evaluate(DataInterface data) throws DataException
+	{
+		// columnar datasets can only hold numbers, so nothing is lost by reading doubles
+		if (data instanceof ColumnarData) return evaluate(getColumns(data), data.getNrRow());
+
+		ISample[] samples = findSamples(data);
+		int capacity = 1024;
+		double[][] columns = new double[samples.length][capacity];
+		// rows that can't be evaluated as doubles, with their original values
+		BitSet rawRows = new BitSet();
+		List<Object[]> rawValues = new ArrayList<Object[]>();
+		int rows = 0;
+		for (IRow row : data.getIterator())
+		{
+			if (rows == capacity)
+			{
+				capacity *= 2;
+				for (int i = 0; i < samples.length; ++i) columns[i] = Arrays.copyOf(columns[i], capacity);
+			}
+			Object[] values = new Object[samples.length];
+			for (int i = 0; i < samples.length; ++i)
+			{
+				values[i] = row.getSampleData(samples[i]);
+				columns[i][rows] = toValue(values[i]);
+			}
+			if (root == null || !isNumeric(values))
+			{
+				rawRows.set(rows);
+				rawValues.add(values);
+			}
+			rows++;
+		}
+		for (int i = 0; i < samples.length; ++i) columns[i] = Arrays.copyOf(columns[i], rows);
+
+		BitSet result = root == null ? new BitSet(rows) : evaluate(columns, rows);
+		int next = 0;
+		for (int row = rawRows.nextSetBit(0); row >= 0; row = rawRows.nextSetBit(row + 1))
+		{
+			result.set(row, interpret(rawValues.get(next++)));
+		}
+		return result;
+	}
+
+	private ISample[] findSamples(DataInterface data) throws DataException
+	{
+		ISample[] samples = new ISample[symbols.size()];
+		for (int i = 0; i < samples.length; ++i)
+		{
+			samples[i] = data.findSample(symbols.get(i));
+			if (samples[i] == null) throw new DataException("No sample named '" + symbols.get(i) + "'");
+		}
+		return samples;
+	}
+
+	/**
+	 * Read the columns for all symbols from a dataset, for use with {@link #evaluate(double[][], int)}.
+	 * Values that are not a number count as NA, see {@link #evaluate(DataInterface)} for a method
+	 * that keeps them. Note that if there are no symbols, there are no columns to take the number of rows from.
+	 */
+	public double[][] getColumns(DataInterface data) throws DataException
+	{
+		ISample[] samples = findSamples(data);
+
+		double[][] columns = new double[samples.length][];
+		if (data instanceof ColumnarData)
+		{
+			for (int i = 0; i < samples.length; ++i) columns[i] = ((ColumnarData)data).getColumn(samples[i]);
+			return columns;
+		}
+
+		int capacity = 1024;
+		for (int i = 0; i < samples.length; ++i) columns[i] = new double[capacity];
+		int rows = 0;
+		for (IRow row : data.getIterator())
+		{
+			if (rows == capacity)
+			{
+				capacity *= 2;
+				for (int i = 0; i < samples.length; ++i) columns[i] = Arrays.copyOf(columns[i], capacity);
+			}
+			for (int i = 0; i < samples.length; ++i) columns[i][rows] = toValue(row.getSampleData(samples[i]));
+			rows++;
+		}
+		for (int i = 0; i < samples.length; ++i) columns[i] = Arrays.copyOf(columns[i], rows);
+		return columns;
+	}
+
+	/** Evaluates a range of rows, splitting it until it is small enough */
+	private class EvaluateBlock extends RecursiveAction
+	{
+		private static final int BLOCK_SIZE = 4096;
+
+		private final double[][] columns;
+		private final boolean[] matches;
+		private final int start;
+		private final int end;
+
+		EvaluateBlock(double[][] columns, boolean[] matches, int start, int end)
+		{
+			this.columns = columns;
+			this.matches = matches;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (end - start > BLOCK_SIZE)
+			{
+				int mid = (start + end) >>> 1;
+				invokeAll(new EvaluateBlock(columns, matches, start, mid),
+						new EvaluateBlock(columns, matches, mid, end));
+				return;
+			}
+			double[] scratch = new double[columns.length];
+			for (int row = start; row < end; ++row)
+			{
+				matches[row] = evaluate(columns, row, scratch);
+			}
+		}
+	}
+
+	/**
+	 * Converts a data value, as returned by {@link IRow#getSampleData(ISample)}, to a value suitable for
+	 * evaluate(). Values that are not a number become NaN (NA).
+	 */
+	public static double toValue(Object data)
+	{
+		return data instanceof Number ? ((Number)data).doubleValue() : Double.NaN;
+	}
+
+	/**
+	 * True if the values can be passed as doubles without changing the outcome.
+	 * The interpreter only does arithmetic on Doubles, and compares text by value.
+	 */
+	private static boolean isNumeric(Object[] values)
+	{
+		for (Object value : values)
+		{
+			if (value != null && !(value instanceof Double)) return false;
+		}
+		return true;
+	}
+
+	private static boolean hasNA(double[] values)
+	{
+		for (double value : values)
+		{
+			if (Double.isNaN(value)) return true;
+		}
+		return false;
+	}
+
+	/** True if the expression calls functions that fail on NA arguments in the interpreter */
+	private static boolean hasFunctions(Token t)
+	{
+		if (t == null) return false;
+		if (t.type == TokenType.FUNC)
+		{
+			if (!"ISNUMBER".equals(t.symbolValue)) return true;
+			for (Token p : t.funcParams)
+			{
+				if (hasFunctions(p)) return true;
+			}
+		}
+		return hasFunctions(t.left) || hasFunctions(t.right);
+	}
+
+	private boolean interpret(double[] values)
+	{
+		Object[] data = new Object[values.length];
+		for (int i = 0; i < values.length; ++i)
+		{
+			data[i] = Double.isNaN(values[i]) ? null : values[i];
+		}
+		return interpret(data);
+	}
+
+	private boolean interpret(Object[] values)
+	{
+		Map<String, Object> data = new HashMap<String, Object>();
+		for (int i = 0; i < values.length; ++i)
+		{
+			data.put(symbols.get(i), values[i]);
+		}
+		// the interpreter keeps state, so it can't be used by two threads at once.
+		synchronized (source)
+		{
+			try
+			{
+				return source.evaluate(data);
+			}
+			catch (CriterionException ex)
+			{
+				return false;
+			}
+			catch (NullPointerException ex)
+			{
+				// the functions of the interpreter don't accept NA arguments
+				return false;
+			}
+		}
+	}
+
+	/** Thrown during compilation when a subexpression can't be typed as number or boolean */
+	private static class UntypeableException extends Exception
+	{
+	}
+
+	/**
+	 * Fail early on unknown symbols and missing arguments, which the interpreter only reports on evaluation.
+	 */
+	private static void checkSymbols(Token t, Map<String, Integer> index) throws CriterionException
+	{
+		if (t == null) return;
+		if (t.type == TokenType.ID && !index.containsKey(t.symbolValue))
+		{
+			throw new CriterionException("Sample '[" + t.symbolValue + "]' has no value");
+		}
+		if (t.type == TokenType.FUNC)
+		{
+			if (t.funcParams.size() < Functions.valueOf(t.symbolValue).getMinArgs())
+			{
+				throw new CriterionException ("Too few arguments for function " + t.symbolValue);
+			}
+			for (Token p : t.funcParams) checkSymbols(p, index);
+		}
+		checkSymbols(t.left, index);
+		checkSymbols(t.right, index);
+	}
+
+	private static boolean isBool(Token t)
+	{
+		switch (t.type)
+		{
+		case AND: case OR: case NOT:
+		case EQ: case NE: case GE: case LE: case GT: case LT:
+			return true;
+		case FUNC:
+			return "ISNUMBER".equals(t.symbolValue);
+		default:
+			return false;
+		}
+	}
+
+	private static BoolNode compileBool(Token t, Map<String, Integer> index) throws UntypeableException
+	{
+		switch (t.type)
+		{
+		case AND:
+			return new And(compileBool(t.left, index), compileBool(t.right, index));
+		case OR:
+			return new Or(compileBool(t.left, index), compileBool(t.right, index));
+		case NOT:
+			return new Not(compileBool(t.left, index));
+		case EQ:
+		case NE:
+		{
+			boolean negate = t.type == TokenType.NE;
+			if (isBool(t.left) && isBool(t.right))
+			{
+				return new BoolEquals(compileBool(t.left, index), compileBool(t.right, index), negate);
+			}
+			return new NumEquals(compileNum(t.left, index), compileNum(t.right, index), negate);
+		}
+		case GE: case LE: case GT: case LT:
+			return new Compare(t.type, compileNum(t.left, index), compileNum(t.right, index));
+		case FUNC:
+			if ("ISNUMBER".equals(t.symbolValue))
+			{
+				return new IsNumber(compileNum(t.funcParams.get(0), index));
+			}
+			throw new UntypeableException();
+		default:
+			throw new UntypeableException();
+		}
+	}
+
+	private static NumNode compileNum(Token t, Map<String, Integer> index) throws UntypeableException
+	{
+		switch (t.type)
+		{
+		case NUMBER_LITERAL:
+			return new Constant((Double)t.literalValue);
+		case ID:
+			return new Symbol(index.get(t.symbolValue));
+		case ADD: case SUB: case MUL: case DIV:
+			return new Arithmetic(t.type, compileNum(t.left, index), compileNum(t.right, index));
+		case UNARY_MINUS:
+			return new Negate(compileNum(t.left, index));
+		case FUNC:
+		{
+			Functions f = Functions.valueOf(t.symbolValue);
+			if (f == Functions.IF)
+			{
+				return new If(compileBool(t.funcParams.get(0), index),
+						compileNum(t.funcParams.get(1), index), compileNum(t.funcParams.get(2), index));
+			}
+			if (!NumFunction.isSupported(f)) throw new UntypeableException();
+			NumNode[] params = new NumNode[t.funcParams.size()];
+			for (int i = 0; i < params.length; ++i) params[i] = compileNum(t.funcParams.get(i), index);
+			return new NumFunction(f, params);
+		}
+		default:
+			throw new UntypeableException();
+		}
+	}
+
+	/** A numeric subexpression. NaN represents NA */
+	abstract static class NumNode
+	{
+		abstract double eval(double[] values);
+	}
+
+	/** A boolean subexpression, evaluating to TRUE, FALSE or NA */
+	abstract static class BoolNode
+	{
+		abstract int eval(double[] values);
+	}
+
+	private static final class Constant extends NumNode
+	{
+		private final double value;
+		Constant(double value) { this.value = value; }
+		double eval(double[] values) { return value; }
+	}
+
+	private static final class Symbol extends NumNode
+	{
+		private final int index;
+		Symbol(int index) { this.index = index; }
+		double eval(double[] values) { return values[index]; }
+	}
+
+	private static final class Arithmetic extends NumNode
+	{
+		private final TokenType op;
+		private final NumNode left;
+		private final NumNode right;
+
+		Arithmetic(TokenType op, NumNode left, NumNode right)
+		{
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+
+		// NA propagates as NaN by itself
+		double eval(double[] values)
+		{
+			double l = left.eval(values);
+			double r = right.eval(values);
+			switch (op)
+			{
+			case ADD: return l + r;
+			case SUB: return l - r;
+			case MUL: return l * r;
+			default: return l / r;
+			}
+		}
+	}
+
+	private static final class Negate extends NumNode
+	{
+		private final NumNode arg;
+		Negate(NumNode arg) { this.arg = arg; }
+		double eval(double[] values) { return -arg.eval(values); }
+	}
+
+	private static final class If extends NumNode
+	{
+		private final BoolNode condition;
+		private final NumNode whenTrue;
+		private final NumNode whenFalse;
+
+		If(BoolNode condition, NumNode whenTrue, NumNode whenFalse)
+		{
+			this.condition = condition;
+			this.whenTrue = whenTrue;
+			this.whenFalse = whenFalse;
+		}
+
+		double eval(double[] values)
+		{
+			int c = condition.eval(values);
+			if (c == NA) return Double.NaN;
+			return c == TRUE ? whenTrue.eval(values) : whenFalse.eval(values);
+		}
+	}
+
+	/**
+	 * The numeric functions from {@link Functions}, reimplemented on primitive doubles.
+	 * The function is resolved when compiling.
+	 */
+	private static final class NumFunction extends NumNode
+	{
+		private final Functions f;
+		private final NumNode[] params;
+		private final double[] buffer; // only for VAR and STDEV
+
+		NumFunction(Functions f, NumNode[] params)
+		{
+			this.f = f;
+			this.params = params;
+			buffer = (f == Functions.VAR || f == Functions.STDEV) ? new double[params.length] : null;
+		}
+
+		static boolean isSupported(Functions f)
+		{
+			switch (f)
+			{
+			case SUM: case SUMSQ: case AVERAGE: case MAX: case MIN:
+			case VAR: case STDEV:
+			case LOG: case POWER: case EXP: case SIN: case COS: case SQRT:
+			case CEILING: case FLOOR: case LOG10: case ABS:
+				return true;
+			default:
+				// ROUND is left out on purpose, as the interpreter returns a Long that doesn't compare to numbers.
+				return false;
+			}
+		}
+
+		double eval(double[] values)
+		{
+			switch (f)
+			{
+			case SUM:
+			{
+				double sum = 0;
+				for (NumNode p : params) sum += p.eval(values);
+				return sum;
+			}
+			case SUMSQ:
+			{
+				double sumSq = 0;
+				for (NumNode p : params) { double v = p.eval(values); sumSq += v * v; }
+				return sumSq;
+			}
+			case AVERAGE:
+			{
+				double sum = 0;
+				for (NumNode p : params) sum += p.eval(values);
+				return sum / params.length;
+			}
+			case MAX:
+			{
+				double max = Double.NaN;
+				for (int i = 0; i < params.length; ++i)
+				{
+					double v = params[i].eval(values);
+					if (i == 0 || v > max || Double.isNaN(v)) max = v;
+					if (Double.isNaN(max)) return max;
+				}
+				return max;
+			}
+			case MIN:
+			{
+				double min = Double.NaN;
+				for (int i = 0; i < params.length; ++i)
+				{
+					double v = params[i].eval(values);
+					if (i == 0 || v < min || Double.isNaN(v)) min = v;
+					if (Double.isNaN(min)) return min;
+				}
+				return min;
+			}
+			case VAR:
+			case STDEV:
+			{
+				// buffer makes this evaluator unsafe to share between threads, so don't
+				synchronized (this)
+				{
+					for (int i = 0; i < params.length; ++i) buffer[i] = params[i].eval(values);
+					double var = StatUtils.variance(buffer);
+					return f == Functions.VAR ? var : Math.sqrt(var);
+				}
+			}
+			case LOG: return Math.log(params[0].eval(values)) / Math.log(params[1].eval(values));
+			case POWER: return Math.pow(params[0].eval(values), params[1].eval(values));
+			case EXP: return Math.exp(params[0].eval(values));
+			case SIN: return Math.sin(params[0].eval(values));
+			case COS: return Math.cos(params[0].eval(values));
+			case SQRT: return Math.sqrt(params[0].eval(values));
+			case CEILING: return Math.ceil(params[0].eval(values));
+			case FLOOR: return Math.floor(params[0].eval(values));
+			case LOG10: return Math.log10(params[0].eval(values));
+			case ABS: return Math.abs(params[0].eval(values));
+			default: throw new IllegalStateException("Function " + f + " can't be evaluated as number");
+			}
+		}
+	}
+
+	private static final class Compare extends BoolNode
+	{
+		private final TokenType op;
+		private final NumNode left;
+		private final NumNode right;
+
+		Compare(TokenType op, NumNode left, NumNode right)
+		{
+			this.op = op;
+			this.left = left;
+			this.right = right;
+		}
+
+		int eval(double[] values)
+		{
+			double l = left.eval(values);
+			double r = right.eval(values);
+			if (Double.isNaN(l) || Double.isNaN(r)) return NA;
+			boolean result;
+			switch (op)
+			{
+			case GE: result = l >= r; break;
+			case LE: result = l <= r; break;
+			case GT: result = l > r; break;
+			default: result = l < r; break;
+			}
+			return result ? TRUE : FALSE;
+		}
+	}
+
+	/** EQ / NE on numbers. Like the interpreter, NA equals NA, and never equals a number. */
+	private static final class NumEquals extends BoolNode
+	{
+		private final NumNode left;
+		private final NumNode right;
+		private final boolean negate;
+
+		NumEquals(NumNode left, NumNode right, boolean negate)
+		{
+			this.left = left;
+			this.right = right;
+			this.negate = negate;
+		}
+
+		int eval(double[] values)
+		{
+			double l = left.eval(values);
+			double r = right.eval(values);
+			boolean equal = Double.isNaN(l) ? Double.isNaN(r) : l == r;
+			return equal != negate ? TRUE : FALSE;
+		}
+	}
+
+	/** EQ / NE on booleans. */
+	private static final class BoolEquals extends BoolNode
+	{
+		private final BoolNode left;
+		private final BoolNode right;
+		private final boolean negate;
+
+		BoolEquals(BoolNode left, BoolNode right, boolean negate)
+		{
+			this.left = left;
+			this.right = right;
+			this.negate = negate;
+		}
+
+		int eval(double[] values)
+		{
+			boolean equal = left.eval(values) == right.eval(values);
+			return equal != negate ? TRUE : FALSE;
+		}
+	}
+
+	private static final class And extends BoolNode
+	{
+		private final BoolNode left;
+		private final BoolNode right;
+		And(BoolNode left, BoolNode right) { this.left = left; this.right = right; }
+		int eval(double[] values)
+		{
+			return left.eval(values) == TRUE && right.eval(values) == TRUE ? TRUE : FALSE;
+		}
+	}
+
+	private static final class Or extends BoolNode
+	{
+		private final BoolNode left;
+		private final BoolNode right;
+		Or(BoolNode left, BoolNode right) { this.left = left; this.right = right; }
+		int eval(double[] values)
+		{
+			return left.eval(values) == TRUE || right.eval(values) == TRUE ? TRUE : FALSE;
+		}
+	}
+
+	/** Like the interpreter, NOT NA is true */
+	private static final class Not extends BoolNode
+	{
+		private final BoolNode arg;
+		Not(BoolNode arg) { this.arg = arg; }
+		int eval(double[] values) { return arg.eval(values) == TRUE ? FALSE : TRUE; }
+	}
+
+	private static final class IsNumber extends BoolNode
+	{
+		private final NumNode arg;
+		IsNumber(NumNode arg) { this.arg = arg; }
+		int eval(double[] values) { return Double.isNaN(arg.eval(values)) ? FALSE : TRUE; }
+	}
+}
@@ -19,6 +19,7 @@ package org.pathvisio.data;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -131,6 +132,45 @@ public class Criterion
 		return e.evaluate();
 	}
 
+	/**
+	 * Compile the current expression into an evaluator that takes the symbol values as
+	 * an array of doubles, in the order of the given symbols. This is much faster than evaluate(Map)
+	 * if the same criterion is applied to many rows.
+	 * @see CompiledCriterion
+	 * @param symbols the symbols (sample names) that the expression may refer to
+	 * @throws CriterionException if the expression could not be parsed, or refers to unknown symbols
+	 */
+	public CompiledCriterion compile(List<String> symbols) throws CriterionException
+	{
+		if (parsed == null) parsed = parse();
+		return new CompiledCriterion(this, parsed, symbols);
+	}
+
+	/**
+	 * Get the symbols (sample names) that the current expression refers to,
+	 * in order of first appearance.
+	 * @throws CriterionException if the expression could not be parsed
+	 */
+	public List<String> getReferencedSymbols() throws CriterionException
+	{
+		if (parsed == null) parsed = parse();
+		Set<String> result = new LinkedHashSet<String>();
+		collectSymbols(parsed, result);
+		return new ArrayList<String>(result);
+	}
+
+	private static void collectSymbols(Token t, Set<String> result)
+	{
+		if (t == null) return;
+		if (t.type == TokenType.ID) result.add(t.symbolValue);
+		if (t.funcParams != null)
+		{
+			for (Token p : t.funcParams) collectSymbols(p, result);
+		}
+		collectSymbols(t.left, result);
+		collectSymbols(t.right, result);
+	}
+
 	//Boolean expression parser by Martijn
 	String input;
 	int charNr;
@@ -560,7 +600,7 @@ public class Criterion
 		return result;
 	}
 
-	private enum TokenType {
+	enum TokenType {
 		END,
 		NUMBER_LITERAL,
 		STRING_LITERAL,
@@ -595,15 +635,16 @@ public class Criterion
 	}
 
 	/**
-	 * This class represents a single token of an expression
+	 * This class represents a single token of an expression.
+	 * Package private, so that {@link CompiledCriterion} can read the parse tree.
 	 */
-	private class Token {
-		private TokenType type;
-		private Object literalValue; // in case it is a number or string literal
-		private String symbolValue; // in case it is a symbol or string literal
-		private List<Token> funcParams = null;
-		private Token left = null;
-		private Token right = null;
+	class Token {
+		TokenType type;
+		Object literalValue; // in case it is a number or string literal
+		String symbolValue; // in case it is a symbol or string literal
+		List<Token> funcParams = null;
+		Token left = null;
+		Token right = null;
 
 		void printMe (int level)
 		{
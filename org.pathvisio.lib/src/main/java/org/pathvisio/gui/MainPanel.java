@@ -226,7 +226,7 @@ public class MainPanel extends JPanel implements VPathwayListener, ApplicationEv
 
 		bpt = new BackpageTextProvider ();
 		bpt.addBackpageHook(new BackpageAttributes(swingEngine.getGdbManager().getCurrentGdb()));
-		bpt.addBackpageHook(new BackpageXrefs(swingEngine.getGdbManager().getCurrentGdb()));
+		bpt.addBackpageHook(new BackpageXrefs(swingEngine.getGdbManager().getCachedGdb()));
 		
 		backpagePane = new BackpagePane(bpt, swingEngine.getEngine());
 		backpagePane.addHyperlinkListener(swingEngine);
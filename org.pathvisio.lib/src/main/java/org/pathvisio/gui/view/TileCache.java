@@ -0,0 +1,477 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.gui.view;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+import org.pathvisio.debug.Logger;
+import org.pathvisio.view.model.VElement;
+import org.pathvisio.view.model.VPathwayModel;
+
+/**
+ * Offscreen render cache for {@link VPathwaySwing}. The static part of the
+ * drawing (see {@link VPathwayModel#drawBase}) is rendered in fixed-size tiles,
+ * so that scrolling and repaints only have to composite the tiles. Changed
+ * areas are invalidated with {@link #invalidate}, which only throws
+ * away the tiles that touch that area.
+ * <p>
+ * Tiles are kept for a few zoom levels, so that zooming back and forth doesn't
+ * have to render everything again. Tiles are VolatileImages where possible,
+ * BufferedImages otherwise. They have the resolution of the device, e.g. twice
+ * TILE_SIZE pixels on a HiDPI screen with a scale of 2, so that they are
+ * composited without scaling.
+ * <p>
+ * In asynchronous mode, tiles are not rendered while painting, but in short
+ * steps posted to the event queue, so that slow pathways don't block input.
+ * Elements are only drawn on the event dispatch thread, like in the normal
+ * mode. For each tile, a snapshot of the elements to draw is taken (see
+ * {@link VPathwayModel#getBaseSnapshot}) and drawn a few at a time into an
+ * image, while the last complete image of the tile is still shown. Invalidating
+ * a tile cancels its render in progress, so that a stale image is never swapped
+ * in. Tiles of other zoom levels and of a previous pathway are cancelled the
+ * same way.
+ * <p>
+ * Not thread-safe, should only be used on the event dispatch thread.
+ */
+class TileCache {
+	static final int TILE_SIZE = 256;
+	static final int MAX_TILES = 192;
+	static final int MAX_ZOOM_LEVELS = 3;
+	/** time in ns that rendering may take in asynchronous mode, before other events are handled */
+	static final long STEP_NANOS = 10000000L;
+
+	/** One tile, at position (col * TILE_SIZE, row * TILE_SIZE) */
+	private static class Tile {
+		final long key;
+		VolatileImage volatileImage;
+		BufferedImage bufferedImage;
+
+		// asynchronous mode only
+		boolean stale = false; // bufferedImage is out of date, but still shown
+		boolean failed = false; // not rendered again until invalidated
+		RenderJob pending = null;
+
+		Tile(long key) {
+			this.key = key;
+		}
+
+		Image getImage() {
+			return volatileImage != null ? volatileImage : bufferedImage;
+		}
+
+		void cancel() {
+			if (pending != null)
+				pending.cancelled = true;
+			pending = null;
+		}
+
+		void flush() {
+			cancel();
+			if (volatileImage != null)
+				volatileImage.flush();
+			volatileImage = null;
+			bufferedImage = null;
+		}
+	}
+
+	/**
+	 * Renders a snapshot of a tile in steps, and swaps it in when it is complete.
+	 */
+	private class RenderJob {
+		final Tile tile;
+		final VPathwayModel vPwy;
+		final Rectangle area;
+		final double scale;
+		final List<VElement> snapshot;
+		final BufferedImage image;
+		int next = 0; // the first element that isn't drawn yet
+		boolean cancelled = false;
+
+		RenderJob(Tile tile, VPathwayModel vPwy, Rectangle area) {
+			this.tile = tile;
+			this.vPwy = vPwy;
+			this.area = area;
+			this.scale = TileCache.this.scale;
+			snapshot = vPwy.getBaseSnapshot(area);
+			int pixels = pixels(scale);
+			image = new BufferedImage(pixels, pixels, BufferedImage.TYPE_INT_RGB);
+		}
+
+		/**
+		 * Draw the next part of the snapshot.
+		 *
+		 * @return true if the image is complete.
+		 */
+		boolean step() {
+			Graphics2D g = image.createGraphics();
+			try {
+				g.scale(scale, scale);
+				g.translate(-area.x, -area.y);
+				g.setClip(area);
+				next = vPwy.drawSnapshot(g, area, snapshot, next, STEP_NANOS);
+			} finally {
+				g.dispose();
+			}
+			return next >= snapshot.size();
+		}
+	}
+
+	private final JComponent owner;
+	private final boolean async;
+	/** scale from view coordinates to device pixels, that the tiles are rendered at */
+	private double scale = 1;
+
+	/** asynchronous mode: tiles to render, in order */
+	private final ArrayDeque<RenderJob> jobs = new ArrayDeque<RenderJob>();
+	private boolean stepPosted = false;
+	private final Runnable step = new Runnable() {
+		public void run() {
+			stepPosted = false;
+			renderStep();
+		}
+	};
+
+	/**
+	 * @param owner the component to repaint when a tile has been rendered
+	 *              asynchronously.
+	 * @param async true to render tiles in steps, between other events.
+	 */
+	TileCache(JComponent owner, boolean async) {
+		this.owner = owner;
+		this.async = async;
+	}
+
+	/** Tiles per zoom level, least recently used zoom level first */
+	private final LinkedHashMap<Double, Map<Long, Tile>> levels = new LinkedHashMap<Double, Map<Long, Tile>>(
+			MAX_ZOOM_LEVELS + 1, 0.75f, true);
+
+	/** Tiles of all zoom levels, least recently used first, for eviction */
+	private final LinkedHashMap<Tile, Double> lru = new LinkedHashMap<Tile, Double>(MAX_TILES + 1, 0.75f, true);
+
+	private static long key(int col, int row) {
+		return ((long) col << 32) | (row & 0xffffffffL);
+	}
+
+	/** @return the size of a tile in device pixels */
+	private static int pixels(double scale) {
+		return (int) Math.ceil(TILE_SIZE * scale);
+	}
+
+	/**
+	 * @return the scale from view coordinates to device pixels, e.g. 2 on a HiDPI
+	 *         screen.
+	 */
+	private static double deviceScale(Graphics2D g) {
+		AffineTransform t = g.getTransform();
+		double s = Math.max(Math.abs(t.getScaleX()), Math.abs(t.getScaleY()));
+		return s > 0 ? s : 1;
+	}
+
+	/**
+	 * Composite the tiles that intersect the clipping area of g, rendering the
+	 * ones that are missing or whose contents were lost.
+	 *
+	 * @param g     the graphics to paint on, in view coordinates.
+	 * @param vPwy  the pathway to render.
+	 * @param gc    the graphics configuration of the component, or null to
+	 *              render into BufferedImages.
+	 * @param clip  the area to paint.
+	 */
+	void paint(Graphics2D g, VPathwayModel vPwy, GraphicsConfiguration gc, Rectangle clip) {
+		double s = deviceScale(g);
+		if (s != scale) {
+			// e.g. the window moved to another screen
+			clear();
+			scale = s;
+		}
+		Double zoom = vPwy.getZoomFactor();
+		Map<Long, Tile> tiles = levels.get(zoom);
+		if (tiles == null) {
+			tiles = new LinkedHashMap<Long, Tile>();
+			levels.put(zoom, tiles);
+			if (levels.size() > MAX_ZOOM_LEVELS)
+				removeLevel(levels.keySet().iterator().next());
+			if (async) {
+				// the zoom factor changed, don't waste time on the previous one
+				for (Map<Long, Tile> level : levels.values())
+					for (Tile tile : level.values())
+						tile.cancel();
+			}
+		}
+
+		int minCol = Math.floorDiv(clip.x, TILE_SIZE);
+		int maxCol = Math.floorDiv(clip.x + clip.width - 1, TILE_SIZE);
+		int minRow = Math.floorDiv(clip.y, TILE_SIZE);
+		int maxRow = Math.floorDiv(clip.y + clip.height - 1, TILE_SIZE);
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int col = minCol; col <= maxCol; col++) {
+				long k = key(col, row);
+				Tile tile = tiles.get(k);
+				if (async) {
+					if (tile == null) {
+						tile = new Tile(k);
+						tiles.put(k, tile);
+						lru.put(tile, zoom);
+					} else {
+						lru.get(tile); // touch
+					}
+					paintAsync(g, tile, vPwy, col, row);
+					continue;
+				}
+				if (tile == null) {
+					tile = new Tile(k);
+					tiles.put(k, tile);
+					lru.put(tile, zoom);
+					render(tile, vPwy, gc, col, row, true);
+				} else {
+					lru.get(tile); // touch
+					render(tile, vPwy, gc, col, row, false);
+				}
+				g.drawImage(tile.getImage(), col * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE, null);
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * (Re)render the tile if it is new or its contents were lost. A VolatileImage
+	 * can lose its contents at any time (e.g. when the display mode changes), so
+	 * it is validated each time it is used.
+	 */
+	private void render(Tile tile, VPathwayModel vPwy, GraphicsConfiguration gc, int col, int row, boolean fresh) {
+		if (gc == null) {
+			if (tile.bufferedImage == null) {
+				tile.bufferedImage = new BufferedImage(pixels(scale), pixels(scale), BufferedImage.TYPE_INT_RGB);
+				fresh = true;
+			}
+			if (fresh)
+				renderInto(tile.bufferedImage.createGraphics(), vPwy, col, row);
+			return;
+		}
+
+		// retry until the contents survive rendering
+		do {
+			int status = tile.volatileImage == null ? VolatileImage.IMAGE_INCOMPATIBLE
+					: tile.volatileImage.validate(gc);
+			if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+				if (tile.volatileImage != null)
+					tile.volatileImage.flush();
+				tile.volatileImage = gc.createCompatibleVolatileImage(pixels(scale), pixels(scale));
+				fresh = true;
+			} else if (status == VolatileImage.IMAGE_RESTORED) {
+				fresh = true;
+			}
+			if (fresh)
+				renderInto(tile.volatileImage.createGraphics(), vPwy, col, row);
+			fresh = true; // if the contents were lost meanwhile, render again
+		} while (tile.volatileImage.contentsLost());
+	}
+
+	/**
+	 * Paint the last complete image of the tile, or blank if there is none yet,
+	 * and schedule rendering if it is missing or stale.
+	 */
+	private void paintAsync(Graphics2D g, Tile tile, VPathwayModel vPwy, int col, int row) {
+		int x = col * TILE_SIZE;
+		int y = row * TILE_SIZE;
+		if ((tile.bufferedImage == null || tile.stale) && tile.pending == null && !tile.failed) {
+			tile.pending = new RenderJob(tile, vPwy, new Rectangle(x, y, TILE_SIZE, TILE_SIZE));
+			jobs.add(tile.pending);
+			postStep();
+		}
+		if (tile.bufferedImage != null) {
+			g.drawImage(tile.bufferedImage, x, y, TILE_SIZE, TILE_SIZE, null);
+		} else {
+			g.setColor(Color.WHITE);
+			g.fillRect(x, y, TILE_SIZE, TILE_SIZE);
+		}
+	}
+
+	/**
+	 * Post a step to the end of the event queue, if there is work to do, so that
+	 * input that came in meanwhile is handled first.
+	 */
+	private void postStep() {
+		if (!stepPosted && !jobs.isEmpty()) {
+			stepPosted = true;
+			SwingUtilities.invokeLater(step);
+		}
+	}
+
+	/**
+	 * Render the first tile in the queue for one step, and swap it in if it is
+	 * complete.
+	 */
+	private void renderStep() {
+		RenderJob job = jobs.peek();
+		while (job != null && job.cancelled) {
+			jobs.poll();
+			job = jobs.peek();
+		}
+		if (job == null)
+			return;
+		boolean done;
+		try {
+			done = job.step();
+		} catch (RuntimeException ex) {
+			Logger.log.error("Rendering of tile failed", ex);
+			job.tile.failed = true;
+			done = false;
+			job.cancelled = true;
+		}
+		if (done) {
+			jobs.poll();
+			finish(job);
+		} else if (job.cancelled) {
+			jobs.poll();
+			job.tile.pending = null;
+		}
+		postStep();
+	}
+
+	/**
+	 * Swap in a tile that was rendered asynchronously, unless it was invalidated
+	 * or thrown away in the meantime.
+	 */
+	private void finish(RenderJob job) {
+		Tile tile = job.tile;
+		if (tile.pending != job || job.cancelled || job.scale != scale)
+			return; // stale, drop it
+		tile.pending = null;
+		tile.bufferedImage = job.image;
+		tile.stale = false;
+		owner.repaint(job.area);
+	}
+
+	private void renderInto(Graphics2D g, VPathwayModel vPwy, int col, int row) {
+		try {
+			g.scale(scale, scale);
+			g.translate(-col * TILE_SIZE, -row * TILE_SIZE);
+			g.setClip(col * TILE_SIZE, row * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+			vPwy.drawBase(g);
+		} finally {
+			g.dispose();
+		}
+	}
+
+	/**
+	 * Throw away the tiles of the current zoom level that intersect the given
+	 * area, and all tiles of other zoom levels, because the area can't be mapped
+	 * to those.
+	 *
+	 * @param vPwy the pathway, for the current zoom level.
+	 * @param r    the changed area, in view coordinates.
+	 */
+	void invalidate(VPathwayModel vPwy, Rectangle r) {
+		Double zoom = vPwy.getZoomFactor();
+		for (Iterator<Map.Entry<Double, Map<Long, Tile>>> i = levels.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<Double, Map<Long, Tile>> level = i.next();
+			if (!level.getKey().equals(zoom)) {
+				flush(level.getValue());
+				i.remove();
+			}
+		}
+		Map<Long, Tile> tiles = levels.get(zoom);
+		if (tiles == null || r.isEmpty())
+			return;
+
+		int minCol = Math.floorDiv(r.x, TILE_SIZE);
+		int maxCol = Math.floorDiv(r.x + r.width, TILE_SIZE);
+		int minRow = Math.floorDiv(r.y, TILE_SIZE);
+		int maxRow = Math.floorDiv(r.y + r.height, TILE_SIZE);
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int col = minCol; col <= maxCol; col++) {
+				if (async) {
+					// keep showing the old image until the new one is ready
+					Tile tile = tiles.get(key(col, row));
+					if (tile != null) {
+						tile.cancel();
+						tile.stale = true;
+						tile.failed = false;
+					}
+					continue;
+				}
+				Tile tile = tiles.remove(key(col, row));
+				if (tile != null) {
+					lru.remove(tile);
+					tile.flush();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Throw away all tiles.
+	 */
+	void clear() {
+		for (Map<Long, Tile> tiles : levels.values())
+			flush(tiles);
+		levels.clear();
+		jobs.clear();
+	}
+
+	/**
+	 * Throw away all tiles.
+	 */
+	void dispose() {
+		clear();
+	}
+
+	private void removeLevel(Double zoom) {
+		flush(levels.remove(zoom));
+	}
+
+	private void flush(Map<Long, Tile> tiles) {
+		for (Tile tile : tiles.values()) {
+			lru.remove(tile);
+			tile.flush();
+		}
+		tiles.clear();
+	}
+
+	/**
+	 * Remove least recently used tiles until we're within budget. Visible tiles
+	 * are used last, so they are only removed if the viewport doesn't fit in
+	 * MAX_TILES.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<Tile, Double>> i = lru.entrySet().iterator();
+		while (lru.size() > MAX_TILES && i.hasNext()) {
+			Map.Entry<Tile, Double> entry = i.next();
+			Map<Long, Tile> tiles = levels.get(entry.getValue());
+			if (tiles != null)
+				tiles.remove(entry.getKey().key);
+			entry.getKey().flush();
+			i.remove();
+		}
+	}
+}
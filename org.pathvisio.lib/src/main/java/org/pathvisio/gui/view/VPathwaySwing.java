@@ -84,6 +84,8 @@ public class VPathwaySwing extends JPanel implements VPathwayWrapper, MouseMotio
 
 	protected JScrollPane container;
 
+	private final TileCache tileCache;
+
 	public VPathwaySwing(JScrollPane parent) {
 		super();
 		if (parent == null)
@@ -99,9 +101,11 @@ public class VPathwaySwing extends JPanel implements VPathwayWrapper, MouseMotio
 		setTransferHandler(new PathwayImportHandler());
 
 		setDoubleBuffered(PreferenceManager.getCurrent().getBoolean(GlobalPreference.ENABLE_DOUBLE_BUFFERING));
+		tileCache = new TileCache(this, PreferenceManager.getCurrent().getBoolean(GlobalPreference.ASYNC_RENDERING));
 	}
 
 	public void setChild(VPathwayModel c) {
+		tileCache.clear();
 		child = c;
 		child.addVPathwayListener(this);
 		child.addVElementMouseListener(this);
@@ -119,24 +123,54 @@ public class VPathwaySwing extends JPanel implements VPathwayWrapper, MouseMotio
 	}
 
 	/**
-	 * Schedule redraw of the entire visible area
+	 * Schedule redraw of the entire visible area. This throws away all cached
+	 * tiles. May be called from any thread.
 	 */
 	public void redraw() {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					redraw();
+				}
+			});
+			return;
+		}
+		tileCache.clear();
 		repaint();
 	}
 
 	/**
-	 * Draw immediately
+	 * Draw immediately. The static part of the pathway is composited from cached
+	 * tiles, the overlay (selection handles, highlights) is drawn on top.
 	 */
 	protected void paintComponent(Graphics g) {
-		if (child != null)
-			child.draw((Graphics2D) g);
+		if (child == null)
+			return;
+		Rectangle clip = g.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		if (clip.isEmpty())
+			return;
+		Graphics2D g2d = (Graphics2D) g;
+		tileCache.paint(g2d, child, getGraphicsConfiguration(), clip);
+		child.drawOverlay(g2d);
 	}
 
 	/**
-	 * Schedule redraw of a certain part of the pathway
+	 * Schedule redraw of a certain part of the pathway. Only the cached tiles
+	 * touching that part are thrown away. May be called from any thread.
 	 */
-	public void redraw(Rectangle r) {
+	public void redraw(final Rectangle r) {
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					redraw(r);
+				}
+			});
+			return;
+		}
+		if (child != null)
+			tileCache.invalidate(child, r);
 		repaint(r);
 	}
 
@@ -471,6 +505,7 @@ public class VPathwaySwing extends JPanel implements VPathwayWrapper, MouseMotio
 		getActionMap().clear();
 		getInputMap(JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT).clear();
 
+		tileCache.dispose();
 		child = null; // free VPathway for GC
 		disposed = true;
 	}
@@ -58,7 +58,22 @@ public enum GlobalPreference implements Preference
 	DB_CONNECTSTRING_METADB("idmapper-pgdb:none"),
 	DB_CONNECTSTRING_IDB("idmapper-pgdb:none"),
 
+	// expression data cache limits, 0 means unbounded
+	GEX_CACHE_MAX_ENTRIES ("0"),
+	GEX_CACHE_MAX_MB ("0"),
+	GEX_CACHE_SOFT_SPILL (Boolean.toString(false)),
+	// number of threads loading expression data in the background
+	GEX_CACHE_THREADS ("2"),
+
 	ENABLE_DOUBLE_BUFFERING(Boolean.toString(true)),
+	// render the pathway in steps between input events, see TileCache
+	ASYNC_RENDERING(Boolean.toString(false)),
+	// simplified drawing when zoomed out, see VPathwayModel.isLowDetail()
+	LOD_ENABLED(Boolean.toString(false)),
+	LOD_ZOOM_PERCENT ("40"),
+	LOD_MIN_TEXT_SIZE ("4"),
+	// record undo steps as changes instead of pathway copies, see UndoManager
+	UNDO_DELTA(Boolean.toString(false)),
 	SHOW_ADVANCED_PROPERTIES(Boolean.toString(false)),
 	MIM_SUPPORT(Boolean.toString(true)),
 	SNAP_TO_ANGLE (Boolean.toString(false)),
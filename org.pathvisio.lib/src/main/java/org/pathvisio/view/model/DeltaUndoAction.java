@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+  * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.pathvisio.model.PathwayElement;
+import org.pathvisio.model.PathwayModel;
+import org.pathvisio.props.StaticProperty;
+
+/**
+ * a single item on the undo stack, that stores the changes made to the pathway
+ * instead of a complete copy. Changes are recorded by {@link UndoRecorder}, and
+ * undone in place, in reverse order. Memory use is proportional to the number
+ * of changed properties, added and removed elements.
+ */
+class DeltaUndoAction extends UndoAction {
+
+	/** one recorded change */
+	private interface Edit {
+		void undo(PathwayModel pathwayModel);
+	}
+
+	private static class PropertyEdit implements Edit {
+		final PathwayElement element;
+		final StaticProperty property;
+		final Object oldValue;
+
+		PropertyEdit(PathwayElement element, StaticProperty property, Object oldValue) {
+			this.element = element;
+			this.property = property;
+			this.oldValue = oldValue;
+		}
+
+		public void undo(PathwayModel pathwayModel) {
+			element.setStaticProperty(property, oldValue);
+		}
+	}
+
+	private static class AddEdit implements Edit {
+		final PathwayElement element;
+
+		AddEdit(PathwayElement element) {
+			this.element = element;
+		}
+
+		public void undo(PathwayModel pathwayModel) {
+			pathwayModel.remove(element);
+		}
+	}
+
+	private static class RemoveEdit implements Edit {
+		final PathwayElement element;
+		final Map<StaticProperty, Object> properties;
+
+		RemoveEdit(PathwayElement element, Map<StaticProperty, Object> properties) {
+			this.element = element;
+			this.properties = properties;
+		}
+
+		public void undo(PathwayModel pathwayModel) {
+			pathwayModel.add(element);
+			for (Map.Entry<StaticProperty, Object> p : properties.entrySet()) {
+				element.setStaticProperty(p.getKey(), p.getValue());
+			}
+		}
+	}
+
+	private final PathwayModel pathwayModel;
+	private final List<Edit> edits = new ArrayList<Edit>();
+
+	/**
+	 * Properties that already have an edit in this action. Only the value before
+	 * the first change is needed, so repeated changes of the same property (e.g.
+	 * while dragging) are stored once.
+	 */
+	private final Map<PathwayElement, Set<StaticProperty>> changed = new IdentityHashMap<PathwayElement, Set<StaticProperty>>();
+
+	DeltaUndoAction(String aMessage, PathwayModel pathwayModel) {
+		super(aMessage);
+		this.pathwayModel = pathwayModel;
+	}
+
+	void propertyChanged(PathwayElement element, StaticProperty property, Object oldValue) {
+		Set<StaticProperty> properties = changed.get(element);
+		if (properties == null) {
+			properties = new HashSet<StaticProperty>();
+			changed.put(element, properties);
+		}
+		if (properties.add(property)) {
+			edits.add(new PropertyEdit(element, property, oldValue));
+		}
+	}
+
+	void elementAdded(PathwayElement element) {
+		edits.add(new AddEdit(element));
+	}
+
+	/**
+	 * @param properties the properties of the element at the time it was
+	 *                   removed, to restore them when it is added again.
+	 */
+	void elementRemoved(PathwayElement element, Map<StaticProperty, Object> properties) {
+		edits.add(new RemoveEdit(element, properties));
+		// changes after re-adding the element need an edit of their own
+		changed.remove(element);
+	}
+
+	@Override
+	boolean isEmpty() {
+		return edits.isEmpty();
+	}
+
+	@Override
+	void printSummary() {
+		System.out.printf("'%20s' %d changes\n", getMessage(), edits.size());
+	}
+
+	@Override
+	public void undo() {
+		for (int i = edits.size() - 1; i >= 0; --i) {
+			edits.get(i).undo(pathwayModel);
+		}
+	}
+}
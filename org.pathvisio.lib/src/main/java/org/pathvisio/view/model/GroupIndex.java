@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+  * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pathvisio.model.Group;
+import org.pathvisio.model.Groupable;
+
+/**
+ * Index from {@link Group} to the views of its direct members, so that a
+ * {@link VGroup} can find its members without looking at every element of
+ * the {@link VPathwayModel}.
+ * <p>
+ * Membership is read from {@link Groupable#getGroupRef()}.
+ * {@link #update(VElement)} must be called whenever an element is added, or
+ * when its model may have changed, which is done through
+ * {@link VPathwayModel#pathwayModified} and the shape cache reset of modified
+ * elements.
+ */
+class GroupIndex {
+
+	/** the group each element is currently indexed under */
+	private final Map<VElement, Group> groupOf = new IdentityHashMap<VElement, Group>();
+	private final Map<Group, List<VPathwayObject>> members = new IdentityHashMap<Group, List<VPathwayObject>>();
+
+	/**
+	 * Re-read the group of an element, and move it in the index if it changed.
+	 */
+	void update(VElement e) {
+		if (!(e instanceof VGroupable) || !(e instanceof VPathwayObject))
+			return;
+		Groupable pe = ((VGroupable) e).getPathwayElement();
+		if (pe == null)
+			return; // not initialized yet
+		Group group = pe.getGroupRef();
+		Group old = groupOf.get(e);
+		if (old == group)
+			return;
+		remove(e);
+		if (group != null) {
+			groupOf.put(e, group);
+			List<VPathwayObject> list = members.get(group);
+			if (list == null) {
+				list = new ArrayList<VPathwayObject>();
+				members.put(group, list);
+			}
+			list.add((VPathwayObject) e);
+		}
+	}
+
+	/**
+	 * Remove an element from the index, e.g. because it was removed from the
+	 * drawing.
+	 */
+	void remove(VElement e) {
+		Group old = groupOf.remove(e);
+		if (old != null) {
+			List<VPathwayObject> list = members.get(old);
+			list.remove(e);
+			if (list.isEmpty())
+				members.remove(old);
+		}
+	}
+
+	void clear() {
+		groupOf.clear();
+		members.clear();
+	}
+
+	/**
+	 * Get the views of the direct members of a group. Nested groups are included
+	 * as a member, but not their own members.
+	 * 
+	 * @return an unmodifiable list, which may change when the index is updated.
+	 */
+	List<VPathwayObject> getMembers(Group group) {
+		List<VPathwayObject> list = members.get(group);
+		return list == null ? Collections.<VPathwayObject>emptyList() : Collections.unmodifiableList(list);
+	}
+}
@@ -16,7 +16,6 @@
  ******************************************************************************/
 package org.pathvisio.view.model;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics2D;
@@ -83,8 +82,7 @@ public class GroupPainterRegistry {
 			g.fillRect((int) rect.getX(), (int) rect.getY(), (int) rect.getWidth(), (int) rect.getHeight());
 			// border
 			g.setColor(Color.GRAY);
-			g.setStroke(
-					new BasicStroke(sw, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 1, new float[] { 4, 2 }, 0));
+			g.setStroke(StrokeCache.getGroupBorder(sw));
 			g.drawRect((int) rect.getX(), (int) rect.getY(), (int) rect.getWidth() - sw, (int) rect.getHeight() - sw);
 
 			// Group highlight, on mouseover, linkanchors display and selection
@@ -94,8 +92,7 @@ public class GroupPainterRegistry {
 				g.fillRect((int) rect.getX(), (int) rect.getY(), (int) rect.getWidth(), (int) rect.getHeight());
 				// border
 				g.setColor(Color.GRAY);
-				g.setStroke(new BasicStroke(sw, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 1, new float[] { 4, 2 },
-						0));
+				g.setStroke(StrokeCache.getGroupBorder(sw));
 				g.drawRect((int) rect.getX(), (int) rect.getY(), (int) rect.getWidth() - sw,
 						(int) rect.getHeight() - sw);
 			}
@@ -135,7 +132,7 @@ public class GroupPainterRegistry {
 			g.fill(outline);
 			// border
 			g.setColor(Color.GRAY);
-			g.setStroke(new BasicStroke());
+			g.setStroke(VElement.DEFAULT_STROKE);
 			g.draw(outline);
 
 			// Group highlight, on mouseover, linkanchors display and selection
@@ -146,7 +143,7 @@ public class GroupPainterRegistry {
 
 				// border
 				g.setColor(Color.GRAY);
-				g.setStroke(new BasicStroke());
+				g.setStroke(VElement.DEFAULT_STROKE);
 				g.draw(outline);
 			}
 		}
@@ -168,8 +165,7 @@ public class GroupPainterRegistry {
 				g.fillRect((int) rect.getX(), (int) rect.getY(), (int) rect.getWidth(), (int) rect.getHeight());
 				// border
 				g.setColor(Color.GRAY);
-				g.setStroke(new BasicStroke(sw, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 1, new float[] { 4, 2 },
-						0));
+				g.setStroke(StrokeCache.getGroupBorder(sw));
 				g.drawRect((int) rect.getX(), (int) rect.getY(), (int) rect.getWidth() - sw,
 						(int) rect.getHeight() - sw);
 			}
@@ -223,8 +219,7 @@ public class GroupPainterRegistry {
 			g.fillRect((int) rect.getX(), (int) rect.getY(), (int) rect.getWidth(), (int) rect.getHeight());
 			// border
 			g.setColor(Color.GRAY);
-			g.setStroke(
-					new BasicStroke(sw, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 1, new float[] { 4, 2 }, 0));
+			g.setStroke(StrokeCache.getGroupBorder(sw));
 			g.drawRect((int) rect.getX(), (int) rect.getY(), (int) rect.getWidth() - sw, (int) rect.getHeight() - sw);
 		}
 	};
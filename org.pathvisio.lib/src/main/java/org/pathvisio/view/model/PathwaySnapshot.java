@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+  * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.pathvisio.model.Pathway;
+import org.pathvisio.model.PathwayElement;
+import org.pathvisio.model.PathwayModel;
+
+/**
+ * An immutable snapshot of a {@link PathwayModel}, taken with
+ * {@link UndoManager#takeSnapshot()}.
+ * <p>
+ * Snapshots share structure: each element is stored as a detached copy, and
+ * elements that didn't change between two snapshots share the same copy.
+ * Taking a snapshot only copies the elements that changed since the previous
+ * one, plus an index of one reference per {@value #CHUNK_SIZE} elements.
+ * <p>
+ * A snapshot is never modified, so once taken on the event dispatch thread it
+ * can be kept or serialized on any thread, see {@link #toPathwayModel()}.
+ */
+public final class PathwaySnapshot {
+	static final int CHUNK_SIZE = 64;
+
+	/** The state of one element: the element itself, its id and a frozen copy */
+	static final class ElementState {
+		final PathwayElement element;
+		final String elementId;
+		final PathwayElement copy;
+
+		ElementState(PathwayElement element, PathwayElement copy) {
+			this.element = element;
+			this.elementId = element.getElementId();
+			this.copy = copy;
+		}
+	}
+
+	// chunks of CHUNK_SIZE states, null for free slots. Chunks are shared with
+	// other snapshots and the tracker, and never modified once shared.
+	private final ElementState[][] chunks;
+	private final int slots;
+	private final Pathway info;
+	// slots are only meaningful to the tracker that assigned them
+	private final SnapshotTracker tracker;
+
+	PathwaySnapshot(SnapshotTracker tracker, ElementState[][] chunks, int slots, Pathway info) {
+		this.tracker = tracker;
+		this.chunks = chunks;
+		this.slots = slots;
+		this.info = info;
+	}
+
+	/** @return the tracker that took this snapshot, the only one that can restore it. */
+	SnapshotTracker getTracker() {
+		return tracker;
+	}
+
+	/** @return the number of slots, including free ones. */
+	int getSlotCount() {
+		return slots;
+	}
+
+	/** @return the state in the given slot, or null if the slot is free. */
+	ElementState get(int slot) {
+		int c = slot / CHUNK_SIZE;
+		return c < chunks.length ? chunks[c][slot % CHUNK_SIZE] : null;
+	}
+
+	/**
+	 * @return a copy of the pathway information (title, organism, ...). Must not
+	 *         be modified.
+	 */
+	public Pathway getInfo() {
+		return info;
+	}
+
+	/**
+	 * Compare this snapshot with an earlier snapshot of the same pathway. Parts
+	 * that the two snapshots share are skipped, so this costs O(changes), like
+	 * taking the snapshot. Pathway information is not compared, see
+	 * {@link #getInfo()}.
+	 * 
+	 * @param previous the earlier snapshot.
+	 * @return the copies of the elements that changed since the earlier snapshot,
+	 *         by element id. Null if elements were added or removed, if a
+	 *         changed element has no id, or if the earlier snapshot was taken of
+	 *         another pathway. The copies must not be modified.
+	 */
+	public Map<String, PathwayElement> getChangedSince(PathwaySnapshot previous) {
+		Map<String, PathwayElement> result = new LinkedHashMap<String, PathwayElement>();
+		if (previous == this)
+			return result;
+		if (previous.tracker != tracker)
+			return null;
+		int n = Math.max(slots, previous.slots);
+		for (int c = 0; c * CHUNK_SIZE < n; ++c) {
+			if (c < chunks.length && c < previous.chunks.length && chunks[c] == previous.chunks[c])
+				continue;
+			for (int i = c * CHUNK_SIZE; i < Math.min(n, (c + 1) * CHUNK_SIZE); ++i) {
+				ElementState now = i < slots ? get(i) : null;
+				ElementState before = i < previous.slots ? previous.get(i) : null;
+				if (now == before)
+					continue;
+				if (now == null || before == null || now.element != before.element || now.elementId == null
+						|| !now.elementId.equals(before.elementId))
+					return null;
+				result.put(now.elementId, now.copy);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Create a new pathway with the contents of this snapshot. The result is not
+	 * connected to the pathway the snapshot was taken from, so this may be called
+	 * on any thread, e.g. to write the snapshot to disk in the background.
+	 * 
+	 * @return a new pathway.
+	 */
+	public PathwayModel toPathwayModel() {
+		PathwayModel result = new PathwayModel();
+		result.getPathway().copyValuesFrom(info);
+		for (int i = 0; i < slots; ++i) {
+			ElementState state = get(i);
+			if (state != null) {
+				// the copy in the snapshot must stay detached
+				result.add(state.copy.copy());
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+  * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.pathvisio.event.PathwayEvent;
+import org.pathvisio.event.PathwayListener;
+import org.pathvisio.events.PathwayObjectEvent;
+import org.pathvisio.events.PathwayObjectListener;
+import org.pathvisio.model.Group;
+import org.pathvisio.model.LineElement;
+import org.pathvisio.model.Pathway;
+import org.pathvisio.model.PathwayElement;
+import org.pathvisio.model.PathwayModel;
+import org.pathvisio.model.PathwayObject;
+import org.pathvisio.view.model.PathwaySnapshot.ElementState;
+
+/**
+ * Keeps track of the changes to a pathway, to take {@link PathwaySnapshot}s
+ * that only copy what changed since the previous snapshot.
+ * <p>
+ * Each element has a fixed slot in a list of chunks. Chunks that are shared
+ * with a snapshot are copied before they are modified (copy on write), so
+ * snapshots never change. Should only be used on the event dispatch thread.
+ */
+class SnapshotTracker implements PathwayListener, PathwayObjectListener {
+	private static final int CHUNK_SIZE = PathwaySnapshot.CHUNK_SIZE;
+
+	private final PathwayModel pathwayModel;
+
+	private ElementState[][] chunks = new ElementState[0][];
+	private boolean[] shared = new boolean[0];
+	private int slotCount = 0;
+	private final List<Integer> freeSlots = new ArrayList<Integer>();
+
+	private final Map<PathwayElement, Integer> slots = new IdentityHashMap<PathwayElement, Integer>();
+	/** elements that changed since the last snapshot, and need a new copy */
+	private final Map<PathwayElement, Boolean> dirty = new IdentityHashMap<PathwayElement, Boolean>();
+	private boolean removed = false;
+	private boolean infoChanged = false;
+	private PathwaySnapshot last = null;
+
+	/** only written on the event dispatch thread, may be read on any thread */
+	private volatile int modificationCount;
+
+	/**
+	 * @param modificationCount the initial value of the modification count.
+	 */
+	SnapshotTracker(PathwayModel pathwayModel, int modificationCount) {
+		this.pathwayModel = pathwayModel;
+		this.modificationCount = modificationCount;
+		for (PathwayElement e : pathwayModel.getPathwayElements()) {
+			attach(e);
+		}
+		pathwayModel.addListener(this);
+		pathwayModel.getPathway().addListener(this);
+	}
+
+	void dispose() {
+		pathwayModel.removeListener(this);
+		pathwayModel.getPathway().removeListener(this);
+		for (PathwayElement e : slots.keySet()) {
+			e.removeListener(this);
+		}
+		slots.clear();
+		dirty.clear();
+		last = null;
+	}
+
+	private void attach(PathwayElement e) {
+		if (slots.containsKey(e))
+			return;
+		int slot = freeSlots.isEmpty() ? slotCount++ : freeSlots.remove(freeSlots.size() - 1);
+		slots.put(e, slot);
+		dirty.put(e, Boolean.TRUE);
+		e.addListener(this);
+	}
+
+	private void detach(PathwayElement e) {
+		Integer slot = slots.remove(e);
+		if (slot == null)
+			return;
+		e.removeListener(this);
+		dirty.remove(e);
+		set(slot, null);
+		freeSlots.add(slot);
+		removed = true;
+	}
+
+	/**
+	 * @return the number of changes to the pathway so far. May be called on any
+	 *         thread.
+	 */
+	int getModificationCount() {
+		return modificationCount;
+	}
+
+	private ElementState get(int slot) {
+		int c = slot / CHUNK_SIZE;
+		return c < chunks.length ? chunks[c][slot % CHUNK_SIZE] : null;
+	}
+
+	private void set(int slot, ElementState state) {
+		int c = slot / CHUNK_SIZE;
+		if (c >= chunks.length) {
+			int n = Math.max(c + 1, chunks.length * 2);
+			int old = chunks.length;
+			chunks = Arrays.copyOf(chunks, n);
+			shared = Arrays.copyOf(shared, n);
+			for (int i = old; i < n; ++i) {
+				chunks[i] = new ElementState[CHUNK_SIZE];
+			}
+		}
+		if (shared[c]) {
+			chunks[c] = chunks[c].clone();
+			shared[c] = false;
+		}
+		chunks[c][slot % CHUNK_SIZE] = state;
+	}
+
+	/**
+	 * Take a snapshot, copying only the elements that changed since the previous
+	 * one. Returns the previous snapshot if nothing changed.
+	 */
+	PathwaySnapshot takeSnapshot() {
+		if (last != null && dirty.isEmpty() && !removed && !infoChanged) {
+			return last;
+		}
+		for (PathwayElement e : dirty.keySet()) {
+			set(slots.get(e), new ElementState(e, e.copy()));
+		}
+		dirty.clear();
+		removed = false;
+		infoChanged = false;
+		Arrays.fill(shared, true);
+		last = new PathwaySnapshot(this, chunks.clone(), slotCount, (Pathway) pathwayModel.getPathway().copy());
+		return last;
+	}
+
+	/**
+	 * Bring the pathway back to the state of the snapshot, in place. Only
+	 * elements that differ from the snapshot are touched.
+	 * 
+	 * @param snapshot a snapshot taken by this tracker.
+	 */
+	void restore(PathwaySnapshot snapshot) {
+		if (snapshot.getTracker() != this)
+			throw new IllegalArgumentException("Snapshot was taken of another pathway");
+		Map<PathwayElement, ElementState> target = new IdentityHashMap<PathwayElement, ElementState>();
+		for (int i = 0; i < snapshot.getSlotCount(); ++i) {
+			ElementState state = snapshot.get(i);
+			if (state != null) {
+				target.put(state.element, state);
+			}
+		}
+		// remove elements that were added after the snapshot
+		for (PathwayElement e : new ArrayList<PathwayElement>(slots.keySet())) {
+			if (!target.containsKey(e)) {
+				pathwayModel.remove(e);
+			}
+		}
+		// add back removed elements in the order of VPathwayModel.fromModel, so
+		// that lines and groups can find the elements they refer to. Then restore
+		// changed ones, which may refer to elements that were added back.
+		List<ElementState> removedStates = new ArrayList<ElementState>();
+		List<ElementState> changedStates = new ArrayList<ElementState>();
+		for (ElementState state : target.values()) {
+			Integer slot = slots.get(state.element);
+			if (slot == null) {
+				removedStates.add(state);
+			} else if (dirty.containsKey(state.element) || get(slot) != state) {
+				changedStates.add(state);
+			}
+		}
+		Collections.sort(removedStates, new Comparator<ElementState>() {
+			public int compare(ElementState a, ElementState b) {
+				return addOrder(a.element) - addOrder(b.element);
+			}
+		});
+		for (ElementState state : removedStates) {
+			pathwayModel.add(state.element);
+			state.element.copyValuesFrom(state.copy);
+		}
+		for (ElementState state : changedStates) {
+			state.element.copyValuesFrom(state.copy);
+		}
+		pathwayModel.getPathway().copyValuesFrom(snapshot.getInfo());
+	}
+
+	/**
+	 * @return the position of an element when adding elements back: nodes,
+	 *         shapes and labels first, then lines, then groups.
+	 */
+	private static int addOrder(PathwayElement e) {
+		if (e instanceof Group)
+			return 2;
+		if (e instanceof LineElement)
+			return 1;
+		return 0;
+	}
+
+	public void gmmlObjectModified(PathwayObjectEvent e) {
+		PathwayObject o = e.getModifiedPathwayObject();
+		if (slots.containsKey(o)) {
+			dirty.put((PathwayElement) o, Boolean.TRUE);
+			modificationCount++;
+		} else if (o == pathwayModel.getPathway()) {
+			infoChanged = true;
+			modificationCount++;
+		}
+	}
+
+	public void pathwayModified(PathwayEvent e) {
+		if (!(e.getAffectedData() instanceof PathwayElement))
+			return;
+		PathwayElement elt = (PathwayElement) e.getAffectedData();
+		switch (e.getType()) {
+		case PathwayEvent.ADDED:
+			attach(elt);
+			modificationCount++;
+			break;
+		case PathwayEvent.DELETED:
+			detach(elt);
+			modificationCount++;
+			break;
+		}
+	}
+}
@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+  * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Uniform grid over the view bounds ({@link VElement#getVBounds()}) of all
+ * elements of a {@link VPathwayModel}, to find the elements near a point or
+ * rectangle without testing every element.
+ * <p>
+ * The grid covers the board of the pathway. Elements outside the board are
+ * kept in the border cells, so queries outside the board still find them.
+ * Elements report changes to their bounds with {@link #markStale(VElement)}.
+ * Their bounds are only looked up again on the next query, so a series of
+ * changes, e.g. while dragging, costs a single update.
+ * <p>
+ * Each cell keeps its elements in drawing order, using the positions of the
+ * {@link ZOrderIndex}, so queries return their results in drawing order
+ * without sorting: a query within one cell only filters it, a larger query
+ * merges the cells it covers. A change of z-order goes with a reset of the
+ * shape cache, which marks the element stale, so it is moved to its new
+ * position in the cells on the next query.
+ * <p>
+ * Not thread-safe, use from the event dispatch thread only, like the rest of
+ * the view.
+ */
+class SpatialIndex {
+
+	/** preferred size of a cell, in view pixels */
+	static final int CELL_SIZE = 128;
+	/** maximum number of cells along each side, cells are made larger if needed */
+	static final int MAX_CELLS = 256;
+
+	private static class Entry {
+		final VElement element;
+		final ZOrderIndex.Entry order;
+		// range of cells occupied, inclusive, or cx0 > cx1 if not in the grid
+		int cx0 = 0, cy0 = 0, cx1 = -1, cy1 = -1;
+		boolean stale = true;
+		int stamp = 0;
+
+		Entry(VElement element, ZOrderIndex.Entry order) {
+			this.element = element;
+			this.order = order;
+		}
+	}
+
+	/** Position in a cell, for merging cells in drawing order */
+	private static class Cursor implements Comparable<Cursor> {
+		final List<Entry> cell;
+		int pos = 0;
+
+		Cursor(List<Entry> cell) {
+			this.cell = cell;
+		}
+
+		public int compareTo(Cursor other) {
+			return cell.get(pos).order.compareTo(other.cell.get(other.pos).order);
+		}
+	}
+
+	private final VPathwayModel canvas;
+	private final ZOrderIndex zOrderIndex;
+	private final Map<VElement, Entry> entries = new IdentityHashMap<VElement, Entry>();
+	private final List<Entry> staleEntries = new ArrayList<Entry>();
+
+	private List<Entry>[] cells = null; // null if the grid must be rebuilt
+	private int cols, rows, cellSize;
+	private int gridWidth, gridHeight; // board size the grid was built for
+	private int stamp = 0; // used to report each element only once per query
+
+	SpatialIndex(VPathwayModel canvas, ZOrderIndex zOrderIndex) {
+		this.canvas = canvas;
+		this.zOrderIndex = zOrderIndex;
+	}
+
+	/**
+	 * Add an element to the index. The element must have been added to the
+	 * {@link ZOrderIndex} already. Adding an element that is already indexed has
+	 * no effect.
+	 */
+	void add(VElement e) {
+		if (entries.containsKey(e))
+			return;
+		ZOrderIndex.Entry order = zOrderIndex.getEntry(e);
+		if (order == null)
+			throw new IllegalStateException("Element not in the drawing order");
+		Entry entry = new Entry(e, order);
+		entries.put(e, entry);
+		staleEntries.add(entry);
+	}
+
+	/**
+	 * Remove an element from the index.
+	 */
+	void remove(VElement e) {
+		Entry entry = entries.remove(e);
+		if (entry != null) {
+			removeFromCells(entry);
+			entry.stale = false; // skipped if it is still in staleEntries
+		}
+	}
+
+	/**
+	 * Remove all elements from the index.
+	 */
+	void clear() {
+		entries.clear();
+		staleEntries.clear();
+		cells = null;
+	}
+
+	/**
+	 * Signal that the bounds of an element may have changed. Elements that are not
+	 * in the index are ignored.
+	 */
+	void markStale(VElement e) {
+		Entry entry = entries.get(e);
+		if (entry != null && !entry.stale) {
+			entry.stale = true;
+			staleEntries.add(entry);
+		}
+	}
+
+	/**
+	 * Rebuild the grid on the next query, e.g. because the zoom factor changed.
+	 */
+	void invalidate() {
+		cells = null;
+	}
+
+	/**
+	 * Get all elements of which the bounds intersect the given rectangle, in
+	 * drawing order (see {@link VElement#compareTo(VElement)}).
+	 */
+	List<VElement> query(Rectangle2D r) {
+		List<VElement> result = new ArrayList<VElement>();
+		query(r.getMinX(), r.getMinY(), r.getMaxX(), r.getMaxY(), result);
+		return result;
+	}
+
+	/**
+	 * Get all elements of which the bounds contain the given point, in drawing
+	 * order (see {@link VElement#compareTo(VElement)}).
+	 */
+	List<VElement> query(Point2D p) {
+		List<VElement> result = new ArrayList<VElement>();
+		query(p.getX(), p.getY(), p.getX(), p.getY(), result);
+		return result;
+	}
+
+	/**
+	 * Like {@link #query(Point2D)}, but reuses the given list for the result, so
+	 * that frequent queries (e.g. on mouse moves) don't allocate.
+	 */
+	void query(Point2D p, List<VElement> result) {
+		result.clear();
+		query(p.getX(), p.getY(), p.getX(), p.getY(), result);
+	}
+
+	private void query(double x0, double y0, double x1, double y1, List<VElement> result) {
+		update();
+		stamp++;
+		int cx0 = col(x0), cx1 = col(x1);
+		int cy0 = row(y0), cy1 = row(y1);
+		if (cx0 == cx1 && cy0 == cy1) {
+			// a single cell is in drawing order already, e.g. for a point
+			List<Entry> cell = cells[cy0 * cols + cx0];
+			if (cell != null) {
+				for (int i = 0; i < cell.size(); ++i)
+					check(cell.get(i), x0, y0, x1, y1, result);
+			}
+			return;
+		}
+		PriorityQueue<Cursor> merge = new PriorityQueue<Cursor>();
+		for (int cy = cy0; cy <= cy1; ++cy) {
+			for (int cx = cx0; cx <= cx1; ++cx) {
+				List<Entry> cell = cells[cy * cols + cx];
+				if (cell != null && !cell.isEmpty())
+					merge.add(new Cursor(cell));
+			}
+		}
+		while (!merge.isEmpty()) {
+			Cursor cursor = merge.poll();
+			check(cursor.cell.get(cursor.pos), x0, y0, x1, y1, result);
+			if (++cursor.pos < cursor.cell.size())
+				merge.add(cursor);
+		}
+	}
+
+	/**
+	 * Add the element of an entry to the result if its bounds intersect the
+	 * query, and it hasn't been reported for this query yet, as it may occupy
+	 * several cells.
+	 */
+	private void check(Entry entry, double x0, double y0, double x1, double y1, List<VElement> result) {
+		if (entry.stamp == stamp)
+			return;
+		entry.stamp = stamp;
+		Rectangle2D b = entry.element.getVBounds();
+		// inclusive, so that points on the edge and empty bounds (e.g. points) are found
+		if (b.getMinX() <= x1 && b.getMaxX() >= x0 && b.getMinY() <= y1 && b.getMaxY() >= y0) {
+			result.add(entry.element);
+		}
+	}
+
+	/**
+	 * Rebuild the grid if the board size changed, and re-insert stale elements.
+	 */
+	@SuppressWarnings("unchecked")
+	private void update() {
+		int w = Math.max(1, canvas.getVWidth());
+		int h = Math.max(1, canvas.getVHeight());
+		if (cells == null || w != gridWidth || h != gridHeight) {
+			gridWidth = w;
+			gridHeight = h;
+			cellSize = Math.max(CELL_SIZE, (Math.max(w, h) + MAX_CELLS - 1) / MAX_CELLS);
+			cols = w / cellSize + 1;
+			rows = h / cellSize + 1;
+			cells = new List[cols * rows];
+			staleEntries.clear();
+			for (Entry entry : entries.values()) {
+				entry.cx1 = -1;
+				entry.stale = false;
+				insert(entry);
+			}
+			return;
+		}
+		// take out all stale entries before inserting any, as their drawing order
+		// may have changed, and the cells must be in order to find where to insert
+		for (int i = 0; i < staleEntries.size(); ++i) {
+			Entry entry = staleEntries.get(i);
+			if (entry.stale)
+				removeFromCells(entry);
+		}
+		for (int i = 0; i < staleEntries.size(); ++i) {
+			Entry entry = staleEntries.get(i);
+			if (!entry.stale)
+				continue; // removed in the mean time
+			entry.stale = false;
+			insert(entry);
+		}
+		staleEntries.clear();
+	}
+
+	private void insert(Entry entry) {
+		Rectangle2D b = entry.element.getVBounds();
+		entry.cx0 = col(b.getMinX());
+		entry.cx1 = col(b.getMaxX());
+		entry.cy0 = row(b.getMinY());
+		entry.cy1 = row(b.getMaxY());
+		for (int cy = entry.cy0; cy <= entry.cy1; ++cy) {
+			for (int cx = entry.cx0; cx <= entry.cx1; ++cx) {
+				int i = cy * cols + cx;
+				if (cells[i] == null)
+					cells[i] = new ArrayList<Entry>(4);
+				cells[i].add(position(cells[i], entry), entry);
+			}
+		}
+	}
+
+	/** index at which to insert an entry in a cell, to keep it in drawing order */
+	private static int position(List<Entry> cell, Entry entry) {
+		int lo = 0, hi = cell.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cell.get(mid).order.compareTo(entry.order) < 0)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private void removeFromCells(Entry entry) {
+		if (cells == null)
+			return;
+		for (int cy = entry.cy0; cy <= entry.cy1; ++cy) {
+			for (int cx = entry.cx0; cx <= entry.cx1; ++cx) {
+				List<Entry> cell = cells[cy * cols + cx];
+				if (cell != null)
+					cell.remove(entry);
+			}
+		}
+		entry.cx1 = -1;
+	}
+
+	/** column of the cell containing x, clamped to the grid */
+	private int col(double x) {
+		if (!(x > 0))
+			return 0; // also for NaN
+		return (int) Math.min(cols - 1, x / cellSize);
+	}
+
+	/** row of the cell containing y, clamped to the grid */
+	private int row(double y) {
+		if (!(y > 0))
+			return 0;
+		return (int) Math.min(rows - 1, y / cellSize);
+	}
+}
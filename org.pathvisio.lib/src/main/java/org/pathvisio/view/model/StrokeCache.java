@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.awt.BasicStroke;
+import java.awt.Stroke;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.pathvisio.model.type.LineStyleType;
+
+/**
+ * Shared instances of the strokes used to draw elements, so that they don't
+ * have to be created on every paint. Strokes are immutable, so they can be
+ * shared freely. The widths in use depend on the zoom factor, so only the most
+ * recently used strokes are kept.
+ */
+final class StrokeCache {
+	private static final int MAX_SIZE = 256;
+
+	private static final int SOLID = 0;
+	private static final int DASHED = 1;
+	private static final int DOUBLE = 2;
+	private static final int GROUP = 3;
+
+	private static final Map<Long, Stroke> cache = new LinkedHashMap<Long, Stroke>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Stroke> eldest) {
+			return size() > MAX_SIZE;
+		}
+	};
+
+	private StrokeCache() {
+	}
+
+	private static Stroke get(int kind, float width) {
+		Long key = ((long) kind << 32) | (Float.floatToIntBits(width) & 0xffffffffL);
+		synchronized (cache) {
+			Stroke result = cache.get(key);
+			if (result == null) {
+				result = create(kind, width);
+				cache.put(key, result);
+			}
+			return result;
+		}
+	}
+
+	private static Stroke create(int kind, float width) {
+		switch (kind) {
+		case DASHED:
+			return new BasicStroke(width, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 10, new float[] { 4, 4 }, 0);
+		case DOUBLE:
+			return new CompositeStroke(new BasicStroke(width * 2), new BasicStroke(width));
+		case GROUP:
+			return new BasicStroke(width, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 1, new float[] { 4, 2 }, 0);
+		default:
+			return new BasicStroke(width);
+		}
+	}
+
+	/**
+	 * A plain stroke of the given width.
+	 */
+	static Stroke getSolid(float width) {
+		return get(SOLID, width);
+	}
+
+	/**
+	 * The short dashed stroke used for group borders.
+	 */
+	static Stroke getGroupBorder(float width) {
+		return get(GROUP, width);
+	}
+
+	/**
+	 * The stroke for a border or line style.
+	 *
+	 * @return the stroke, or null for line styles that don't have a stroke of
+	 *         their own.
+	 */
+	static Stroke getLineStyle(LineStyleType style, float width) {
+		if (style == LineStyleType.SOLID) {
+			return get(SOLID, width);
+		} else if (style == LineStyleType.DASHED) {
+			return get(DASHED, width);
+		} else if (style == LineStyleType.DOUBLE) {
+			return get(DOUBLE, width);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.awt.geom.Rectangle2D;
+import java.text.AttributedString;
+
+import org.pathvisio.model.type.HAlignType;
+import org.pathvisio.model.type.VAlignType;
+
+/**
+ * The laid out lines of a (multi-line) text label, so that the label can be
+ * drawn again without splitting, measuring and laying out the text on every
+ * paint.
+ * <p>
+ * Line positions are relative to the top left corner of the area the label is
+ * aligned in, so the layout stays valid when the element moves. Owners keep it
+ * until the text, font, alignment or zoom factor changes, and check
+ * {@link #matches} for the remaining inputs: the size of the area and the
+ * FontRenderContext of the graphics.
+ */
+class TextLabelLayout {
+	private final String label;
+	private final Font font;
+	private final FontRenderContext frc;
+	private final int width;
+	private final int height;
+
+	private final TextLayout[] lines;
+	private final double[] xOffsets; // relative to the left of the area
+	private final int[] yOffsets; // relative to the top of the area, baseline
+
+	/**
+	 * Lay out a label.
+	 *
+	 * @param g             the graphics to lay out for, only used to measure.
+	 * @param label         the text, lines separated by newlines.
+	 * @param font          the font, already scaled to the zoom factor.
+	 * @param strikethrough whether to strike through the text.
+	 * @param underline     whether to underline the text.
+	 * @param width         the width of the area to align the label in.
+	 * @param height        the height of the area to align the label in.
+	 * @param margin        the distance to keep from the sides of the area.
+	 * @param hAlign        horizontal alignment.
+	 * @param vAlign        vertical alignment.
+	 */
+	TextLabelLayout(Graphics2D g, String label, Font font, boolean strikethrough, boolean underline, int width,
+			int height, int margin, HAlignType hAlign, VAlignType vAlign) {
+		this.label = label;
+		this.font = font;
+		this.frc = g.getFontRenderContext();
+		this.width = width;
+		this.height = height;
+
+		// Split by newline, to enable multi-line labels
+		String[] text = label.split("\n");
+		lines = new TextLayout[text.length];
+		xOffsets = new double[text.length];
+		yOffsets = new int[text.length];
+
+		FontMetrics fm = g.getFontMetrics(font);
+		int lh = fm.getHeight();
+		int yoffset = fm.getAscent();
+		switch (vAlign) {
+		case MIDDLE:
+			yoffset += (height - (text.length * lh)) / 2;
+			break;
+		case TOP:
+			yoffset += margin;
+			break;
+		case BOTTOM:
+			yoffset += height - margin - (text.length * lh);
+		}
+
+		for (int i = 0; i < text.length; i++) {
+			if (text[i].equals(""))
+				continue; // Can't have attributed string with 0 length
+			AttributedString ats = new AttributedString(text[i]);
+			if (strikethrough) {
+				ats.addAttribute(TextAttribute.STRIKETHROUGH, TextAttribute.STRIKETHROUGH_ON);
+			}
+			if (underline) {
+				ats.addAttribute(TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON);
+			}
+			ats.addAttribute(TextAttribute.FONT, font);
+			lines[i] = new TextLayout(ats.getIterator(), frc);
+
+			Rectangle2D tb = font.getStringBounds(text[i], frc);
+			switch (hAlign) {
+			case CENTER:
+				xOffsets[i] = (int) (width / 2) - (int) (tb.getWidth() / 2);
+				break;
+			case LEFT:
+				xOffsets[i] = margin;
+				break;
+			case RIGHT:
+				xOffsets[i] = width - margin - tb.getWidth();
+				break;
+			default:
+				break;
+			}
+			yOffsets[i] = yoffset + (int) (i * tb.getHeight());
+		}
+	}
+
+	/**
+	 * Checks if this layout can be used to draw the label in an area of the given
+	 * size, on graphics with the given FontRenderContext.
+	 */
+	boolean matches(String label, Font font, FontRenderContext frc, int width, int height) {
+		return this.width == width && this.height == height && this.font == font && this.label.equals(label)
+				&& this.frc.equals(frc);
+	}
+
+	/**
+	 * Draw the label aligned in the area with its top left corner at (x, y).
+	 */
+	void draw(Graphics2D g, int x, int y) {
+		for (int i = 0; i < lines.length; i++) {
+			if (lines[i] != null)
+				lines[i].draw(g, (int) (x + xOffsets[i]), y + yOffsets[i]);
+		}
+	}
+}
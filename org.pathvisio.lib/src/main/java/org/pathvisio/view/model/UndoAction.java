@@ -19,8 +19,11 @@ package org.pathvisio.view.model;
 import org.pathvisio.model.PathwayModel;
 
 /**
- * a single item on the undo stack. Stores a complete copy of the Pathway as it
- * was before the user modified it, so it can be restored.
+ * a single item on the undo stack. Stores the state of the Pathway as it was
+ * before the user modified it, so it can be restored: either a
+ * {@link PathwaySnapshot}, which shares unchanged elements with other
+ * snapshots, or a complete copy. See {@link DeltaUndoAction} for an item that
+ * only stores the changes.
  *
  * TODO: remember selection state as well.
  */
@@ -30,8 +33,25 @@ public class UndoAction {
 		originalState = current;
 	}
 
+	/**
+	 * @param snapshot the state to restore, taken with
+	 *                 {@link UndoManager#takeSnapshot()}.
+	 */
+	public UndoAction(String aMessage, PathwaySnapshot snapshot) {
+		message = aMessage;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * For subclasses that don't store a copy of the pathway.
+	 */
+	protected UndoAction(String aMessage) {
+		message = aMessage;
+	}
+
 	private String message;
 	private PathwayModel originalState;
+	private PathwaySnapshot snapshot;
 	private UndoManager undoMgr;
 
 	/**
@@ -48,9 +68,33 @@ public class UndoAction {
 		return message;
 	}
 
+	/**
+	 * @return true if undoing this action wouldn't change anything.
+	 */
+	boolean isEmpty() {
+		return false;
+	}
+
+	/**
+	 * @return true if this action holds a complete copy of the pathway.
+	 */
+	boolean isFullCopy() {
+		return originalState != null;
+	}
+
+	/**
+	 * @return the snapshot to restore, or null if this action holds a complete
+	 *         copy or no copy at all.
+	 */
+	PathwaySnapshot getSnapshot() {
+		return snapshot;
+	}
+
 	void printSummary() {
 		System.out.printf("'%20s'\n", message);
-		System.out.print("" + originalState.summary());
+		if (originalState != null) {
+			System.out.print("" + originalState.summary());
+		}
 	}
 
 	public void undo() {
@@ -60,7 +104,11 @@ public class UndoAction {
 		 * Engine.getCurrent().getActiveVPathway().setUndoManager(um);
 		 */
 		if (undoMgr != null) {
-			undoMgr.getEngine().replacePathway(originalState);
+			if (snapshot != null) {
+				undoMgr.restore(snapshot);
+			} else {
+				undoMgr.getEngine().replacePathway(originalState);
+			}
 		}
 	}
 }
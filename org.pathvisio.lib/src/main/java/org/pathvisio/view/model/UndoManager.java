@@ -17,14 +17,25 @@
 package org.pathvisio.view.model;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import org.pathvisio.controller.Engine;
 import org.pathvisio.model.PathwayModel;
+import org.pathvisio.util.preferences.GlobalPreference;
+import org.pathvisio.util.preferences.PreferenceManager;
 import org.pathvisio.view.UndoManagerEvent;
 import org.pathvisio.view.UndoManagerListener;
 
-/** Manages a stack of undo actions */
+/**
+ * Manages a stack of undo actions.
+ * <p>
+ * By default each action stores a {@link PathwaySnapshot} of the pathway,
+ * which only copies the elements that changed since the previous snapshot, and
+ * is restored in place. In delta mode
+ * (see {@link GlobalPreference#UNDO_DELTA}) the changes are recorded instead,
+ * and undone in place, which allows a much deeper undo stack.
+ */
 public class UndoManager {
 	public static final String CANT_UNDO = "Can't undo";
 
@@ -32,10 +43,99 @@ public class UndoManager {
 
 	private PathwayModel pathwayModel;
 
+	private final boolean deltaMode = PreferenceManager.getCurrent() != null
+			&& PreferenceManager.getCurrent().getBoolean(GlobalPreference.UNDO_DELTA);
+	private UndoRecorder recorder = null;
+	private volatile SnapshotTracker tracker = null; // one for each pathway
+	private int modificationBase = 0; // count to continue from in the next tracker
+
 	public void setPathwayModel(PathwayModel pathwayModel) {
+		if (pathwayModel != this.pathwayModel) {
+			disposeTracker();
+			// snapshots can only be restored by their tracker, e.g. after undoing an
+			// action with a complete copy, which replaces the pathway
+			removeSnapshotActions();
+			if (deltaMode) {
+				// recorded changes don't apply to another pathway
+				if (recorder != null)
+					recorder.dispose();
+				undoList.clear();
+				recorder = pathwayModel == null ? null : new UndoRecorder(pathwayModel);
+			}
+			// created right away, so the modification count also works when no
+			// snapshots are taken for undo, like in delta mode
+			if (pathwayModel != null)
+				tracker = new SnapshotTracker(pathwayModel, modificationBase);
+		}
 		this.pathwayModel = pathwayModel;
 	}
 
+	/**
+	 * Take a snapshot of the current state of the pathway. Only the elements that
+	 * changed since the previous snapshot are copied, so this is cheap enough to
+	 * do on the event dispatch thread, where it must be called. The snapshot
+	 * itself may be used on any thread, e.g. to save it in the background.
+	 * 
+	 * @return the snapshot, or null if there is no pathway.
+	 */
+	public PathwaySnapshot takeSnapshot() {
+		SnapshotTracker t = tracker;
+		return t == null ? null : t.takeSnapshot();
+	}
+
+	/**
+	 * The number of changes made to the pathway since it was set.
+	 * Can be compared with the count at the time of an earlier
+	 * {@link #takeSnapshot()} to find out if anything changed since, without
+	 * taking a new snapshot. Unlike the snapshot, this may be called on any
+	 * thread.
+	 * 
+	 * @return the modification count.
+	 */
+	public int getModificationCount() {
+		SnapshotTracker t = tracker;
+		return t == null ? modificationBase : t.getModificationCount();
+	}
+
+	private void disposeTracker() {
+		if (tracker != null) {
+			// a replaced pathway counts as a change
+			modificationBase = tracker.getModificationCount() + 1;
+			tracker.dispose();
+		}
+		tracker = null;
+	}
+
+	/**
+	 * Remove the actions with a snapshot that wasn't taken by the current
+	 * tracker, as they can't be restored anymore.
+	 */
+	private void removeSnapshotActions() {
+		for (Iterator<UndoAction> i = undoList.iterator(); i.hasNext();) {
+			PathwaySnapshot snapshot = i.next().getSnapshot();
+			if (snapshot != null && (tracker == null || snapshot.getTracker() != tracker))
+				i.remove();
+		}
+	}
+
+	/**
+	 * Bring the pathway back to the state of a snapshot, in place. Does nothing
+	 * if the snapshot was taken of another pathway, see
+	 * {@link #removeSnapshotActions()}.
+	 */
+	void restore(PathwaySnapshot snapshot) {
+		if (tracker != null && snapshot.getTracker() == tracker)
+			tracker.restore(snapshot);
+	}
+
+	/**
+	 * @return true if changes are recorded as deltas, instead of copies of the
+	 *         pathway.
+	 */
+	public boolean isDeltaMode() {
+		return deltaMode;
+	}
+
 	private Engine engine;
 
 	/**
@@ -68,7 +168,10 @@ public class UndoManager {
 		return engine;
 	}
 
+	/** maximum number of actions, if the newest holds a complete copy of the pathway */
 	static final int MAX_UNDO_SIZE = 25;
+	/** maximum number of snapshot or delta actions */
+	static final int MAX_SHARED_UNDO_SIZE = 500;
 
 	/**
 	 * Insert a new action into the Undo Queue based on an UndoAction object that
@@ -84,17 +187,23 @@ public class UndoManager {
 			return; // Don' record event if inactive
 
 		act.setUndoManager(this);
+		removeEmptyActions();
 		undoList.add(act);
-		if (undoList.size() > MAX_UNDO_SIZE) {
+		while (undoList.size() > (act.isFullCopy() ? MAX_UNDO_SIZE : MAX_SHARED_UNDO_SIZE)) {
 			undoList.remove(0);
 		}
+		updateRecorder();
 		fireUndoManagerEvent(new UndoManagerEvent(getTopMessage()));
 	}
 
 	/**
-	 * Insert a new action into the Undo Queue. This method will make a copy of the
-	 * current state of the pathway, so call this method before the action actually
-	 * takes place.
+	 * Insert a new action into the Undo Queue. This method will take a snapshot of
+	 * the current state of the pathway, or in delta mode start recording changes,
+	 * so call this method before the action actually takes place.
+	 * <p>
+	 * In delta mode, changes made after this call and before the next action are
+	 * all recorded in this action, so undoing it restores the state as it was
+	 * before the call, like in the default mode.
 	 * 
 	 * @param desc: description of the change, for display in the edit menu.
 	 */
@@ -103,31 +212,55 @@ public class UndoManager {
 			return; // Don' record event if inactive
 
 		if (pathwayModel != null) {
-			UndoAction x = new UndoAction(desc, (PathwayModel) pathwayModel.clone());
+			UndoAction x = deltaMode ? new DeltaUndoAction(desc, pathwayModel)
+					: new UndoAction(desc, takeSnapshot());
 			x.setUndoManager(this);
 			newAction(x);
 		}
 	}
 
 	public String getTopMessage() {
-		String result;
-		if (undoList.size() == 0) {
-			result = CANT_UNDO;
-		} else {
-			result = undoList.get(undoList.size() - 1).getMessage();
+		for (int i = undoList.size() - 1; i >= 0; --i) {
+			if (!undoList.get(i).isEmpty())
+				return undoList.get(i).getMessage();
 		}
-		return result;
+		return CANT_UNDO;
 	}
 
 	void undo() {
+		removeEmptyActions();
 		if (undoList.size() > 0 && isActive()) {
 			UndoAction a = undoList.get(undoList.size() - 1);
+			if (recorder != null)
+				recorder.setTarget(null); // don't record the undo itself
 			a.undo();
 			undoList.remove(a);
+			removeEmptyActions();
+			updateRecorder();
 			fireUndoManagerEvent(new UndoManagerEvent(getTopMessage()));
 		}
 	}
 
+	/**
+	 * Remove actions at the top of the stack that haven't recorded any changes,
+	 * e.g. an action started for a drag that didn't move anything.
+	 */
+	private void removeEmptyActions() {
+		while (undoList.size() > 0 && undoList.get(undoList.size() - 1).isEmpty()) {
+			undoList.remove(undoList.size() - 1);
+		}
+	}
+
+	/**
+	 * Record further changes in the action at the top of the stack.
+	 */
+	private void updateRecorder() {
+		if (recorder == null)
+			return;
+		UndoAction top = undoList.isEmpty() ? null : undoList.get(undoList.size() - 1);
+		recorder.setTarget(top instanceof DeltaUndoAction ? (DeltaUndoAction) top : null);
+	}
+
 	private List<UndoManagerListener> listeners = new ArrayList<UndoManagerListener>();
 
 	public void addListener(UndoManagerListener v) {
@@ -153,6 +286,10 @@ public class UndoManager {
 
 	public void dispose() {
 		assert (!disposed);
+		if (recorder != null)
+			recorder.dispose();
+		recorder = null;
+		disposeTracker();
 		undoList.clear();
 		listeners.clear();
 		disposed = true;
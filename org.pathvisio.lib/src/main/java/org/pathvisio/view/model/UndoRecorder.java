@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+  * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.pathvisio.event.PathwayEvent;
+import org.pathvisio.event.PathwayListener;
+import org.pathvisio.events.PathwayObjectEvent;
+import org.pathvisio.events.PathwayObjectListener;
+import org.pathvisio.model.PathwayElement;
+import org.pathvisio.model.PathwayModel;
+import org.pathvisio.model.PathwayObject;
+import org.pathvisio.props.StaticProperty;
+
+/**
+ * Records the changes to a pathway into a {@link DeltaUndoAction}, for the
+ * delta undo mode of {@link UndoManager}.
+ * <p>
+ * Modification events don't carry the previous value of a property, so the
+ * recorder keeps the last known properties of each element. On each event the
+ * element is compared with them, and the differences are recorded. This costs
+ * one copy of the properties of the pathway, regardless of the number of undo
+ * steps.
+ */
+class UndoRecorder implements PathwayListener, PathwayObjectListener {
+	private final PathwayModel pathwayModel;
+
+	/** last known properties of each element */
+	private final Map<PathwayElement, Map<StaticProperty, Object>> known = new IdentityHashMap<PathwayElement, Map<StaticProperty, Object>>();
+
+	/** the action to record changes in, or null to only keep track */
+	private DeltaUndoAction target = null;
+
+	UndoRecorder(PathwayModel pathwayModel) {
+		this.pathwayModel = pathwayModel;
+		for (PathwayElement e : pathwayModel.getPathwayElements()) {
+			attach(e);
+		}
+		pathwayModel.addListener(this);
+	}
+
+	/**
+	 * Set the action to record changes in. Use null to stop recording, e.g. while
+	 * an action is being undone.
+	 */
+	void setTarget(DeltaUndoAction target) {
+		this.target = target;
+	}
+
+	void dispose() {
+		pathwayModel.removeListener(this);
+		for (PathwayElement e : known.keySet()) {
+			e.removeListener(this);
+		}
+		known.clear();
+		target = null;
+	}
+
+	private void attach(PathwayElement e) {
+		if (known.containsKey(e))
+			return;
+		e.addListener(this);
+		known.put(e, readProperties(e));
+	}
+
+	private static Map<StaticProperty, Object> readProperties(PathwayElement e) {
+		Map<StaticProperty, Object> result = new HashMap<StaticProperty, Object>();
+		for (StaticProperty p : e.getStaticPropertyKeys()) {
+			result.put(p, e.getStaticProperty(p));
+		}
+		return result;
+	}
+
+	public void gmmlObjectModified(PathwayObjectEvent e) {
+		PathwayObject o = e.getModifiedPathwayObject();
+		Map<StaticProperty, Object> properties = known.get(o);
+		if (properties == null)
+			return;
+		PathwayElement elt = (PathwayElement) o;
+		for (StaticProperty p : elt.getStaticPropertyKeys()) {
+			Object value = elt.getStaticProperty(p);
+			Object old = properties.get(p);
+			if (!Objects.equals(old, value)) {
+				if (target != null) {
+					target.propertyChanged(elt, p, old);
+				}
+				properties.put(p, value);
+			}
+		}
+	}
+
+	public void pathwayModified(PathwayEvent e) {
+		if (!(e.getAffectedData() instanceof PathwayElement))
+			return;
+		PathwayElement elt = (PathwayElement) e.getAffectedData();
+		switch (e.getType()) {
+		case PathwayEvent.ADDED:
+			attach(elt);
+			if (target != null) {
+				target.elementAdded(elt);
+			}
+			break;
+		case PathwayEvent.DELETED:
+			Map<StaticProperty, Object> properties = known.remove(elt);
+			elt.removeListener(this);
+			if (properties != null && target != null) {
+				target.elementRemoved(elt, properties);
+			}
+			break;
+		}
+	}
+}
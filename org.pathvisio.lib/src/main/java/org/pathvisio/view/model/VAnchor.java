@@ -16,7 +16,6 @@
  ******************************************************************************/
 package org.pathvisio.view.model;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
@@ -152,7 +151,7 @@ public class VAnchor extends VElement implements VLinkableTo, LinkProvider, Adju
 
 		VAnchorShapeType arrowShape = getAnchorShape();
 		if (arrowShape != null) {
-			g.setStroke(new BasicStroke());
+			g.setStroke(DEFAULT_STROKE);
 			g.setPaint(c);
 			g.fill(arrowShape.getShape());
 			g.draw(arrowShape.getShape());
@@ -161,7 +160,7 @@ public class VAnchor extends VElement implements VLinkableTo, LinkProvider, Adju
 		if (isHighlighted()) {
 			Color hc = getHighlightColor();
 			g.setColor(new Color(hc.getRed(), hc.getGreen(), hc.getBlue(), 128));
-			g.setStroke(new BasicStroke(HIGHLIGHT_STROKE_WIDTH));
+			g.setStroke(HIGHLIGHT_STROKE);
 			g.draw(getShape());
 		}
 	}
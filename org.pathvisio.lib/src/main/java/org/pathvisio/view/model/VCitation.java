@@ -223,6 +223,9 @@ public class VCitation extends VElement implements VElementMouseListener {
 			resetShapeCache();
 		this.g2d = g;
 
+		if (canvas.isLowDetail())
+			return; // collapsed when zoomed out
+
 		String xrefStr = getXRefText();
 		if ("".equals(xrefStr))
 			return;
@@ -17,10 +17,12 @@
 package org.pathvisio.view.model;
 
 import java.awt.Color;
+import java.awt.Graphics2D;
 import java.util.List;
 
 import org.pathvisio.model.DataNode;
 import org.pathvisio.model.DataNode.State;
+import org.pathvisio.util.ColorUtils;
 
 /**
  * This class implements a {@link DataNode} and provides methods to resize and
@@ -51,6 +53,22 @@ public class VDataNode extends VShapedElement {
 		return (DataNode) super.getPathwayElement();
 	}
 
+	/**
+	 * When zoomed out far (see {@link VPathwayModel#isLowDetail()}), data nodes
+	 * are drawn as filled rectangles, without border style or text.
+	 */
+	@Override
+	protected void doDraw(Graphics2D g2d) {
+		if (!canvas.isLowDetail()) {
+			super.doDraw(g2d);
+			return;
+		}
+		Color fill = getPathwayElement().getFillColor();
+		g2d.setColor(fill == null || ColorUtils.isTransparent(fill) ? getBorderColor() : fill);
+		g2d.fill(getVShape(true).getBounds2D());
+		drawHighlight(g2d);
+	}
+
 	private void addState(State st) {
 		VState vst = new VState(canvas, st, this);
 		vStates.add(vst);
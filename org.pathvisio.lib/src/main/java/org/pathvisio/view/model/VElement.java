@@ -48,6 +48,7 @@ public abstract class VElement implements Comparable<VElement> {
 	protected static final BasicStroke DEFAULT_STROKE = new BasicStroke();
 	public static Color selectColor = PreferenceManager.getCurrent().getColor(GlobalPreference.COLOR_SELECTED);
 	public static final float HIGHLIGHT_STROKE_WIDTH = 5.0f;
+	protected static final BasicStroke HIGHLIGHT_STROKE = new BasicStroke(HIGHLIGHT_STROKE_WIDTH);
 	private Rectangle2D oldrect = null;
 	private boolean isSelected;
 
@@ -61,6 +62,7 @@ public abstract class VElement implements Comparable<VElement> {
 
 	private Shape vOutlineCache;
 	private Rectangle2D vBoundsCache;
+	private int modificationCount = 0;
 
 	/**
 	 * Resets cache for VOutline and VBounds so that they will be recalculated on
@@ -69,6 +71,20 @@ public abstract class VElement implements Comparable<VElement> {
 	protected void resetShapeCache() {
 		vOutlineCache = null;
 		vBoundsCache = null;
+		modificationCount++;
+		canvas.shapeChanged(this);
+	}
+
+	/**
+	 * Returns a counter that is incremented each time this element is marked dirty
+	 * or its shape cache is reset, e.g. after a modification or a zoom change. Can
+	 * be used to check whether something derived from this element is still up to
+	 * date.
+	 * 
+	 * @return the modification count.
+	 */
+	public int getModificationCount() {
+		return modificationCount;
 	}
 
 	/**
@@ -327,26 +343,14 @@ public abstract class VElement implements Comparable<VElement> {
 	 * the type of object by default, but can be overridden by the user.
 	 *
 	 * The comparison is consistent with "equals", i.e. it doesn't return 0 if the
-	 * objects are different, even if their drawing order is the same.
+	 * objects are different, even if their drawing order is the same. Objects with
+	 * the same z-order are sorted in the order in which they were added to the
+	 * drawing.
 	 *
 	 * @param d VPathwayElement that this is compared to.
 	 */
 	public int compareTo(VElement d) {
-		// same object? easy...
-		if (d == this)
-			return 0;
-
-		int a, b;
-
-		a = getZOrder();
-		b = d.getZOrder();
-
-		// if sorting order is equal, use hash code
-		if (b == a) {
-			return hashCode() - d.hashCode();
-		} else
-			// not simply "a - b" because of the risk of integer overflows
-			return a < b ? -1 : 1;
+		return canvas.compareZOrder(this, d);
 	}
 
 	/**
@@ -116,44 +116,46 @@ public class VGroup extends VShapedElement implements LinkProvider, VElementMous
 	 * selection within a group. The ultimate effect is then selection of group by
 	 * clicking the area and not the members of the group.
 	 *
+	 * Only the members of this group (including members of nested groups) are
+	 * checked, not all elements of the pathway.
+	 *
 	 * @param point - the point to check
 	 * @return True if the object contains the point, false otherwise
 	 */
 	protected boolean vContains(Point2D point) {
+		// return false if point is outside the bounds of grouped objects
+		if (!this.getVShape(true).contains(point)) {
+			return false;
+		}
 		// return false if point falls on any individual element
-		for (VElement vpe : canvas.getDrawingObjects()) {
-			if (vpe instanceof VPathwayObject && !(vpe instanceof VGroup) && vpe.vContains(point)) {
-				return false;
+		return !memberContains(point);
+	}
 
+	/**
+	 * Returns true if any member of this group, or of a nested group, contains the
+	 * point.
+	 */
+	private boolean memberContains(Point2D point) {
+		for (VPathwayObject member : canvas.getGroupMembers(getPathwayElement())) {
+			if (member instanceof VGroup) {
+				if (((VGroup) member).memberContains(point)) {
+					return true;
+				}
+			} else if (member.vContains(point)) {
+				return true;
 			}
 		}
-		// return true if point within bounds of grouped objects
-		if (this.getVShape(true).contains(point)) {
-			return true;
-		} else {
-			return false;
-		}
+		return false;
 	}
 
 	/**
-	 * Returns graphics for members of a group, including nested members
+	 * Returns graphics for the direct members of a group. Nested groups are
+	 * included as a member.
 	 *
 	 * @return ArrayList<VPathwayObject>
 	 */
 	public List<VPathwayObject> getGroupGraphics() {
-		List<VPathwayObject> gg = new ArrayList<VPathwayObject>();
-		// return true if group object is referenced by selection
-		for (VElement vpe : canvas.getDrawingObjects()) {
-			if (vpe instanceof VPathwayObject && vpe != this) {
-				VPathwayObject vpeg = (VPathwayObject) vpe;
-				Group pe = (Group) vpeg.getPathwayElement();
-				Group ref = pe.getGroupRef();
-				if (ref != null && ref.equals(getPathwayElement().getElementId())) {
-					gg.add(vpeg);
-				}
-			}
-		}
-		return gg;
+		return new ArrayList<VPathwayObject>(canvas.getGroupMembers(getPathwayElement()));
 	}
 
 	@Override
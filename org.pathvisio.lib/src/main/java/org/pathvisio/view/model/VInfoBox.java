@@ -23,7 +23,9 @@ import java.awt.font.FontRenderContext;
 import java.awt.font.TextLayout;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
 
+import org.pathvisio.events.PathwayObjectEvent;
 import org.pathvisio.model.Pathway;
 
 /**
@@ -98,10 +100,50 @@ public class VInfoBox extends VPathwayElement {
 ////		markDirty();
 //	}
 
-	public void doDraw(Graphics2D g) {
+	/**
+	 * Laid out captions and values of the rows, kept until the pathway is modified
+	 * or the zoom factor changes.
+	 */
+	private TextLayout[][] layoutCache = null;
+	private String[][] layoutText = null;
+	private FontRenderContext layoutFrc = null;
+
+	@Override
+	void zoomChanged() {
+		layoutCache = null;
+		super.zoomChanged();
+	}
+
+	@Override
+	public void gmmlObjectModified(PathwayObjectEvent e) {
+		layoutCache = null;
+		super.gmmlObjectModified(e);
+	}
+
+	/**
+	 * Returns a layout for the caption and the value of each row, or null for
+	 * rows with an empty value.
+	 */
+	private TextLayout[][] getLayouts(String[][] text, FontRenderContext frc) {
+		if (layoutCache != null && frc.equals(layoutFrc) && Arrays.deepEquals(text, layoutText)) {
+			return layoutCache;
+		}
 		Font f = new Font(fontName, Font.PLAIN, getVFontSize());
 		Font fb = new Font(f.getFontName(), Font.BOLD, f.getSize());
+		TextLayout[][] result = new TextLayout[text.length][];
+		for (int i = 0; i < text.length; i++) {
+			String[] s = text[i];
+			if (s[1] == null || s[1].equals(""))
+				continue; // Skip empty labels
+			result[i] = new TextLayout[] { new TextLayout(s[0], fb, frc), new TextLayout(s[1], f, frc) };
+		}
+		layoutCache = result;
+		layoutText = text;
+		layoutFrc = frc;
+		return result;
+	}
 
+	public void doDraw(Graphics2D g) {
 		if (isSelected()) {
 			g.setColor(selectColor);
 		}
@@ -124,19 +166,15 @@ public class VInfoBox extends VPathwayElement {
 		int newSizeX = sizeX;
 		int newSizeY = sizeY;
 
-		FontRenderContext frc = g.getFontRenderContext();
-		for (String[] s : text) {
-			if (s[1] == null || s[1].equals(""))
+		for (TextLayout[] row : getLayouts(text, g.getFontRenderContext())) {
+			if (row == null)
 				continue; // Skip empty labels
-			TextLayout tl0 = new TextLayout(s[0], fb, frc);
-			TextLayout tl1 = new TextLayout(s[1], f, frc);
+			TextLayout tl0 = row[0];
+			TextLayout tl1 = row[1];
 			Rectangle2D b0 = tl0.getBounds();
 			Rectangle2D b1 = tl1.getBounds();
 			shift += (int) Math.max(b0.getHeight(), b1.getHeight()) + V_SPACING;
-			g.setFont(fb);
 			tl0.draw(g, vLeft, vTop + shift);
-			g.setFont(f);
-
 			tl1.draw(g, vLeft + (int) b0.getWidth() + H_SPACING, vTop + shift);
 
 			// add 10 for safety
@@ -16,10 +16,10 @@
  ******************************************************************************/
 package org.pathvisio.view.model;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Shape;
+import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
@@ -245,13 +245,21 @@ public class VLineElement extends VPathwayElement implements Adjustable, VGroupa
 		VArrowHeadType hs = heads[0];
 		VArrowHeadType he = heads[1];
 
-		g.draw(l);
-		drawHead(g, he, c);
-		drawHead(g, hs, c);
+		if (canvas.isLowDetail()) {
+			// just the line, heads are too small to see
+			g.setStroke(DEFAULT_STROKE);
+			g.draw(l);
+			he = null;
+			hs = null;
+		} else {
+			g.draw(l);
+			drawHead(g, he, c);
+			drawHead(g, hs, c);
+		}
 		if (isHighlighted()) {
 			Color hc = getHighlightColor();
 			g.setColor(new Color(hc.getRed(), hc.getGreen(), hc.getBlue(), 128));
-			g.setStroke(new BasicStroke(HIGHLIGHT_STROKE_WIDTH));
+			g.setStroke(HIGHLIGHT_STROKE);
 			g.draw(l);
 			if (he != null)
 				g.draw(he.getShape());
@@ -355,7 +363,7 @@ public class VLineElement extends VPathwayElement implements Adjustable, VGroupa
 		float thickness = (float) vFromM(getPathwayElement().getLineWidth());
 		if (getPathwayElement().getLineStyle() == LineStyleType.DOUBLE)
 			thickness *= 4;
-		BasicStroke bs = new BasicStroke(thickness);
+		Stroke bs = StrokeCache.getSolid(thickness);
 
 		Area total = new Area(bs.createStrokedShape(l));
 		if (hs != null)
@@ -424,7 +432,7 @@ public class VLineElement extends VPathwayElement implements Adjustable, VGroupa
 	protected void drawHead(Graphics2D g, VArrowHeadType head, Color c) {
 		if (head != null) {
 			// reset stroked line to solid, but use given thickness
-			g.setStroke(new BasicStroke((float) vFromM(getPathwayElement().getLineWidth())));
+			g.setStroke(StrokeCache.getSolid((float) vFromM(getPathwayElement().getLineWidth())));
 			switch (head.getFillType()) {
 			case OPEN:
 				g.setPaint(Color.WHITE);
@@ -802,13 +810,9 @@ public class VLineElement extends VPathwayElement implements Adjustable, VGroupa
 	protected void setLineStyle(Graphics2D g) {
 		LineStyleType ls = getPathwayElement().getLineStyle();
 		float lt = (float) vFromM(getPathwayElement().getLineWidth());
-		if (ls == LineStyleType.SOLID) {
-			g.setStroke(new BasicStroke(lt));
-		} else if (ls == LineStyleType.DASHED) {
-			g.setStroke(
-					new BasicStroke(lt, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 10, new float[] { 4, 4 }, 0));
-		} else if (ls == LineStyleType.DOUBLE) {
-			g.setStroke(new CompositeStroke(new BasicStroke(lt * 2), new BasicStroke(lt)));
+		Stroke stroke = StrokeCache.getLineStyle(ls, lt);
+		if (stroke != null) {
+			g.setStroke(stroke);
 		}
 	}
 
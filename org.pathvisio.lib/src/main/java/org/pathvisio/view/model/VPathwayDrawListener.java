@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+  * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.awt.Graphics2D;
+import java.util.List;
+
+/**
+ * Implement this if you wish to draw on top of the elements of a VPathway, e.g.
+ * to show data on data nodes.
+ * <p>
+ * Instead of an event for each element, listeners get a single call per paint
+ * with all elements that were drawn, after they have been drawn. Whatever a
+ * listener draws therefore ends up on top of all elements in the painted area.
+ * 
+ * @see VPathwayModel#addVPathwayDrawListener(VPathwayDrawListener)
+ */
+public interface VPathwayDrawListener {
+
+	/**
+	 * Called once per paint, after the elements have been drawn, on the thread
+	 * that draws. For the view that is the event dispatch thread. A large area may
+	 * be painted in steps, see {@link VPathwayModel#drawSnapshot}, with a call for
+	 * each step.
+	 * 
+	 * @param vPathway the pathway that was drawn.
+	 * @param elements the elements that were drawn, in drawing order. Only valid
+	 *                 during the call, and must not be modified.
+	 * @param g2d      the graphics the elements were drawn on, not clipped to the
+	 *                 painted area. Shared by all elements, so listeners that
+	 *                 change its state (e.g. the clip) should work on a copy.
+	 */
+	public void elementsDrawn(VPathwayModel vPathway, List<VElement> elements, Graphics2D g2d);
+}
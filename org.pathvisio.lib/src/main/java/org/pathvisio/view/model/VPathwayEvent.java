@@ -32,7 +32,10 @@ public class VPathwayEvent extends EventObject {
 
 	/** Possible event types */
 	public static enum VPathwayEventType {
-		ELEMENT_ADDED, EDIT_MODE_ON, EDIT_MODE_OFF, MODEL_LOADED, ELEMENT_DOUBLE_CLICKED, ELEMENT_DRAWN,
+		ELEMENT_ADDED, EDIT_MODE_ON, EDIT_MODE_OFF, MODEL_LOADED, ELEMENT_DOUBLE_CLICKED,
+		/** @deprecated no longer sent, use a {@link VPathwayDrawListener} instead */
+		@Deprecated
+		ELEMENT_DRAWN,
 		ELEMENT_CLICKED_UP, ELEMENT_CLICKED_DOWN, ELEMENT_HOVER, HREF_ACTIVATED;
 	}
 
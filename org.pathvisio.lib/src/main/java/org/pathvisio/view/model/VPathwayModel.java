@@ -17,7 +17,9 @@
 package org.pathvisio.view.model;
 
 import java.awt.Dimension;
+import java.awt.DisplayMode;
 import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
@@ -33,6 +35,7 @@ import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -256,6 +259,23 @@ public class VPathwayModel implements PathwayListener {
 	 */
 	private List<VElement> drawingObjects;
 
+	/**
+	 * Index from groups to the views of their members, see
+	 * {@link #getGroupMembers(Group)}.
+	 */
+	private final GroupIndex groupIndex = new GroupIndex();
+
+	/**
+	 * Drawing order of drawingObjects, see {@link #compareZOrder(VElement, VElement)}.
+	 */
+	private final ZOrderIndex zOrderIndex = new ZOrderIndex();
+
+	/**
+	 * Spatial index over the bounds of drawingObjects, used for hit-testing and
+	 * for finding the elements to draw.
+	 */
+	private final SpatialIndex spatialIndex = new SpatialIndex(this, zOrderIndex);
+
 	// ================================================================================
 	// Constructor
 	// ================================================================================
@@ -277,6 +297,7 @@ public class VPathwayModel implements PathwayListener {
 		this.parent = parent;
 		drawingObjects = new ArrayList<VElement>();
 		selection = new SelectionBox(this);
+		hoverThrottle.setRepeats(false);
 
 		// Code that uses VPathway have to initialize
 		// the keyboard actions explicitly, if necessary.
@@ -379,48 +400,273 @@ public class VPathwayModel implements PathwayListener {
 	 *            the clipping area.
 	 */
 	public void draw(Graphics2D g2d) {
-		addScheduled();
-		cleanUp();
+		draw(g2d, true, true);
+	}
+
+	/**
+	 * Paints the static part of the drawing, i.e. all elements except the ones
+	 * for which {@link #isOverlayElement} returns true. Like {@link #draw}, this
+	 * erases the background. Used by renderers that cache the drawing, e.g. in
+	 * tiles, and paint the overlay on top of that with {@link #drawOverlay}.
+	 * 
+	 * @param g2d the graphics device to draw on. The method will not draw outside
+	 *            the clipping area.
+	 */
+	public void drawBase(Graphics2D g2d) {
+		draw(g2d, true, false);
+	}
+
+	/**
+	 * Paints the live part of the drawing, i.e. the elements for which
+	 * {@link #isOverlayElement} returns true, without erasing the background.
+	 * 
+	 * @param g2d the graphics device to draw on. The method will not draw outside
+	 *            the clipping area.
+	 */
+	public void drawOverlay(Graphics2D g2d) {
+		draw(g2d, false, true);
+	}
 
+	/**
+	 * Paints all components in the drawing like {@link #draw}, but in batches of
+	 * elements, calling afterBatch after each batch. Used by exporters that write
+	 * out what was drawn so far, instead of keeping the whole drawing in memory.
+	 *
+	 * @param g2d        the graphics device to draw on. The method will not draw
+	 *                   outside the clipping area.
+	 * @param batchSize  the maximum number of elements per batch.
+	 * @param afterBatch called after each batch, on the calling thread.
+	 */
+	public void drawInBatches(Graphics2D g2d, int batchSize, Runnable afterBatch) {
 		try {
-			// save original, non-clipped, to pass on to VPathwayEvent
-			Graphics2D g2dFull = (Graphics2D) g2d.create();
+			Rectangle area = getDrawArea(g2d);
+			List<VElement> elements = selectElements(area, true, true);
+			for (int i = 0; i < elements.size(); i += batchSize) {
+				List<VElement> batch = elements.subList(i, Math.min(i + batchSize, elements.size()));
+				paintElements(g2d, area, batch, i == 0, Long.MAX_VALUE);
+				afterBatch.run();
+			}
+		} catch (ConcurrentModificationException ex) {
+			Logger.log.error("Concurrent modification", ex);
+		}
+	}
+
+	/**
+	 * Checks if the element belongs to the overlay layer, that changes often and
+	 * is therefore not worth caching: selection handles, the selection box and
+	 * highlighted elements.
+	 * 
+	 * @param o the element to check.
+	 * @return true if the element is drawn by {@link #drawOverlay}.
+	 */
+	public boolean isOverlayElement(VElement o) {
+		return o instanceof Handle || o instanceof SelectionBox || o.isHighlighted();
+	}
 
-			// we only redraw the part within the clipping area.
-			Rectangle area = g2d.getClipBounds();
-			if (area == null) {
-				Dimension size = parent == null ? new Dimension(getVWidth(), getVHeight())
-						: parent.getViewRect().getSize(); // Draw the visible area
-				area = new Rectangle(0, 0, size.width, size.height);
+	// ================================================================================
+	// Level of Detail Methods
+	// ================================================================================
+	private boolean fullDetail = false;
+
+	// read from the preferences at the start of each draw
+	private boolean lodEnabled = false;
+	private double lodZoomFactor = 0;
+	private double lodMinTextSize = 0;
+
+	/**
+	 * Force drawing in full detail, regardless of the zoom factor and the level of
+	 * detail preferences. Use this when drawing for printing or export. Pathways
+	 * without a parent (i.e. not shown on screen) are always drawn in full detail.
+	 * 
+	 * @param value true to force full detail.
+	 */
+	public void setFullDetail(boolean value) {
+		fullDetail = value;
+	}
+
+	/**
+	 * @return true if this pathway is forced to draw in full detail.
+	 */
+	public boolean isFullDetail() {
+		return fullDetail;
+	}
+
+	private void updateLevelOfDetail() {
+		PreferenceManager prefs = PreferenceManager.getCurrent();
+		lodEnabled = parent != null && !fullDetail && prefs.getBoolean(GlobalPreference.LOD_ENABLED);
+		lodZoomFactor = prefs.getInt(GlobalPreference.LOD_ZOOM_PERCENT) / 100.0;
+		lodMinTextSize = prefs.getInt(GlobalPreference.LOD_MIN_TEXT_SIZE);
+	}
+
+	/**
+	 * Checks if elements should be drawn in a simplified way, because the pathway
+	 * is zoomed out so far that the details can't be seen anyway: data nodes as
+	 * filled rectangles, lines without arrow heads and no citations.
+	 * 
+	 * @return true if details should be left out.
+	 */
+	public boolean isLowDetail() {
+		return lodEnabled && getZoomFactor() < lodZoomFactor;
+	}
+
+	/**
+	 * Checks if text of the given size is large enough to draw.
+	 * 
+	 * @param vFontSize the font size on screen, i.e. in view coordinates.
+	 * @return false if the text would be too small to read.
+	 */
+	public boolean isTextVisible(double vFontSize) {
+		return !lodEnabled || vFontSize >= lodMinTextSize;
+	}
+
+	/**
+	 * Paints the elements in the clipping area.
+	 * 
+	 * @param g2d     the graphics device to draw on.
+	 * @param base    whether to erase the background and paint the non-overlay
+	 *                elements.
+	 * @param overlay whether to paint the overlay elements.
+	 */
+	private void draw(Graphics2D g2d, boolean base, boolean overlay) {
+		try {
+			Rectangle area = getDrawArea(g2d);
+			paintElements(g2d, area, selectElements(area, base, overlay), base, Long.MAX_VALUE);
+		} catch (ConcurrentModificationException ex) {
+			// guard against messing up repaint event completely
+			Logger.log.error("Concurrent modification", ex);
+		}
+	}
+
+	/**
+	 * @return the area to draw: the clipping area of g2d, or if there is none, the
+	 *         visible area.
+	 */
+	private Rectangle getDrawArea(Graphics2D g2d) {
+		Rectangle area = g2d.getClipBounds();
+		if (area == null) {
+			Dimension size = parent == null ? new Dimension(getVWidth(), getVHeight())
+					: parent.getViewRect().getSize(); // Draw the visible area
+			area = new Rectangle(0, 0, size.width, size.height);
+		}
+		return area;
+	}
+
+	/**
+	 * Brings the drawing objects up to date and lists the ones to draw in the
+	 * given area, in drawing order.
+	 */
+	private List<VElement> selectElements(Rectangle area, boolean base, boolean overlay) {
+		addScheduled();
+		cleanUp();
+		updateLevelOfDetail();
+
+		List<VElement> result = new ArrayList<VElement>();
+		for (VElement o : spatialIndex.query(area)) {
+			if (o.vIntersects(area) && checkDrawAllowed(o) && (isOverlayElement(o) ? overlay : base)) {
+				result.add(o);
 			}
+		}
+		return result;
+	}
 
+	/**
+	 * Paints the given elements, or as many as fit in the time budget.
+	 * 
+	 * @param g2d      the graphics device to draw on.
+	 * @param area     the area to draw in.
+	 * @param elements the elements to draw, in drawing order.
+	 * @param erase    whether to erase the background first.
+	 * @param budget   the time in ns after which to stop drawing, at least one
+	 *                 element is drawn. Long.MAX_VALUE to draw all elements.
+	 * @return the number of elements drawn.
+	 */
+	private int paintElements(Graphics2D g2d, Rectangle area, List<VElement> elements, boolean erase,
+			long budget) {
+		long start = System.nanoTime();
+		if (erase) {
 			// erase the background
 			g2d.setColor(java.awt.Color.WHITE);
 			g2d.fillRect(area.x, area.y, area.width, area.height);
+		}
 
-			g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
-			g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-			g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+		g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2d.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
 
+		// save original, non-clipped, to pass on to the draw listeners
+		Graphics2D g2dFull = drawListeners.isEmpty() ? null : (Graphics2D) g2d.create();
+		try {
 			g2d.clip(area);
 			g2d.setColor(java.awt.Color.BLACK);
-			Collections.sort(drawingObjects);
-			cleanUp();
-			for (VElement o : drawingObjects) {
-				if (o.vIntersects(area)) {
-					if (checkDrawAllowed(o)) {
-						o.draw((Graphics2D) g2d.create());
-						fireVPathwayEvent(new VPathwayEvent(this, o, (Graphics2D) g2dFull.create(),
-								VPathwayEventType.ELEMENT_DRAWN));
-					}
+			int n = 0;
+			while (n < elements.size()) {
+				elements.get(n++).draw(g2d); // draws on a copy, so g2d stays intact
+				if (System.nanoTime() - start >= budget)
+					break;
+			}
+			if (g2dFull != null && n > 0) {
+				List<VElement> drawn = n == elements.size() ? elements : elements.subList(0, n);
+				for (VPathwayDrawListener l : drawListeners) {
+					l.elementsDrawn(this, drawn, g2dFull);
 				}
 			}
+			return n;
+		} finally {
+			if (g2dFull != null)
+				g2dFull.dispose();
+		}
+	}
+
+	// ================================================================================
+	// Incremental Drawing Methods
+	// ================================================================================
+	/**
+	 * Lists the elements of the static part of the drawing (see {@link #drawBase})
+	 * in the given area, so that they can be drawn in several steps with
+	 * {@link #drawSnapshot}.
+	 * 
+	 * @param area the area to draw, in view coordinates.
+	 * @return the elements to draw, in drawing order. The list can't be modified.
+	 */
+	public List<VElement> getBaseSnapshot(Rectangle area) {
+		try {
+			return Collections.unmodifiableList(selectElements(area, true, false));
 		} catch (ConcurrentModificationException ex) {
-			// guard against messing up repaint event completely
 			Logger.log.error("Concurrent modification", ex);
+			return Collections.emptyList();
 		}
 	}
 
+	/**
+	 * Paints part of a snapshot taken with {@link #getBaseSnapshot}, from the given
+	 * element on, until the time budget is used up. The background is erased when
+	 * starting at the first element, like {@link #drawBase}. This way a large area
+	 * can be drawn in steps, so that the event dispatch thread handles input in
+	 * between. If the pathway changes in the meantime, the caller should start
+	 * over with a new snapshot.
+	 * <p>
+	 * Like the other draw methods, this must be called on the event dispatch
+	 * thread. Draw listeners are called after each step, with the elements of
+	 * that step.
+	 * 
+	 * @param g2d      the graphics device to draw on.
+	 * @param area     the area of the snapshot.
+	 * @param elements the snapshot.
+	 * @param start    the index of the first element to draw.
+	 * @param budget   the time in ns after which to stop, at least one element is
+	 *                 drawn.
+	 * @return the index of the first element that wasn't drawn, the size of the
+	 *         snapshot when it is complete.
+	 */
+	public int drawSnapshot(Graphics2D g2d, Rectangle area, List<VElement> elements, int start, long budget) {
+		if (start >= elements.size()) {
+			if (start == 0)
+				paintElements(g2d, area, elements, true, budget); // erase only
+			return elements.size();
+		}
+		return start + paintElements(g2d, area, elements.subList(start, elements.size()), start == 0, budget);
+	}
+
 	/**
 	 * This will cause a complete redraw of the pathway to be scheduled. The redraw
 	 * will happen as soon as all other swing events are processed.
@@ -443,6 +689,40 @@ public class VPathwayModel implements PathwayListener {
 			parent.redraw(ar.getBounds());
 	}
 
+	/**
+	 * Called by {@link VElement#resetShapeCache()}, to signal that the bounds of
+	 * an element may have changed.
+	 */
+	void shapeChanged(VElement e) {
+		spatialIndex.markStale(e);
+		// the shape cache is reset on any model change, which includes a change of group
+		if (!e.toBeRemoved()) {
+			groupIndex.update(e);
+			zOrderIndex.update(e);
+		}
+	}
+
+	/**
+	 * Compares two elements by drawing order: by z-order, and elements with the
+	 * same z-order in the order in which they were added. Used by
+	 * {@link VElement#compareTo(VElement)}.
+	 */
+	int compareZOrder(VElement a, VElement b) {
+		return zOrderIndex.compare(a, b);
+	}
+
+	/**
+	 * Returns the views of the direct members of a group, without looking at all
+	 * drawing objects.
+	 * 
+	 * @param group the group.
+	 * @return an unmodifiable list of members, nested groups are included as a
+	 *         single member.
+	 */
+	List<VPathwayObject> getGroupMembers(Group group) {
+		return groupIndex.getMembers(group);
+	}
+
 	/**
 	 * Used by undo manager.
 	 * 
@@ -644,9 +924,7 @@ public class VPathwayModel implements PathwayListener {
 	 * @param g   the handle.
 	 */
 	private void linkPointToObject(Point2D p2d, Handle g) {
-		if (dragUndoState == DRAG_UNDO_CHANGE_START) {
-			dragUndoState = DRAG_UNDO_CHANGED;
-		}
+		startDragChange();
 		hideLinkAnchors();
 		VPoint vPoint = (VPoint) g.getAdjustable();
 		VLineElement vLineElement = vPoint.getLine();
@@ -795,8 +1073,11 @@ public class VPathwayModel implements PathwayListener {
 	 */
 	void addScheduled() {
 		for (VElement elt : toAdd) {
-			if (!drawingObjects.contains(elt)) { // Don't add duplicates!
+			if (!zOrderIndex.contains(elt)) { // Don't add duplicates!
 				drawingObjects.add(elt);
+				zOrderIndex.add(elt);
+				spatialIndex.add(elt);
+				groupIndex.update(elt);
 			}
 		}
 		toAdd.clear();
@@ -828,9 +1109,7 @@ public class VPathwayModel implements PathwayListener {
 		// If dragging, drag the pressed object
 		// And only when the right button isn't clicked
 		if (pressedObject != null && isDragging && !ve.isKeyDown(java.awt.event.MouseEvent.BUTTON3_DOWN_MASK)) {
-			if (dragUndoState == DRAG_UNDO_CHANGE_START) {
-				dragUndoState = DRAG_UNDO_CHANGED;
-			}
+			startDragChange();
 			double vdx = ve.getX() - vPreviousX;
 			double vdy = ve.getY() - vPreviousY;
 			if (pressedObject instanceof Handle) {
@@ -847,49 +1126,59 @@ public class VPathwayModel implements PathwayListener {
 				linkPointToObject(new Point2D.Double(ve.getX(), ve.getY()), (Handle) pressedObject);
 			}
 		} else {
-			List<VElement> objects = getObjectsAt(new Point2D.Double(ve.getX(), ve.getY()));
-
-			// Process mouseexit events
-			processMouseExitEvents(ve, objects);
-
-			// Process mouseenter events
-			processMouseEnterEvents(ve, objects);
+			// Process mouseexit and mouseenter events, at most once per frame
+			pendingHover = ve;
+			long wait = lastHoverUpdate + getHoverInterval() - System.currentTimeMillis();
+			if (wait <= 0) {
+				processPendingHover();
+			} else if (!hoverThrottle.isRunning()) {
+				hoverThrottle.setInitialDelay((int) wait);
+				hoverThrottle.start();
+			}
 		}
 
 		hoverManager.reset(ve);
 	}
 
 	/**
-	 * @param ve      the mouse event.
-	 * @param objects the list of velement objects.
+	 * Process the last mouse move that is waiting for the hover throttle, if any.
 	 */
-	private void processMouseEnterEvents(MouseEvent ve, List<VElement> objects) {
-		for (VElement vpe : objects) {
-			if (!lastMouseOver.contains(vpe)) {
-				lastMouseOver.add(vpe);
-				stateEntered = true;
-				if (vpe instanceof VLabel && !((VLabel) vpe).getPathwayElement().getHref().equals("")) {
-					lastEnteredElement = vpe;
-				} else {
-					fireVElementMouseEvent(new VElementMouseEvent(this, VElementMouseEvent.TYPE_MOUSEENTER, vpe, ve));
-				}
-			}
-		}
-		if (lastEnteredElement != null) {
-			fireHyperlinkUpdate(lastEnteredElement);
-		}
+	private void processPendingHover() {
+		hoverThrottle.stop();
+		if (pendingHover == null)
+			return;
+		MouseEvent ve = pendingHover;
+		pendingHover = null;
+		lastHoverUpdate = System.currentTimeMillis();
+		updateHover(ve);
 	}
 
 	/**
-	 * @param ve      the mouse event.
-	 * @param objects the list of velement objects.
+	 * Finds the elements under the mouse, and fires mouseexit and mouseenter events
+	 * for the difference with the elements that were under the mouse before.
+	 * Reuses the same lists and sets on every call, and takes time linear in the
+	 * number of elements under the mouse.
+	 * 
+	 * @param ve the mouse event.
 	 */
-	private void processMouseExitEvents(MouseEvent ve, List<VElement> objects) {
-		Set<VElement> toRemove = new HashSet<VElement>();
+	void updateHover(MouseEvent ve) {
+		hoverPoint.setLocation(ve.getX(), ve.getY());
+		spatialIndex.query(hoverPoint, hoverCandidates);
+		mouseOver.clear();
+		mouseOverSet.clear();
+		for (int i = 0; i < hoverCandidates.size(); i++) {
+			VElement o = hoverCandidates.get(i);
+			if (o.vContains(hoverPoint)) {
+				mouseOver.add(o);
+				mouseOverSet.add(o);
+			}
+		}
+		hoverCandidates.clear();
 
-		for (VElement vpe : lastMouseOver) {
-			if (!objects.contains(vpe)) {
-				toRemove.add(vpe);
+		// Process mouseexit events
+		for (int i = 0; i < lastMouseOver.size(); i++) {
+			VElement vpe = lastMouseOver.get(i);
+			if (!mouseOverSet.contains(vpe)) {
 				stateEntered = false;
 				if (lastEnteredElement == vpe) {
 					fireHyperlinkUpdate(lastEnteredElement);
@@ -897,17 +1186,78 @@ public class VPathwayModel implements PathwayListener {
 				} else {
 					fireVElementMouseEvent(new VElementMouseEvent(this, VElementMouseEvent.TYPE_MOUSEEXIT, vpe, ve));
 				}
+			}
+		}
 
+		// Process mouseenter events
+		boolean entered = false;
+		for (int i = 0; i < mouseOver.size(); i++) {
+			VElement vpe = mouseOver.get(i);
+			if (!lastMouseOverSet.contains(vpe)) {
+				entered = true;
+				stateEntered = true;
+				if (vpe instanceof VLabel && !((VLabel) vpe).getPathwayElement().getHref().equals("")) {
+					lastEnteredElement = vpe;
+				} else {
+					fireVElementMouseEvent(new VElementMouseEvent(this, VElementMouseEvent.TYPE_MOUSEENTER, vpe, ve));
+				}
 			}
 		}
+		if (entered && lastEnteredElement != null) {
+			fireHyperlinkUpdate(lastEnteredElement);
+		}
 
-		lastMouseOver.removeAll(toRemove);
+		// the current elements become the previous ones, reuse the old ones
+		List<VElement> list = lastMouseOver;
+		lastMouseOver = mouseOver;
+		mouseOver = list;
+		Set<VElement> set = lastMouseOverSet;
+		lastMouseOverSet = mouseOverSet;
+		mouseOverSet = set;
 	}
 
 	// ================================================================================
 	// Mouse Event Variables and Methods: HOVER
 	// ================================================================================
-	private Set<VElement> lastMouseOver = new HashSet<VElement>();
+	// elements under the mouse, as a list in drawing order and as a set for lookup.
+	// Two of each, for the previous and the current mouse position.
+	private List<VElement> lastMouseOver = new ArrayList<VElement>();
+	private Set<VElement> lastMouseOverSet = Collections.newSetFromMap(new IdentityHashMap<VElement, Boolean>());
+	private List<VElement> mouseOver = new ArrayList<VElement>();
+	private Set<VElement> mouseOverSet = Collections.newSetFromMap(new IdentityHashMap<VElement, Boolean>());
+	private final List<VElement> hoverCandidates = new ArrayList<VElement>();
+	private final Point2D.Double hoverPoint = new Point2D.Double();
+
+	// mouse moves are processed at most once per display frame
+	private MouseEvent pendingHover = null;
+	private long lastHoverUpdate = 0;
+	private static int hoverInterval = 0;
+	private final Timer hoverThrottle = new Timer(0, new ActionListener() {
+		public void actionPerformed(ActionEvent e) {
+			processPendingHover();
+		}
+	});
+
+	/**
+	 * @return the time between two frames of the screen, in ms. Assumes 60 frames
+	 *         per second if the refresh rate is unknown.
+	 */
+	private static int getHoverInterval() {
+		if (hoverInterval == 0) {
+			int rate = DisplayMode.REFRESH_RATE_UNKNOWN;
+			try {
+				if (!GraphicsEnvironment.isHeadless()) {
+					rate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode()
+							.getRefreshRate();
+				}
+			} catch (RuntimeException e) {
+				Logger.log.warn("Could not determine the refresh rate of the screen: " + e);
+			}
+			hoverInterval = Math.max(1, 1000 / (rate > 0 ? rate : 60));
+		}
+		return hoverInterval;
+	}
+
 	private HoverManager hoverManager = new HoverManager();
 
 	/**
@@ -920,14 +1270,24 @@ public class VPathwayModel implements PathwayListener {
 		boolean tooltipDisplayed = false;
 
 		MouseEvent lastEvent = null;
+		long lastReset = 0;
 
 		Timer timer;
 
 		public HoverManager() {
 			timer = new Timer(DELAY, this);
+			timer.setRepeats(false);
 		}
 
 		public void actionPerformed(ActionEvent e) {
+			// the timer isn't restarted on every mouse move, instead it is started
+			// again here if the mouse moved in the meantime
+			long remaining = lastReset + DELAY - System.currentTimeMillis();
+			if (remaining > 0) {
+				timer.setInitialDelay((int) remaining);
+				timer.start();
+				return;
+			}
 			if (!tooltipDisplayed) {
 				fireVPathwayEvent(new VPathwayEvent(VPathwayModel.this, getObjectsAt(lastEvent.getLocation()),
 						lastEvent, VPathwayEventType.ELEMENT_HOVER));
@@ -937,8 +1297,12 @@ public class VPathwayModel implements PathwayListener {
 
 		void reset(MouseEvent e) {
 			lastEvent = e;
+			lastReset = System.currentTimeMillis();
 			tooltipDisplayed = false;
-			timer.restart();
+			if (!timer.isRunning()) {
+				timer.setInitialDelay(DELAY);
+				timer.start();
+			}
 		}
 
 		void stop() {
@@ -996,7 +1360,7 @@ public class VPathwayModel implements PathwayListener {
 	// ================================================================================
 	// Mouse Event Variables and Methods: MOUSEDOWN/UP
 	// ================================================================================
-	private PathwayModel temporaryCopy = null;
+	private PathwaySnapshot temporarySnapshot = null;
 
 	/**
 	 * Handles mouse Pressed input
@@ -1004,11 +1368,13 @@ public class VPathwayModel implements PathwayListener {
 	 * @param e the mouse event.
 	 */
 	public void mouseDown(MouseEvent e) {
+		processPendingHover();
 		VElement vpe = getObjectAt(e.getLocation());
 		if (!openHref(e, vpe)) {
 			// setFocus();
 			vDragStart = new Point(e.getX(), e.getY());
-			temporaryCopy = (PathwayModel) data.clone();
+			// in delta undo mode, the drag is recorded once it changes something
+			temporarySnapshot = undoManager.isDeltaMode() ? null : undoManager.takeSnapshot();
 
 			if (editMode) {
 				if (newTemplate != null) {
@@ -1034,21 +1400,10 @@ public class VPathwayModel implements PathwayListener {
 	 */
 	public void mouseUp(MouseEvent e) {
 		if (isDragging) {
-			if (dragUndoState == DRAG_UNDO_CHANGED) {
-				assert (temporaryCopy != null);
-				// further specify the type of undo event,
-				// depending on the type of object being dragged
-				String message = "Drag Object";
-				if (pressedObject instanceof Handle) {
-					if (((Handle) pressedObject).getFreedom() == Handle.Freedom.ROTATION) {
-						message = "Rotate Object";
-					} else {
-						message = "Resize Object";
-					}
-				}
-				undoManager.newAction(new UndoAction(message, temporaryCopy));
-				temporaryCopy = null;
+			if (dragUndoState == DRAG_UNDO_CHANGED && temporarySnapshot != null) {
+				undoManager.newAction(new UndoAction(getDragUndoMessage(), temporarySnapshot));
 			}
+			temporarySnapshot = null;
 			resetHighlight();
 			hideLinkAnchors();
 			if (selection.isSelecting()) { // If we were selecting, stop it
@@ -1184,7 +1539,7 @@ public class VPathwayModel implements PathwayListener {
 	public VElement getObjectAt(Point2D p2d) {
 		int zmax = Integer.MIN_VALUE;
 		VElement probj = null;
-		for (VElement o : drawingObjects) {
+		for (VElement o : spatialIndex.query(p2d)) {
 			// first we use vContains, which is good for detecting (non-transparent) shapes
 			if (o.vContains(p2d) && o.getZOrder() > zmax) {
 				probj = o;
@@ -1196,7 +1551,7 @@ public class VPathwayModel implements PathwayListener {
 			// which is good for detecting lines and transparent shapes.
 			Rectangle2D fuzz = new Rectangle2D.Double(p2d.getX() - FUZZY_SIZE, p2d.getY() - FUZZY_SIZE, FUZZY_SIZE * 2,
 					FUZZY_SIZE * 2);
-			for (VElement o : drawingObjects) {
+			for (VElement o : spatialIndex.query(fuzz)) {
 				if (o.vIntersects(fuzz) && o.getZOrder() > zmax) {
 					probj = o;
 					zmax = o.getZOrder();
@@ -1213,7 +1568,7 @@ public class VPathwayModel implements PathwayListener {
 	 */
 	public List<VElement> getObjectsAt(Point2D p2d) {
 		List<VElement> result = new ArrayList<VElement>();
-		for (VElement o : drawingObjects) {
+		for (VElement o : spatialIndex.query(p2d)) {
 			if (o.vContains(p2d)) {
 				result.add(o);
 			}
@@ -1229,8 +1584,8 @@ public class VPathwayModel implements PathwayListener {
 	 */
 	private List<LinkProvider> getLinkProvidersAt(Point2D p2d) {
 		List<LinkProvider> result = new ArrayList<LinkProvider>();
-		// for each object visible on this mapp
-		for (VElement o : drawingObjects) {
+		// for each object visible on this mapp near the given point
+		for (VElement o : spatialIndex.query(p2d)) {
 			// add if linkprovider and rectangular bounds contains given point
 			if (o instanceof LinkProvider && o.getVBounds().contains(p2d)) {
 				result.add((LinkProvider) o);
@@ -1317,6 +1672,34 @@ public class VPathwayModel implements PathwayListener {
 
 	private int dragUndoState = DRAG_UNDO_NOT_RECORDING;
 
+	/**
+	 * Called when a drag starts to change the pathway. In delta undo mode, this
+	 * starts the undo action that records the drag.
+	 */
+	private void startDragChange() {
+		if (dragUndoState == DRAG_UNDO_CHANGE_START) {
+			dragUndoState = DRAG_UNDO_CHANGED;
+			if (undoManager.isDeltaMode()) {
+				undoManager.newAction(getDragUndoMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return the description of the undo action for the current drag, depending
+	 *         on the type of object being dragged.
+	 */
+	private String getDragUndoMessage() {
+		if (pressedObject instanceof Handle) {
+			if (((Handle) pressedObject).getFreedom() == Handle.Freedom.ROTATION) {
+				return "Rotate Object";
+			} else {
+				return "Resize Object";
+			}
+		}
+		return "Drag Object";
+	}
+
 	/** newly placed object, is set to null again when mouse button is released */
 	private PathwayElement newObject = null;
 
@@ -1371,6 +1754,9 @@ public class VPathwayModel implements PathwayListener {
 
 	public void mouseExit(MouseEvent e) {
 		hoverManager.stop();
+		// a move that is still waiting for the throttle happened inside the canvas
+		pendingHover = null;
+		hoverThrottle.stop();
 	}
 
 	/**
@@ -1662,6 +2048,11 @@ public class VPathwayModel implements PathwayListener {
 		}
 		addScheduled();
 		cleanUp();
+		// keep the group index in sync with the affected element
+		VPathwayObject affected = getPathwayElementView(e.getAffectedData());
+		if (affected != null) {
+			groupIndex.update(affected);
+		}
 	}
 
 	/*
@@ -1843,6 +2234,7 @@ public class VPathwayModel implements PathwayListener {
 		for (VElement vpe : drawingObjects) {
 			vpe.zoomChanged();
 		}
+		spatialIndex.invalidate();
 		if (parent != null)
 			parent.resized();
 	}
@@ -2078,6 +2470,10 @@ public class VPathwayModel implements PathwayListener {
 	 * @return the highest z-order of all pathway model objects.
 	 */
 	public int getMaxZOrder(PathwayModel pathwayModel) {
+		if (pathwayModel == data) {
+			addScheduled();
+			return Math.max(zOrderIndex.getMaxZOrder(0), 0);
+		}
 		List<PathwayElement> dataObjects = pathwayModel.getPathwayElements();
 		if (dataObjects.size() == 0)
 			return 0;
@@ -2110,6 +2506,10 @@ public class VPathwayModel implements PathwayListener {
 	 * Returns the lowest z-order of all pathway model objects with z-order.
 	 */
 	public int getMinZOrder(PathwayModel pathwayModel) {
+		if (pathwayModel == data) {
+			addScheduled();
+			return Math.min(zOrderIndex.getMinZOrder(0), 0);
+		}
 		List<PathwayElement> dataObjects = pathwayModel.getPathwayElements();
 		if (dataObjects.size() == 0)
 			return 0;
@@ -2185,15 +2585,11 @@ public class VPathwayModel implements PathwayListener {
 	 * elements, so that we can freely move items in between
 	 */
 	private void autoRenumberZOrder() {
-		List<VGroupable> elts = new ArrayList<VGroupable>();
-		for (VElement vp : drawingObjects) {
-			if (vp instanceof VPathwayElement) {
-				elts.add((VGroupable) vp);
-			}
-		}
+		addScheduled();
+		// a copy, because renumbering updates the index
+		List<VGroupable> elts = zOrderIndex.getPathwayElements();
 		if (elts.size() < 2)
 			return; // nothing to renumber
-		Collections.sort(elts, new ZComparator());
 
 		final int spacing = 2;
 
@@ -2244,7 +2640,7 @@ public class VPathwayModel implements PathwayListener {
 		List<VGroupable> result = new ArrayList<VGroupable>();
 		Rectangle2D r1 = ((VElement) g).getVBounds();
 
-		for (VElement ve : drawingObjects) {
+		for (VElement ve : spatialIndex.query(r1)) {
 			if (ve instanceof VGroupable && ve != g) {
 				VGroupable i = (VGroupable) ve;
 				if (r1.intersects(ve.getVBounds())) {
@@ -2546,6 +2942,18 @@ public class VPathwayModel implements PathwayListener {
 		Logger.log.trace(listeners.remove(l) + ": " + l);
 	}
 
+	private List<VPathwayDrawListener> drawListeners = new ArrayList<VPathwayDrawListener>();
+
+	public void addVPathwayDrawListener(VPathwayDrawListener l) {
+		if (!drawListeners.contains(l)) {
+			drawListeners.add(l);
+		}
+	}
+
+	public void removeVPathwayDrawListener(VPathwayDrawListener l) {
+		drawListeners.remove(l);
+	}
+
 	private List<VElementMouseListener> elementListeners = new ArrayList<VElementMouseListener>();
 
 	public void addVElementMouseListener(VElementMouseListener l) {
@@ -2717,10 +3125,14 @@ public class VPathwayModel implements PathwayListener {
 			elt.destroy();
 		}
 		cleanUp();
+		zOrderIndex.clear();
+		spatialIndex.clear();
+		groupIndex.clear();
 		if (data != null) {
 			data.removeListener(this);
 		}
 		listeners.clear();
+		drawListeners.clear();
 		selection.getListeners().clear();
 		viewActions = null;
 		if (parent != null) {
@@ -2730,6 +3142,7 @@ public class VPathwayModel implements PathwayListener {
 		undoManager.dispose();
 		undoManager = null;
 		hoverManager.stop();
+		hoverThrottle.stop();
 		disposed = true;
 	}
 
@@ -2741,6 +3154,9 @@ public class VPathwayModel implements PathwayListener {
 			VElement elt = i.next();
 			if (elt.toBeRemoved()) {
 				i.remove();
+				zOrderIndex.remove(elt);
+				spatialIndex.remove(elt);
+				groupIndex.remove(elt);
 			}
 		}
 	}
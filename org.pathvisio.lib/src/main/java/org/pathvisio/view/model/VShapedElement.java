@@ -16,21 +16,17 @@
  ******************************************************************************/
 package org.pathvisio.view.model;
 
-import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.Stroke;
-import java.awt.font.TextAttribute;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Area;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
-import java.text.AttributedString;
 
 import org.pathvisio.events.PathwayObjectEvent;
 import org.pathvisio.model.DataNode;
@@ -194,13 +190,9 @@ public abstract class VShapedElement extends VPathwayElement
 	protected void setBorderStyle(Graphics2D g) {
 		LineStyleType ls = getPathwayElement().getBorderStyle();
 		float lt = (float) vFromM(getPathwayElement().getBorderWidth());
-		if (ls == LineStyleType.SOLID) {
-			g.setStroke(new BasicStroke(lt));
-		} else if (ls == LineStyleType.DASHED) {
-			g.setStroke(
-					new BasicStroke(lt, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 10, new float[] { 4, 4 }, 0));
-		} else if (ls == LineStyleType.DOUBLE) {
-			g.setStroke(new CompositeStroke(new BasicStroke(lt * 2), new BasicStroke(lt)));
+		Stroke stroke = StrokeCache.getLineStyle(ls, lt);
+		if (stroke != null) {
+			g.setStroke(stroke);
 		}
 	}
 
@@ -571,17 +563,13 @@ public abstract class VShapedElement extends VPathwayElement
 
 	/**
 	 * Returns the shape that should be drawn
-	 * 
+	 *
 	 * @parameter rotate whether to take into account rotation or not
 	 * @parameter stroke whether to include the stroke or not
 	 * @return
 	 */
 	protected Shape getShape(boolean rotate, boolean stroke) {
-		if (stroke) {
-			return getShape(rotate, (float) getPathwayElement().getBorderWidth());
-		} else {
-			return getShape(rotate, 0);
-		}
+		return getShape(rotate, stroke ? (float) getPathwayElement().getBorderWidth() : 0);
 	}
 
 	/**
@@ -592,13 +580,82 @@ public abstract class VShapedElement extends VPathwayElement
 	}
 
 	/**
-	 * Returns the shape that should be drawn
+	 * A cached result of {@link #getShape(boolean, float)}, together with
+	 * everything it was calculated from. Immutable, a new entry replaces the old one.
+	 */
+	private static final class ShapeCacheEntry {
+		final ShapeType shapeType;
+		final LineStyleType borderStyle;
+		final double mx, my, mw, mh, rotation, zoom;
+		final float sw;
+		final Shape shape;
+
+		ShapeCacheEntry(ShapeType shapeType, LineStyleType borderStyle, double mx, double my, double mw, double mh,
+				double rotation, double zoom, float sw, Shape shape) {
+			this.shapeType = shapeType;
+			this.borderStyle = borderStyle;
+			this.mx = mx;
+			this.my = my;
+			this.mw = mw;
+			this.mh = mh;
+			this.rotation = rotation;
+			this.zoom = zoom;
+			this.sw = sw;
+			this.shape = shape;
+		}
+
+		boolean matches(ShapeType shapeType, LineStyleType borderStyle, double mx, double my, double mw, double mh,
+				double rotation, double zoom, float sw) {
+			return this.shapeType == shapeType && this.borderStyle == borderStyle && this.mx == mx && this.my == my
+					&& this.mw == mw && this.mh == mh && this.rotation == rotation && this.zoom == zoom
+					&& this.sw == sw;
+		}
+	}
+
+	/**
+	 * Geometry cache, one slot for each combination of rotated / not rotated and
+	 * with / without stroke, see {@link #getShape(boolean, float)}.
+	 */
+	private final ShapeCacheEntry[] shapeCache = new ShapeCacheEntry[4];
+
+	private void resetGeometryCache() {
+		for (int i = 0; i < shapeCache.length; i++) {
+			shapeCache[i] = null;
+		}
+	}
+
+	/**
+	 * Returns the shape that should be drawn. The result is cached until the
+	 * element or the zoom factor changes, so it should not be modified.
 	 * 
 	 * @parameter rotate whether to take into account rotation or not
 	 * @parameter sw the width of the stroke to include
 	 * @return
 	 */
 	protected Shape getShape(boolean rotate, float sw) {
+		ShapedElement elt = getPathwayElement();
+		double mx = elt.getLeft();
+		double my = elt.getTop();
+		double mw = elt.getWidth();
+		double mh = elt.getHeight();
+		double rotation = rotate ? elt.getRotation() : 0;
+		double zoom = canvas.getZoomFactor();
+		ShapeType shapeType = elt.getShapeType();
+		LineStyleType borderStyle = sw > 0 ? elt.getBorderStyle() : null;
+
+		int slot = (rotate ? 1 : 0) + (sw > 0 ? 2 : 0);
+		ShapeCacheEntry entry = shapeCache[slot];
+		if (entry != null && entry.matches(shapeType, borderStyle, mx, my, mw, mh, rotation, zoom, sw)) {
+			return entry.shape;
+		}
+
+		entry = new ShapeCacheEntry(shapeType, borderStyle, mx, my, mw, mh, rotation, zoom, sw,
+				calculateShape(rotate, sw));
+		shapeCache[slot] = entry;
+		return entry.shape;
+	}
+
+	private Shape calculateShape(boolean rotate, float sw) {
 		double mx = getPathwayElement().getLeft();
 		double my = getPathwayElement().getTop();
 		double mw = getPathwayElement().getWidth();
@@ -631,8 +688,7 @@ public abstract class VShapedElement extends VPathwayElement
 					// correction factor for composite stroke
 					sw = (float) (getPathwayElement().getBorderWidth() * 4);
 				}
-				Stroke stroke = new BasicStroke(sw);
-				s = stroke.createStrokedShape(s);
+				s = StrokeCache.getSolid(sw).createStrokedShape(s);
 			}
 		return s;
 	}
@@ -640,6 +696,8 @@ public abstract class VShapedElement extends VPathwayElement
 	@Override
 	public void gmmlObjectModified(PathwayObjectEvent e) {
 //		if (listen) { //TODO??? 
+		resetTextCache();
+		resetGeometryCache();
 		markDirty(); // mark everything dirty
 		checkCitation();
 		if (handles.length > 0)
@@ -683,7 +741,7 @@ public abstract class VShapedElement extends VPathwayElement
 		drawShape(g2d);
 
 		// return to normal stroke
-		g2d.setStroke(new BasicStroke());
+		g2d.setStroke(DEFAULT_STROKE);
 
 		g2d.setFont(getVFont());
 		drawTextLabel(g2d);
@@ -691,75 +749,58 @@ public abstract class VShapedElement extends VPathwayElement
 		drawHighlight(g2d);
 	}
 
+	/**
+	 * Font and text layout of the label, kept until the element is modified or the
+	 * zoom factor changes.
+	 */
+	private Font vFontCache = null;
+	private TextLabelLayout textLayoutCache = null;
+
+	@Override
+	void zoomChanged() {
+		resetTextCache();
+		resetGeometryCache();
+		super.zoomChanged();
+	}
+
+	private void resetTextCache() {
+		vFontCache = null;
+		textLayoutCache = null;
+	}
+
 	protected void drawTextLabel(Graphics2D g) {
 		int margin = (int) vFromM(5);
 		Rectangle area = getVShape(true).getBounds();
 		String label = getPathwayElement().getTextLabel();
 		if (label != null && !"".equals(label)) {
-			// Split by newline, to enable multi-line labels
-			String[] lines = label.split("\n");
-
-			FontMetrics fm = g.getFontMetrics();
-			int lh = fm.getHeight();
-			int yoffset = area.y + fm.getAscent();
-			switch (getPathwayElement().getVAlign()) {
-			case MIDDLE:
-				yoffset += (area.height - (lines.length * lh)) / 2;
-				break;
-			case TOP:
-				yoffset += margin;
-				break;
-			case BOTTOM:
-				yoffset += area.height - margin - (lines.length * lh);
+			Font font = getVFont();
+			if (!canvas.isTextVisible(font.getSize2D())) {
+				return; // too small to read
 			}
-
-			for (int i = 0; i < lines.length; i++) {
-				if (lines[i].equals(""))
-					continue; // Can't have attributed string with 0 length
-				AttributedString ats = getVAttributedString(lines[i]);
+			TextLabelLayout layout = textLayoutCache;
+			if (layout == null || !layout.matches(label, font, g.getFontRenderContext(), area.width, area.height)) {
+				boolean underline = getPathwayElement().getFontDecoration();
 				if (getPathwayElement().getClass() == Label.class) {
 					if (!((Label) getPathwayElement()).getHref().equals("")) {
-						ats.addAttribute(TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON);
+						underline = true;
 					}
 				}
-				Rectangle2D tb = fm.getStringBounds(ats.getIterator(), 0, lines[i].length(), g);
-
-				int xoffset = area.x;
-				switch (getPathwayElement().getHAlign()) {
-				case CENTER:
-					xoffset += (int) (area.width / 2) - (int) (tb.getWidth() / 2);
-					break;
-				case LEFT:
-					xoffset += margin;
-					break;
-				case RIGHT:
-					xoffset += area.width - margin - tb.getWidth();
-					break;
-				}
-
-				g.drawString(ats.getIterator(), xoffset, yoffset + (int) (i * tb.getHeight()));
+				layout = new TextLabelLayout(g, label, font, getPathwayElement().getFontStrikethru(), underline,
+						area.width, area.height, margin, getPathwayElement().getHAlign(),
+						getPathwayElement().getVAlign());
+				textLayoutCache = layout;
 			}
-
-		}
-	}
-
-	private AttributedString getVAttributedString(String text) {
-		AttributedString ats = new AttributedString(text);
-		if (getPathwayElement().getFontStrikethru()) {
-			ats.addAttribute(TextAttribute.STRIKETHROUGH, TextAttribute.STRIKETHROUGH_ON);
-		}
-		if (getPathwayElement().getFontDecoration()) {
-			ats.addAttribute(TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON);
+			layout.draw(g, area.x, area.y);
 		}
-
-		ats.addAttribute(TextAttribute.FONT, getVFont());
-		return ats;
 	}
 
 	protected Font getVFont() {
-		String name = getPathwayElement().getFontName();
-		int style = getVFontStyle();
-		return new Font(name, style, 12).deriveFont((float) vFromM(getPathwayElement().getFontSize()));
+		if (vFontCache == null) {
+			String name = getPathwayElement().getFontName();
+			int style = getVFontStyle();
+			vFontCache = new Font(name, style, 12).deriveFont((float) vFromM(getPathwayElement().getFontSize()));
+		}
+		return vFontCache;
 	}
 
 	protected void drawShape(Graphics2D g) {
@@ -807,11 +848,11 @@ public abstract class VShapedElement extends VPathwayElement
 			if (hasOutline()) {
 				// highlight the outline
 				java.awt.Shape shape = getShape(true, false);
-				g.setStroke(new BasicStroke(HIGHLIGHT_STROKE_WIDTH));
+				g.setStroke(HIGHLIGHT_STROKE);
 				g.draw(shape);
 			} else {
 				// outline invisible, fill the entire area
-				g.setStroke(new BasicStroke());
+				g.setStroke(DEFAULT_STROKE);
 				Rectangle2D r = new Rectangle2D.Double(getVLeft(), getVTop(), getVWidth(), getVHeight());
 				g.fill(r);
 			}
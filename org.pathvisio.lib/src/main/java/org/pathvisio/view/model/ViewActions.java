@@ -808,7 +808,7 @@ public class ViewActions implements VPathwayListener, SelectionListener {
 		public void actionPerformed(ActionEvent e) {
 			VPathwayModel vp = engine.getActiveVPathway();
 			if (vp != null) {
-				vp.moveGraphicsTop(vp.getSelectedGraphics());
+				vp.moveVPathwayElement(vp.getSelectedVPathwayElement());
 				vp.redraw();
 			}
 		}
@@ -831,7 +831,7 @@ public class ViewActions implements VPathwayListener, SelectionListener {
 		public void actionPerformed(ActionEvent e) {
 			VPathwayModel vp = engine.getActiveVPathway();
 			if (vp != null) {
-				vp.moveGraphicsBottom(vp.getSelectedGraphics());
+				vp.moveVPathwayElementBottom(vp.getSelectedVPathwayElement());
 				vp.redraw();
 			}
 		}
@@ -854,7 +854,7 @@ public class ViewActions implements VPathwayListener, SelectionListener {
 		public void actionPerformed(ActionEvent e) {
 			VPathwayModel vp = engine.getActiveVPathway();
 			if (vp != null) {
-				vp.moveGraphicsUp(vp.getSelectedGraphics());
+				vp.moveVPathwayElementUp(vp.getSelectedVPathwayElement());
 				vp.redraw();
 			}
 		}
@@ -877,7 +877,7 @@ public class ViewActions implements VPathwayListener, SelectionListener {
 		public void actionPerformed(ActionEvent e) {
 			VPathwayModel vp = engine.getActiveVPathway();
 			if (vp != null) {
-				vp.moveGraphicsDown(vp.getSelectedGraphics());
+				vp.moveVPathwayElementDown(vp.getSelectedVPathwayElement());
 				vp.redraw();
 			}
 		}
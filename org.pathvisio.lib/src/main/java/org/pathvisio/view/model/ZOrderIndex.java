@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Drawing order of the elements of a {@link VPathwayModel}, i.e. by z-order and
+ * then by the order in which they were added. Replaces sorting all drawing
+ * objects on each paint.
+ * <p>
+ * Each element's z-order is remembered when it is indexed, so the order of the
+ * index doesn't change behind its back. {@link #update(VElement)} must be called
+ * when the z-order of an element may have changed, which is done through the
+ * shape cache reset of modified elements. Adding, removing and updating an
+ * element, and looking up the lowest or highest z-order of the pathway
+ * elements, are O(log n).
+ */
+class ZOrderIndex implements Comparator<VElement> {
+
+	/**
+	 * Position of an element in the drawing order. Shared with
+	 * {@link SpatialIndex}, so it can keep its cells in drawing order.
+	 */
+	static class Entry implements Comparable<Entry> {
+		final VElement element;
+		final long seq; // stable tie breaker, in order of addition
+		int zOrder;
+
+		Entry(VElement element, long seq) {
+			this.element = element;
+			this.seq = seq;
+			zOrder = element.getZOrder();
+		}
+
+		public int compareTo(Entry other) {
+			if (zOrder != other.zOrder)
+				return zOrder < other.zOrder ? -1 : 1;
+			return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+		}
+	}
+
+	private final Map<VElement, Entry> entries = new IdentityHashMap<VElement, Entry>();
+
+	/**
+	 * the elements that have a z-order in the model (see
+	 * {@link #isPathwayElement(VElement)}), in drawing order
+	 */
+	private final TreeSet<Entry> pathwayElements = new TreeSet<Entry>();
+
+	private long nextSeq = 0;
+
+	/**
+	 * Elements with a z-order of their own in the model: data nodes, states,
+	 * lines, labels, shapes and groups. Handles, the selection box, citations,
+	 * anchors and the info box either derive their z-order from their parent or
+	 * have a fixed z-order.
+	 */
+	static boolean isPathwayElement(VElement e) {
+		return e instanceof VPathwayElement && e instanceof VGroupable;
+	}
+
+	boolean contains(VElement e) {
+		return entries.containsKey(e);
+	}
+
+	/**
+	 * Add an element. Does nothing if the element was added already.
+	 */
+	void add(VElement e) {
+		if (entries.containsKey(e))
+			return;
+		Entry entry = new Entry(e, nextSeq++);
+		entries.put(e, entry);
+		if (isPathwayElement(e))
+			pathwayElements.add(entry);
+	}
+
+	/**
+	 * Re-read the z-order of an element, and move it if it changed.
+	 */
+	void update(VElement e) {
+		Entry entry = entries.get(e);
+		if (entry == null)
+			return;
+		int z = e.getZOrder();
+		if (z == entry.zOrder)
+			return;
+		boolean isPwe = pathwayElements.remove(entry);
+		entry.zOrder = z;
+		if (isPwe)
+			pathwayElements.add(entry);
+	}
+
+	/**
+	 * @return the position of an element in the drawing order, or null if it is
+	 *         not indexed. The position changes on {@link #update(VElement)}.
+	 */
+	Entry getEntry(VElement e) {
+		return entries.get(e);
+	}
+
+	void remove(VElement e) {
+		Entry entry = entries.remove(e);
+		if (entry != null)
+			pathwayElements.remove(entry);
+	}
+
+	void clear() {
+		entries.clear();
+		pathwayElements.clear();
+	}
+
+	/**
+	 * Compares two elements by drawing order, using the z-order they were indexed
+	 * with. Elements that are not (yet) indexed sort after the indexed elements.
+	 */
+	public int compare(VElement a, VElement b) {
+		if (a == b)
+			return 0;
+		Entry ea = entries.get(a);
+		Entry eb = entries.get(b);
+		if (ea == null || eb == null) {
+			if (ea != null)
+				return -1;
+			if (eb != null)
+				return 1;
+			int za = a.getZOrder(), zb = b.getZOrder();
+			if (za != zb)
+				return za < zb ? -1 : 1;
+			return Integer.compare(System.identityHashCode(a), System.identityHashCode(b));
+		}
+		return ea.compareTo(eb);
+	}
+
+	/**
+	 * @return the highest z-order of the pathway elements, or defaultValue if
+	 *         there are none.
+	 */
+	int getMaxZOrder(int defaultValue) {
+		return pathwayElements.isEmpty() ? defaultValue : pathwayElements.last().zOrder;
+	}
+
+	/**
+	 * @return the lowest z-order of the pathway elements, or defaultValue if there
+	 *         are none.
+	 */
+	int getMinZOrder(int defaultValue) {
+		return pathwayElements.isEmpty() ? defaultValue : pathwayElements.first().zOrder;
+	}
+
+	/**
+	 * @return a snapshot of the pathway elements, in drawing order.
+	 */
+	List<VGroupable> getPathwayElements() {
+		List<VGroupable> result = new ArrayList<VGroupable>(pathwayElements.size());
+		for (Entry entry : pathwayElements)
+			result.add((VGroupable) entry.element);
+		return result;
+	}
+}
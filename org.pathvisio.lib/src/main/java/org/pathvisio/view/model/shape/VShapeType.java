@@ -93,6 +93,7 @@ public class VShapeType {
 	// ================================================================================
 	private ShapeType shapeType;
 	private Shape shape;
+	private final Rectangle bounds; // bounds of shape, which never changes
 	private final boolean isResizeable;
 	private final boolean isRotatable;
 
@@ -116,6 +117,7 @@ public class VShapeType {
 		this.isResizeable = isResizeable;
 		this.isRotatable = isRotatable;
 		this.shape = shape;
+		this.bounds = shape == null ? null : shape.getBounds();
 		VShapeRegistry.registerShape(shapeType.getName(), this); // adds this name and ShapeType to map.
 	}
 
@@ -127,11 +129,15 @@ public class VShapeType {
 	 * @param shapeTypeName
 	 * @param mw
 	 * @param mh
-	 * @return
+	 * @return the shape scaled to the given size, or null if this shape type has
+	 *         no shape (yet).
 	 */
 	public Shape getShape(double mw, double mh) {
+		if (shape == null) {
+			return null;
+		}
 		// now scale the path so it has proper w and h.
-		Rectangle r = shape.getBounds();
+		Rectangle r = bounds;
 		AffineTransform at = new AffineTransform();
 		at.translate(-r.x, -r.y);
 		at.scale(mw / r.width, mh / r.height);
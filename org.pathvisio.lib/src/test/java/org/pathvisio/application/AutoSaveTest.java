@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.application;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectOutputStream;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pathvisio.controller.Engine;
+import org.pathvisio.model.DataNode;
+import org.pathvisio.model.PathwayModel;
+import org.pathvisio.model.type.DataNodeType;
+import org.pathvisio.view.model.TestPathways;
+import org.pathvisio.view.model.UndoManager;
+
+/**
+ * Saves a pathway a few times, so that changes end up in the journal, and
+ * recovers it from the checkpoint and the journal.
+ */
+public class AutoSaveTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private PathwayModel pathwayModel;
+	private UndoManager undoManager;
+	private AutoSave autoSave;
+
+	private void start() throws Exception
+	{
+		pathwayModel = TestPathways.create();
+		undoManager = new UndoManager();
+		undoManager.setPathwayModel(pathwayModel);
+		autoSave = new AutoSave(null, new Engine(), folder.getRoot());
+
+		pathwayModel.getDataNodes().get(0).setCenterX(120);
+		autoSave.saveNow(undoManager, pathwayModel);
+	}
+
+	/** @return the only checkpoint in the autosave directory */
+	private Map.Entry<String, Integer> checkpoint()
+	{
+		Map<String, Integer> checkpoints = autoSave.findCheckpoints();
+		assertEquals(1, checkpoints.size());
+		return checkpoints.entrySet().iterator().next();
+	}
+
+	private File journal(Map.Entry<String, Integer> checkpoint)
+	{
+		return new File(folder.getRoot(), checkpoint.getKey() + "." + checkpoint.getValue() + ".journal");
+	}
+
+	@Test
+	public void replayJournal() throws Exception
+	{
+		start();
+		DataNode a = pathwayModel.getDataNodes().get(0);
+		for (int i = 0; i < 5; ++i)
+		{
+			a.setCenterX(a.getCenterX() + 10);
+			autoSave.saveNow(undoManager, pathwayModel);
+		}
+		a.setTextColor(Color.RED);
+		pathwayModel.getPathway().setTitle("Changed");
+		autoSave.saveNow(undoManager, pathwayModel);
+
+		Map.Entry<String, Integer> checkpoint = checkpoint();
+		assertEquals(1, (int) checkpoint.getValue());
+		assertTrue(journal(checkpoint).exists());
+		PathwayModel recovered = autoSave.recover(checkpoint.getKey(), checkpoint.getValue());
+		assertEquals(TestPathways.toGpml(pathwayModel), TestPathways.toGpml(recovered));
+	}
+
+	/** Adding an element can't be journaled, so it writes a new checkpoint */
+	@Test
+	public void checkpointAfterAdd() throws Exception
+	{
+		start();
+		pathwayModel.getDataNodes().get(0).setCenterX(200);
+		autoSave.saveNow(undoManager, pathwayModel);
+		pathwayModel.addDataNode(new DataNode("C", DataNodeType.PROTEIN));
+		autoSave.saveNow(undoManager, pathwayModel);
+
+		Map.Entry<String, Integer> checkpoint = checkpoint();
+		assertEquals(2, (int) checkpoint.getValue());
+		PathwayModel recovered = autoSave.recover(checkpoint.getKey(), checkpoint.getValue());
+		assertEquals(TestPathways.toGpml(pathwayModel), TestPathways.toGpml(recovered));
+	}
+
+	/** Only the classes of the model are read from the journal */
+	@Test(expected = InvalidClassException.class)
+	public void rejectOtherClasses() throws Exception
+	{
+		start();
+		Map.Entry<String, Integer> checkpoint = checkpoint();
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		ObjectOutputStream objects = new ObjectOutputStream(buf);
+		objects.writeObject(new File("other"));
+		objects.close();
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(journal(checkpoint), true));
+		try
+		{
+			out.writeInt(buf.size());
+			out.write(buf.toByteArray());
+		}
+		finally
+		{
+			out.close();
+		}
+		autoSave.recover(checkpoint.getKey(), checkpoint.getValue());
+	}
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.application.exporter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import org.apache.batik.dom.GenericDOMImplementation;
+import org.apache.batik.svggen.SVGGraphics2D;
+import org.apache.batik.transcoder.Transcoder;
+import org.apache.batik.transcoder.TranscoderInput;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.apache.batik.transcoder.image.PNGTranscoder;
+import org.apache.batik.transcoder.image.TIFFTranscoder;
+import org.pathvisio.model.PathwayModel;
+import org.pathvisio.model.type.DataNodeType;
+import org.pathvisio.util.preferences.PreferenceManager;
+import org.pathvisio.view.model.DefaultTemplates.DataNodeTemplate;
+import org.pathvisio.view.model.VPathwayModel;
+import org.w3c.dom.Document;
+
+/**
+ * Compares peak heap and wall time of SVG, PNG and TIFF export of a pathway of
+ * 10,000 data nodes, through the complete Batik DOM (and transcoder) that
+ * {@link BatikImageWithDataExporter} used before, and through its direct
+ * pipeline. The canvas is large enough to be drawn in bands.
+ * <p>
+ * Run with a fixed heap, e.g. -Xmx2g. Not run as part of the unit tests, start
+ * it with main().
+ */
+public class ExportBenchmark
+{
+	private static final int COLS = 100;
+	private static final int ROWS = 100; // COLS * ROWS data nodes
+
+	public static void main(String[] args) throws Exception
+	{
+		PreferenceManager.init();
+		PathwayModel p = new PathwayModel();
+		DataNodeTemplate template = new DataNodeTemplate(DataNodeType.GENEPRODUCT);
+		for (int row = 0; row < ROWS; row++)
+		{
+			for (int col = 0; col < COLS; col++)
+			{
+				template.addElements(p, 60 + col * 100, 30 + row * 40);
+			}
+		}
+		File dir = File.createTempFile("export", "");
+		dir.delete();
+		dir.mkdir();
+
+		String[] types = { ImageExporter.TYPE_SVG, ImageExporter.TYPE_PNG, ImageExporter.TYPE_TIFF };
+		for (String type : types)
+		{
+			File legacy = new File(dir, "legacy." + type);
+			long baseline = resetPeak();
+			long start = System.nanoTime();
+			exportThroughDom(p, type, legacy);
+			report(type, "Batik DOM", start, baseline, legacy);
+
+			BatikImageWithDataExporter exporter = new BatikImageWithDataExporter(type, null, null);
+			exporter.setDataVisible(false);
+			File direct = new File(dir, "direct." + type);
+			baseline = resetPeak();
+			start = System.nanoTime();
+			exporter.doExport(direct, p);
+			report(type, "direct", start, baseline, direct);
+		}
+	}
+
+	/** the export as it was done before the direct pipeline */
+	private static void exportThroughDom(PathwayModel p, String type, File file) throws Exception
+	{
+		VPathwayModel vPathwayModel = new VPathwayModel(null);
+		vPathwayModel.fromModel(p);
+		Document svg = GenericDOMImplementation.getDOMImplementation()
+				.createDocument("http://www.w3.org/2000/svg", "svg", null);
+		SVGGraphics2D svgG2d = new SVGGraphics2D(svg);
+		vPathwayModel.draw(svgG2d);
+		svgG2d.setSVGCanvasSize(vPathwayModel.calculateVSize());
+
+		if (type.equals(ImageExporter.TYPE_SVG))
+		{
+			Writer out = new FileWriter(file);
+			svgG2d.stream(out, true);
+			out.close();
+		}
+		else
+		{
+			Transcoder t = type.equals(ImageExporter.TYPE_PNG) ? new PNGTranscoder() : new TIFFTranscoder();
+			svgG2d.getRoot(svg.getDocumentElement());
+			t.addTranscodingHint(ImageTranscoder.KEY_BACKGROUND_COLOR, java.awt.Color.WHITE);
+			OutputStream out = new FileOutputStream(file);
+			t.transcode(new TranscoderInput(svg), new TranscoderOutput(out));
+			out.close();
+		}
+		vPathwayModel.dispose();
+	}
+
+	/**
+	 * Collect garbage and reset the peak usage of the heap pools.
+	 * @return the heap in use afterwards.
+	 */
+	private static long resetPeak()
+	{
+		System.gc();
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP)
+			{
+				pool.resetPeakUsage();
+				used += pool.getUsage().getUsed();
+			}
+		}
+		return used;
+	}
+
+	private static long peak()
+	{
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	private static void report(String type, String pipeline, long start, long baseline, File file)
+	{
+		long end = System.nanoTime();
+		System.out.printf("%-4s %-10s %8.0f ms, peak heap %6d MB above baseline, %6d KB written%n", type,
+				pipeline, (end - start) / 1e6, (peak() - baseline) / (1024 * 1024), file.length() / 1024);
+	}
+}
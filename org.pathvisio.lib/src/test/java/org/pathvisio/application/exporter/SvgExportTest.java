@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.application.exporter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pathvisio.model.PathwayModel;
+import org.pathvisio.model.type.DataNodeType;
+import org.pathvisio.util.preferences.PreferenceManager;
+import org.pathvisio.view.model.DefaultTemplates.DataNodeTemplate;
+import org.w3c.dom.Document;
+
+/**
+ * Exports a pathway that takes several batches to SVG, and checks that the
+ * result is well-formed.
+ */
+public class SvgExportTest
+{
+	private static final String SVG_NS = "http://www.w3.org/2000/svg";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void exportIsWellFormed() throws Exception
+	{
+		PreferenceManager.init();
+		PathwayModel p = new PathwayModel();
+		DataNodeTemplate template = new DataNodeTemplate(DataNodeType.GENEPRODUCT);
+		int nodes = BatikImageWithDataExporter.SVG_BATCH_SIZE * 2 + 10;
+		for (int i = 0; i < nodes; i++)
+		{
+			template.addElements(p, 60 + (i % 20) * 100, 30 + (i / 20) * 40);
+		}
+
+		File file = folder.newFile("pathway.svg");
+		BatikImageWithDataExporter exporter = new BatikImageWithDataExporter(ImageExporter.TYPE_SVG, null, null);
+		exporter.setDataVisible(false);
+		exporter.doExport(file, p);
+
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		// don't fetch the SVG DTD
+		factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		DocumentBuilder builder = factory.newDocumentBuilder();
+		Document svg = builder.parse(file);
+
+		assertEquals("svg", svg.getDocumentElement().getLocalName());
+		assertEquals(SVG_NS, svg.getDocumentElement().getNamespaceURI());
+		// a group per batch at least, all in the SVG namespace
+		assertTrue(svg.getElementsByTagNameNS(SVG_NS, "g").getLength() >= 3);
+		assertTrue(svg.getElementsByTagNameNS(SVG_NS, "*").getLength() > nodes);
+	}
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.application.gex;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+import org.bridgedb.rdb.construct.DataDerby;
+
+/**
+ * Compares per-Xref and batched lookup latency of {@link SimpleGex#getData(Set)}.
+ * <p>
+ * Creates a synthetic dataset of 50,000 reporters times 20 samples (1M expression rows)
+ * and then looks up random sets of Xrefs, similar to the fan-out of a 300-node pathway.
+ * Each variant looks up its own set, and the variant that goes first alternates, so neither
+ * always runs on a cache that the other has warmed up. The first round is a warm-up and isn't counted.
+ * Not run as part of the unit tests, start it with main().
+ */
+public class GexLookupBenchmark
+{
+	private static final int REPORTERS = 50000;
+	private static final int SAMPLES = 20;
+	private static final int LOOKUP_SIZE = 3000;
+	private static final int REPEATS = 5;
+	private static final int WARMUP = 1;
+
+	public static void main(String[] args) throws Exception
+	{
+		DataSource ds = DataSource.register("X", "Benchmark").asDataSource();
+		File f = File.createTempFile("benchmark", ".pgex");
+		f.delete();
+
+		SimpleGex gex = new SimpleGex(f.getAbsolutePath(), true, new DataDerby());
+		gex.prepare();
+		for (int s = 0; s < SAMPLES; ++s) gex.addSample(s, "sample" + s, java.sql.Types.REAL);
+		Random random = new Random(1);
+		for (int r = 0; r < REPORTERS; ++r)
+		{
+			Xref ref = new Xref("id" + r, ds);
+			for (int s = 0; s < SAMPLES; ++s)
+			{
+				gex.addExpr(ref, "" + s, "" + random.nextGaussian(), r);
+			}
+		}
+		gex.finalize();
+		gex = new SimpleGex(gex.getDbName(), false, new DataDerby());
+
+		long perXrefTotal = 0;
+		long batchedTotal = 0;
+		for (int i = 0; i < WARMUP + REPEATS; ++i)
+		{
+			Set<Xref> perXrefRefs = randomRefs(random, ds);
+			Set<Xref> batchedRefs = randomRefs(random, ds);
+
+			long perXrefTime, batchedTime;
+			int perXref, batched;
+			if (i % 2 == 0)
+			{
+				long start = System.nanoTime();
+				perXref = gex.getDataPerXref(perXrefRefs).size();
+				long mid = System.nanoTime();
+				batched = gex.getData(batchedRefs).size();
+				long end = System.nanoTime();
+				perXrefTime = mid - start;
+				batchedTime = end - mid;
+			}
+			else
+			{
+				long start = System.nanoTime();
+				batched = gex.getData(batchedRefs).size();
+				long mid = System.nanoTime();
+				perXref = gex.getDataPerXref(perXrefRefs).size();
+				long end = System.nanoTime();
+				batchedTime = mid - start;
+				perXrefTime = end - mid;
+			}
+
+			System.out.printf("%s%d xrefs: per-xref %d ms (%d rows), batched %d ms (%d rows)%n",
+					i < WARMUP ? "(warm-up) " : "", LOOKUP_SIZE, perXrefTime / 1000000, perXref,
+					batchedTime / 1000000, batched);
+			if (i >= WARMUP)
+			{
+				perXrefTotal += perXrefTime;
+				batchedTotal += batchedTime;
+			}
+		}
+		System.out.printf("average: per-xref %d ms, batched %d ms%n",
+				perXrefTotal / REPEATS / 1000000, batchedTotal / REPEATS / 1000000);
+		gex.close();
+	}
+
+	private static Set<Xref> randomRefs(Random random, DataSource ds)
+	{
+		Set<Xref> refs = new HashSet<Xref>();
+		while (refs.size() < LOOKUP_SIZE) refs.add(new Xref("id" + random.nextInt(REPORTERS), ds));
+		return refs;
+	}
+}
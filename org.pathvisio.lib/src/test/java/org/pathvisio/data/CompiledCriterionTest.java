@@ -0,0 +1,370 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.bridgedb.DataSource;
+import org.bridgedb.Xref;
+import org.junit.Test;
+
+/**
+ * Checks that {@link CompiledCriterion} gives the same answers as the {@link Criterion} interpreter,
+ * where an interpreter error counts as not meeting the criterion.
+ */
+public class CompiledCriterionTest
+{
+	private static final List<String> SYMBOLS = Arrays.asList("a", "b", "c");
+	private static final int ROWS = 2000;
+
+	private static final String[] EXPRESSIONS = {
+		"[a] > 1",
+		"[a] > 1 AND [b] < 0.5",
+		"[a] >= 0 OR NOT ([b] <= 0)",
+		"NOT ([a] > 0)",
+		"[a] = [b]",
+		"[a] <> [b]",
+		"[a] = 1",
+		"([a] > 0) = ([b] > 0)",
+		"[a] + [b] * 2 - [c] / 3 > 0",
+		"-[a] < [b]",
+		"ISNUMBER([a])",
+		"ISNUMBER([a]) AND [a] > 0",
+		"[a] = \"up\"",
+		"[a] = \"up\" OR [b] > 0",
+		"1 = 1",
+		"ABS([a]) >= 1.5",
+		"AVERAGE([a], [b], [c]) > 0",
+		"MAX([a], [b]) - MIN([b], [c]) > 1",
+		"SUM([a], [b]) <= SUMSQ([c])",
+		"STDEV([a], [b], [c]) < 1",
+		"SQRT(ABS([a])) + EXP([b]) > POWER([c], 2)",
+		"IF([a] > 0, [b], [c]) > 0",
+		"NOT (ABS([a]) > 1)",
+		"ABS([a]) < 1 OR [b] > 0",
+		"ISNUMBER(ABS([a]))",
+	};
+
+	/**
+	 * The interpreter, with errors counting as false, like {@link CompiledCriterion} documents.
+	 * Its functions fail with a NullPointerException on NA arguments.
+	 */
+	private static boolean interpret(Criterion criterion, Object[] values)
+	{
+		Map<String, Object> data = new HashMap<String, Object>();
+		for (int i = 0; i < values.length; ++i) data.put(SYMBOLS.get(i), values[i]);
+		try
+		{
+			return criterion.evaluate(data);
+		}
+		catch (Criterion.CriterionException ex)
+		{
+			return false;
+		}
+		catch (NullPointerException ex)
+		{
+			return false;
+		}
+	}
+
+	private static Criterion parse(String expression)
+	{
+		Criterion criterion = new Criterion();
+		String error = criterion.setExpression(expression, SYMBOLS);
+		assertEquals(expression, null, error);
+		return criterion;
+	}
+
+	/** Random rows of numbers, optionally with some missing values and some text */
+	private static List<Object[]> corpus(boolean withMissing, boolean withText)
+	{
+		String[] words = { "up", "down", "" };
+		Random random = new Random(1);
+		List<Object[]> result = new ArrayList<Object[]>();
+		for (int row = 0; row < ROWS; ++row)
+		{
+			Object[] values = new Object[SYMBOLS.size()];
+			for (int i = 0; i < values.length; ++i)
+			{
+				int kind = random.nextInt(20);
+				if (kind == 0 && withMissing) values[i] = null;
+				else if (kind == 1 && withText) values[i] = words[random.nextInt(words.length)];
+				// small integers, so that equality comes up
+				else if (kind < 5) values[i] = (double)(random.nextInt(3) - 1);
+				else values[i] = random.nextGaussian() * 2;
+			}
+			result.add(values);
+		}
+		return result;
+	}
+
+	private static void compareNumbers(String expression, List<Object[]> corpus) throws Throwable
+	{
+		Criterion criterion = parse(expression);
+		CompiledCriterion compiled = criterion.compile(SYMBOLS);
+		assertTrue(expression, compiled.isTyped());
+		for (Object[] values : corpus)
+		{
+			double[] numbers = new double[values.length];
+			for (int i = 0; i < values.length; ++i) numbers[i] = CompiledCriterion.toValue(values[i]);
+			boolean expected = interpret(criterion, values);
+			assertEquals(expression + " " + Arrays.toString(values), expected, compiled.evaluate(numbers));
+			assertEquals(expression + " " + Arrays.toString(values), expected, compiled.evaluate(values));
+		}
+	}
+
+	@Test
+	public void numbersMatchInterpreter() throws Throwable
+	{
+		for (String expression : EXPRESSIONS)
+		{
+			if (expression.contains("\"")) continue; // text literals can't be typed
+			compareNumbers(expression, corpus(true, false));
+		}
+	}
+
+	@Test
+	public void rawValuesMatchInterpreter() throws Throwable
+	{
+		for (String expression : EXPRESSIONS)
+		{
+			Criterion criterion = parse(expression);
+			CompiledCriterion compiled = criterion.compile(SYMBOLS);
+			for (Object[] values : corpus(true, true))
+			{
+				assertEquals(expression + " " + Arrays.toString(values),
+						interpret(criterion, values), compiled.evaluate(values));
+			}
+		}
+	}
+
+	@Test
+	public void datasetMatchesInterpreter() throws Throwable
+	{
+		List<Object[]> rows = corpus(true, true);
+		TableData data = new TableData(rows);
+		for (String expression : EXPRESSIONS)
+		{
+			Criterion criterion = parse(expression);
+			BitSet result = criterion.compile(SYMBOLS).evaluate(data);
+			for (int row = 0; row < rows.size(); ++row)
+			{
+				assertEquals(expression + " " + Arrays.toString(rows.get(row)),
+						interpret(criterion, rows.get(row)), result.get(row));
+			}
+		}
+	}
+
+	/**
+	 * Column-wise evaluation, directly and through {@link ColumnarData}, must treat
+	 * rows with NA arguments to functions like the interpreter does.
+	 */
+	@Test
+	public void columnsMatchInterpreter() throws Throwable
+	{
+		List<Object[]> rows = corpus(true, false);
+		double[][] columns = new double[SYMBOLS.size()][rows.size()];
+		for (int row = 0; row < rows.size(); ++row)
+		{
+			for (int i = 0; i < columns.length; ++i) columns[i][row] = CompiledCriterion.toValue(rows.get(row)[i]);
+		}
+		ColumnarTableData data = new ColumnarTableData(rows, columns);
+		for (String expression : EXPRESSIONS)
+		{
+			if (expression.contains("\"")) continue; // text literals can't be typed
+			Criterion criterion = parse(expression);
+			CompiledCriterion compiled = criterion.compile(SYMBOLS);
+			assertTrue(expression, compiled.isTyped());
+			BitSet direct = compiled.evaluate(columns, rows.size());
+			BitSet columnar = compiled.evaluate(data);
+			for (int row = 0; row < rows.size(); ++row)
+			{
+				boolean expected = interpret(criterion, rows.get(row));
+				assertEquals(expression + " " + Arrays.toString(rows.get(row)), expected, direct.get(row));
+				assertEquals(expression + " " + Arrays.toString(rows.get(row)), expected, columnar.get(row));
+			}
+		}
+	}
+
+	/** An expression that evaluates to NA as a whole is an error for the interpreter, and false when compiled */
+	@Test
+	public void topLevelNA() throws Throwable
+	{
+		Criterion criterion = parse("[a] > 1");
+		CompiledCriterion compiled = criterion.compile(SYMBOLS);
+		assertTrue(compiled.isTyped());
+		assertFalse(compiled.evaluate(new double[] { Double.NaN, 0, 0 }));
+		assertFalse(compiled.evaluate(new Object[] { null, 0.0, 0.0 }));
+
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("a", null);
+		data.put("b", 0.0);
+		data.put("c", 0.0);
+		try
+		{
+			criterion.evaluate(data);
+			fail("Expected an error for an NA result");
+		}
+		catch (Criterion.CriterionException ex)
+		{
+			// expected
+		}
+	}
+
+	/**
+	 * Text that is passed as doubles becomes NaN, and then equals any other text.
+	 * Passed as it is, text is compared by value, like the interpreter does.
+	 */
+	@Test
+	public void differentTextIsNotEqual() throws Throwable
+	{
+		Criterion criterion = parse("[a] = [b]");
+		CompiledCriterion compiled = criterion.compile(SYMBOLS);
+		assertTrue(compiled.isTyped());
+
+		double up = CompiledCriterion.toValue("up");
+		double down = CompiledCriterion.toValue("down");
+		assertTrue(compiled.evaluate(new double[] { up, down, 0 }));
+
+		Object[] values = new Object[] { "up", "down", 0.0 };
+		assertFalse(interpret(criterion, values));
+		assertFalse(compiled.evaluate(values));
+		assertTrue(compiled.evaluate(new Object[] { "up", "up", 0.0 }));
+		assertFalse(compiled.evaluate(new Object[] { "up", null, 0.0 }));
+
+		BitSet result = compiled.evaluate(new TableData(Collections.singletonList(values)));
+		assertFalse(result.get(0));
+	}
+
+	/** An expression without symbols has no columns, but still applies to every row */
+	@Test
+	public void constantMatchesAllRows() throws Throwable
+	{
+		Criterion criterion = new Criterion();
+		assertEquals(null, criterion.setExpression("1 = 1"));
+		CompiledCriterion compiled = criterion.compile(Collections.<String>emptyList());
+		assertTrue(compiled.isTyped());
+		assertEquals(5, compiled.evaluate(new double[0][], 5).cardinality());
+
+		BitSet result = compiled.evaluate(new TableData(corpus(true, true)));
+		assertEquals(ROWS, result.cardinality());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void columnsMustHaveRowCount() throws Throwable
+	{
+		CompiledCriterion compiled = parse("[a] > [b] + [c]").compile(SYMBOLS);
+		compiled.evaluate(new double[][] { new double[4], new double[4], new double[3] }, 4);
+	}
+
+	/** Minimal in-memory dataset, only supports what CompiledCriterion uses */
+	private static class TableData implements DataInterface
+	{
+		private final List<TableSample> samples = new ArrayList<TableSample>();
+		private final List<IRow> rows = new ArrayList<IRow>();
+
+		TableData(List<Object[]> values)
+		{
+			for (int i = 0; i < SYMBOLS.size(); ++i) samples.add(new TableSample(i, SYMBOLS.get(i)));
+			for (Object[] row : values) rows.add(new TableRow(row));
+		}
+
+		public ISample getSample(int id) { return samples.get(id); }
+
+		public ISample findSample(String name)
+		{
+			for (TableSample s : samples)
+			{
+				if (s.getName().equals(name)) return s;
+			}
+			return null;
+		}
+
+		public List<String> getSampleNames() { return SYMBOLS; }
+		public List<String> getSampleNames(int dataType) { return SYMBOLS; }
+		public List<? extends ISample> getOrderedSamples() { return samples; }
+		public Set<DataSource> getUsedDatasources() { throw new UnsupportedOperationException(); }
+		public IRow getRow(int rowId) { return rows.get(rowId); }
+		public int getNrRow() { return rows.size(); }
+		public Map<Integer, ? extends ISample> getSamples() { throw new UnsupportedOperationException(); }
+		public Collection<? extends IRow> getData(Set<Xref> destRefs) { throw new UnsupportedOperationException(); }
+		public Iterable<IRow> getIterator() { return rows; }
+		public boolean isConnected() { return true; }
+		public String getDbName() { return "table"; }
+		public void close() { }
+
+		private class TableRow implements IRow
+		{
+			private final Object[] values;
+
+			TableRow(Object[] values) { this.values = values; }
+
+			public Object getSampleData(ISample s) { return values[s.getId()]; }
+			public Xref getXref() { return null; }
+			public Map<String, Object> getByName() { throw new UnsupportedOperationException(); }
+			public Collection<? extends ISample> getSamples() { return samples; }
+			public int getGroup() { return 0; }
+			public int compareTo(IRow other) { return 0; }
+		}
+	}
+
+	/** Dataset that also hands out its columns, so that evaluation skips the row iterator */
+	private static class ColumnarTableData extends TableData implements ColumnarData
+	{
+		private final double[][] columns;
+
+		ColumnarTableData(List<Object[]> values, double[][] columns)
+		{
+			super(values);
+			this.columns = columns;
+		}
+
+		public double[] getColumn(ISample s) { return columns[s.getId()].clone(); }
+	}
+
+	private static class TableSample implements ISample
+	{
+		private final int id;
+		private final String name;
+
+		TableSample(int id, String name)
+		{
+			this.id = id;
+			this.name = name;
+		}
+
+		public String getName() { return name; }
+		public Integer getId() { return id; }
+		public int getDataType() { return ISample.NUMBER_EXPR; }
+		public String getFactor() { return null; }
+		public int compareTo(ISample other) { return id - other.getId(); }
+	}
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares per-row evaluation time of the {@link Criterion} interpreter
+ * with {@link CompiledCriterion}, and checks that both give the same answer.
+ * <p>
+ * Values are random, with about 5% NA. Not run as part of the unit tests, start it with main().
+ */
+public class CriterionBenchmark
+{
+	private static final int ROWS = 200000;
+	private static final int REPEATS = 5;
+
+	private static final String[] EXPRESSIONS = {
+		"[logFC] > 1 AND [pvalue] < 0.05",
+		"ABS([logFC]) >= 1.5 OR NOT ([pvalue] <= 0.01)",
+		"AVERAGE([a], [b], [c]) - [logFC] * 2 > 0",
+		"IF([pvalue] < 0.05, [logFC], 0) <> 0",
+	};
+
+	public static void main(String[] args) throws Exception
+	{
+		List<String> symbols = Arrays.asList("logFC", "pvalue", "a", "b", "c");
+		Random random = new Random(1);
+		double[][] rows = new double[ROWS][symbols.size()];
+		for (double[] row : rows)
+		{
+			for (int i = 0; i < row.length; ++i)
+			{
+				row[i] = random.nextInt(20) == 0 ? Double.NaN : random.nextGaussian() * 2;
+			}
+			row[1] = Math.abs(row[1]) / 10;
+		}
+
+		for (String expr : EXPRESSIONS)
+		{
+			Criterion criterion = new Criterion();
+			criterion.setExpression(expr, symbols);
+			CompiledCriterion compiled = criterion.compile(symbols);
+
+			for (int r = 0; r < REPEATS; ++r)
+			{
+				int interpreted = 0;
+				int mismatches = 0;
+				boolean[] expected = new boolean[ROWS];
+				long start = System.nanoTime();
+				for (int i = 0; i < ROWS; ++i)
+				{
+					Map<String, Object> data = new HashMap<String, Object>();
+					for (int j = 0; j < symbols.size(); ++j)
+					{
+						data.put(symbols.get(j), Double.isNaN(rows[i][j]) ? null : rows[i][j]);
+					}
+					try
+					{
+						expected[i] = criterion.evaluate(data);
+					}
+					catch (Criterion.CriterionException ex)
+					{
+						expected[i] = false;
+					}
+					if (expected[i]) interpreted++;
+				}
+				long mid = System.nanoTime();
+				int fast = 0;
+				for (int i = 0; i < ROWS; ++i)
+				{
+					boolean result = compiled.evaluate(rows[i]);
+					if (result) fast++;
+					if (result != expected[i]) mismatches++;
+				}
+				long end = System.nanoTime();
+
+				System.out.printf("%s%n  interpreted %d ns/row (%d hits), compiled%s %d ns/row (%d hits), %d mismatches%n",
+						expr, (mid - start) / ROWS, interpreted, compiled.isTyped() ? "" : " (fallback)",
+						(end - mid) / ROWS, fast, mismatches);
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import org.pathvisio.model.PathwayModel;
+import org.pathvisio.model.type.DataNodeType;
+import org.pathvisio.util.preferences.PreferenceManager;
+import org.pathvisio.view.model.DefaultTemplates.DataNodeTemplate;
+import org.pathvisio.view.model.VPathwayEvent.VPathwayEventType;
+
+/**
+ * Measures paint time and allocations of {@link VPathwayModel#draw} on a pathway
+ * of 1000 data nodes, with a batched {@link VPathwayDrawListener} and with the
+ * per-element dispatch it replaced.
+ * <p>
+ * The per-element dispatch is emulated by a draw listener that does, for every
+ * drawn element, the work the draw loop used to do: two extra Graphics copies
+ * and one ELEMENT_DRAWN event passed to a listener. Not run as part of the unit
+ * tests, start it with main().
+ */
+public class DrawDispatchBenchmark {
+	private static final int COLS = 40;
+	private static final int ROWS = 25; // COLS * ROWS data nodes
+	private static final int WARMUP = 20;
+	private static final int REPEATS = 50;
+
+	public static void main(String[] args) throws Exception {
+		PreferenceManager.init();
+		PathwayModel p = new PathwayModel();
+		DataNodeTemplate template = new DataNodeTemplate(DataNodeType.GENEPRODUCT);
+		for (int row = 0; row < ROWS; row++) {
+			for (int col = 0; col < COLS; col++) {
+				template.addElements(p, 60 + col * 100, 30 + row * 40);
+			}
+		}
+		final VPathwayModel vPwy = new VPathwayModel(null);
+		vPwy.fromModel(p);
+		BufferedImage image = new BufferedImage(vPwy.getVWidth(), vPwy.getVHeight(), BufferedImage.TYPE_INT_RGB);
+
+		final int[] count = new int[1];
+		VPathwayDrawListener batched = new VPathwayDrawListener() {
+			public void elementsDrawn(VPathwayModel vPathway, List<VElement> elements, Graphics2D g2d) {
+				count[0] += elements.size();
+			}
+		};
+		final VPathwayListener eventListener = new VPathwayListener() {
+			public void vPathwayEvent(VPathwayEvent e) {
+				if (e.getType() == VPathwayEventType.ELEMENT_DRAWN)
+					count[0]++;
+			}
+		};
+		VPathwayDrawListener perElement = new VPathwayDrawListener() {
+			@SuppressWarnings("deprecation")
+			public void elementsDrawn(VPathwayModel vPathway, List<VElement> elements, Graphics2D g2d) {
+				for (VElement o : elements) {
+					Graphics2D copy = (Graphics2D) g2d.create();
+					eventListener.vPathwayEvent(new VPathwayEvent(vPathway, o, (Graphics2D) g2d.create(),
+							VPathwayEventType.ELEMENT_DRAWN));
+					copy.dispose();
+				}
+			}
+		};
+
+		measure("no listener", vPwy, image, count);
+		vPwy.addVPathwayDrawListener(batched);
+		measure("batched", vPwy, image, count);
+		vPwy.removeVPathwayDrawListener(batched);
+		vPwy.addVPathwayDrawListener(perElement);
+		measure("per element", vPwy, image, count);
+		vPwy.dispose();
+	}
+
+	private static void measure(String name, VPathwayModel vPwy, BufferedImage image, int[] count) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		for (int i = 0; i < WARMUP; i++)
+			paint(vPwy, image);
+
+		count[0] = 0;
+		long bytes = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < REPEATS; i++)
+			paint(vPwy, image);
+		long end = System.nanoTime();
+		bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+		System.out.printf("%-12s %.2f ms/paint, %d KB allocated/paint, %d elements reported/paint%n", name,
+				(end - start) / 1e6 / REPEATS, bytes / 1024 / REPEATS, count[0] / REPEATS);
+	}
+
+	private static void paint(VPathwayModel vPwy, BufferedImage image) {
+		Graphics2D g = image.createGraphics();
+		vPwy.draw(g);
+		g.dispose();
+	}
+}
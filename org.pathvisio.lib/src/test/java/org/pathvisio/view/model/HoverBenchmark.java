@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.awt.geom.Point2D;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.pathvisio.model.PathwayModel;
+import org.pathvisio.model.type.DataNodeType;
+import org.pathvisio.util.preferences.PreferenceManager;
+import org.pathvisio.view.MouseEvent;
+import org.pathvisio.view.VElementMouseEvent;
+import org.pathvisio.view.VElementMouseListener;
+import org.pathvisio.view.model.DefaultTemplates.DataNodeTemplate;
+
+/**
+ * Replays a trace of mouse moves over a pathway of 5000 data nodes, and
+ * compares the time and allocations of {@link VPathwayModel#updateHover} with
+ * the hover processing it replaced (a new list and set per move, and a linear
+ * lookup of each hovered element). Both fire mouse enter and exit events to
+ * the same listener, which only counts them.
+ * <p>
+ * The trace is generated with a fixed seed, and imitates the mouse sweeping
+ * over the pathway: runs of small steps in a roughly constant direction. Not
+ * run as part of the unit tests, start it with main().
+ */
+public class HoverBenchmark {
+	private static final int COLS = 100;
+	private static final int ROWS = 50; // COLS * ROWS data nodes
+	private static final int MOVES = 200000;
+	private static final int REPEATS = 5;
+
+	public static void main(String[] args) throws Exception {
+		PreferenceManager.init();
+		PathwayModel p = new PathwayModel();
+		DataNodeTemplate template = new DataNodeTemplate(DataNodeType.GENEPRODUCT);
+		for (int row = 0; row < ROWS; row++) {
+			for (int col = 0; col < COLS; col++) {
+				template.addElements(p, 60 + col * 100, 30 + row * 40);
+			}
+		}
+		VPathwayModel vPwy = new VPathwayModel(null);
+		vPwy.fromModel(p);
+		final int[] events = new int[1];
+		vPwy.addVElementMouseListener(new VElementMouseListener() {
+			public void vElementMouseEvent(VElementMouseEvent e) {
+				events[0]++;
+			}
+		});
+		MouseEvent[] trace = createTrace(vPwy, vPwy.getVWidth(), vPwy.getVHeight());
+
+		for (int i = 0; i < REPEATS; i++) {
+			events[0] = 0;
+			long[] legacy = replayLegacy(vPwy, trace);
+			int legacyEvents = events[0];
+			events[0] = 0;
+			long[] current = replay(vPwy, trace);
+			System.out.printf("%d moves: legacy %d ms, %d bytes/move, %d events; current %d ms, %d bytes/move, %d events%n",
+					MOVES, legacy[0] / 1000000, legacy[1] / MOVES, legacyEvents, current[0] / 1000000,
+					current[1] / MOVES, events[0]);
+		}
+		vPwy.dispose();
+	}
+
+	private static MouseEvent[] createTrace(VPathwayModel vPwy, int width, int height) {
+		Random random = new Random(1);
+		MouseEvent[] trace = new MouseEvent[MOVES];
+		double x = width / 2, y = height / 2;
+		double dx = 0, dy = 0;
+		for (int i = 0; i < MOVES; i++) {
+			if (i % 50 == 0) { // change direction
+				double angle = random.nextDouble() * 2 * Math.PI;
+				double speed = 1 + random.nextDouble() * 8;
+				dx = Math.cos(angle) * speed;
+				dy = Math.sin(angle) * speed;
+			}
+			x = Math.max(0, Math.min(width - 1, x + dx + random.nextGaussian()));
+			y = Math.max(0, Math.min(height - 1, y + dy + random.nextGaussian()));
+			trace[i] = new MouseEvent(vPwy, MouseEvent.MOUSE_MOVE, MouseEvent.BUTTON_NONE, (int) x, (int) y, 0, 0,
+					false) {
+			};
+		}
+		return trace;
+	}
+
+	/** @return elapsed ns and allocated bytes */
+	private static long[] replay(VPathwayModel vPwy, MouseEvent[] trace) {
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (MouseEvent e : trace)
+			vPwy.updateHover(e);
+		long end = System.nanoTime();
+		return new long[] { end - start, allocatedBytes() - bytes };
+	}
+
+	/**
+	 * The hover processing as it was before. The pathway has no labels with a
+	 * link, so the hyperlink handling is left out, like it is skipped in
+	 * updateHover.
+	 */
+	private static long[] replayLegacy(VPathwayModel vPwy, MouseEvent[] trace) {
+		Set<VElement> lastMouseOver = new HashSet<VElement>();
+		long bytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (MouseEvent e : trace) {
+			List<VElement> objects = vPwy.getObjectsAt(new Point2D.Double(e.getX(), e.getY()));
+			Set<VElement> toRemove = new HashSet<VElement>();
+			for (VElement vpe : lastMouseOver) {
+				if (!objects.contains(vpe)) {
+					toRemove.add(vpe);
+					vPwy.fireVElementMouseEvent(
+							new VElementMouseEvent(vPwy, VElementMouseEvent.TYPE_MOUSEEXIT, vpe, e));
+				}
+			}
+			lastMouseOver.removeAll(toRemove);
+			for (VElement vpe : objects) {
+				if (lastMouseOver.add(vpe)) {
+					vPwy.fireVElementMouseEvent(
+							new VElementMouseEvent(vPwy, VElementMouseEvent.TYPE_MOUSEENTER, vpe, e));
+				}
+			}
+		}
+		long end = System.nanoTime();
+		return new long[] { end - start, allocatedBytes() - bytes };
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.awt.Color;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.pathvisio.controller.Engine;
+import org.pathvisio.model.DataNode;
+import org.pathvisio.model.Group;
+import org.pathvisio.model.Interaction;
+import org.pathvisio.model.PathwayElement;
+import org.pathvisio.model.PathwayModel;
+import org.pathvisio.model.type.DataNodeType;
+
+/**
+ * Takes {@link PathwaySnapshot}s, changes the pathway and restores them, and
+ * compares the result with the original pathway.
+ */
+public class PathwaySnapshotTest {
+
+	@Test
+	public void restoreChangedProperties() throws Exception {
+		PathwayModel p = TestPathways.create();
+		List<String> original = TestPathways.toGpml(p);
+		UndoManager undo = new UndoManager();
+		undo.setPathwayModel(p);
+		PathwaySnapshot snapshot = undo.takeSnapshot();
+
+		DataNode a = p.getDataNodes().get(0);
+		a.setCenterX(500);
+		a.setTextColor(Color.RED);
+		p.getPathway().setTitle("Changed");
+		undo.restore(snapshot);
+
+		assertEquals(original, TestPathways.toGpml(p));
+	}
+
+	@Test
+	public void restoreAddedAndRemoved() throws Exception {
+		PathwayModel p = TestPathways.create();
+		List<String> original = TestPathways.toGpml(p);
+		UndoManager undo = new UndoManager();
+		undo.setPathwayModel(p);
+		PathwaySnapshot snapshot = undo.takeSnapshot();
+
+		// remove in the order that breaks the references: nodes before the line and group
+		Interaction line = p.getInteractions().get(0);
+		Group group = p.getGroups().get(0);
+		for (DataNode n : p.getDataNodes().toArray(new DataNode[0])) {
+			p.remove(n);
+		}
+		p.remove(line);
+		p.remove(group);
+		DataNode added = new DataNode("C", DataNodeType.PROTEIN);
+		p.addDataNode(added);
+		undo.restore(snapshot);
+
+		assertEquals(original, TestPathways.toGpml(p));
+	}
+
+	/** Repeated changes, each followed by a snapshot, restored from newest to oldest */
+	@Test
+	public void restoreSeries() throws Exception {
+		PathwayModel p = TestPathways.create();
+		UndoManager undo = new UndoManager();
+		undo.setPathwayModel(p);
+		DataNode a = p.getDataNodes().get(0);
+		PathwaySnapshot[] snapshots = new PathwaySnapshot[10];
+		@SuppressWarnings("unchecked")
+		List<String>[] states = new List[10];
+		for (int i = 0; i < snapshots.length; ++i) {
+			states[i] = TestPathways.toGpml(p);
+			snapshots[i] = undo.takeSnapshot();
+			a.setCenterX(a.getCenterX() + 10);
+		}
+		for (int i = snapshots.length - 1; i >= 0; --i) {
+			undo.restore(snapshots[i]);
+			assertEquals(states[i], TestPathways.toGpml(p));
+		}
+	}
+
+	@Test
+	public void sharedStructure() throws Exception {
+		PathwayModel p = TestPathways.create();
+		UndoManager undo = new UndoManager();
+		undo.setPathwayModel(p);
+		PathwaySnapshot first = undo.takeSnapshot();
+		assertSame(first, undo.takeSnapshot());
+
+		DataNode a = p.getDataNodes().get(0);
+		a.setCenterX(500);
+		PathwaySnapshot second = undo.takeSnapshot();
+		Map<String, PathwayElement> changed = second.getChangedSince(first);
+		assertEquals(1, changed.size());
+		assertEquals(500, ((DataNode) changed.get(a.getElementId())).getCenterX(), 0);
+
+		p.addDataNode(new DataNode("C", DataNodeType.PROTEIN));
+		assertNull(undo.takeSnapshot().getChangedSince(second));
+	}
+
+	/**
+	 * A snapshot of a pathway that was replaced doesn't apply to the new one, and
+	 * undo actions with such a snapshot are dropped.
+	 */
+	@Test
+	public void snapshotOfOtherPathway() throws Exception {
+		PathwayModel p = TestPathways.create();
+		UndoManager undo = new UndoManager();
+		undo.activate(new Engine());
+		undo.setPathwayModel(p);
+		PathwaySnapshot snapshot = undo.takeSnapshot();
+		undo.newAction("Move");
+		assertEquals("Move", undo.getTopMessage());
+
+		PathwayModel other = TestPathways.create();
+		other.getDataNodes().get(0).setCenterX(500);
+		List<String> expected = TestPathways.toGpml(other);
+		undo.setPathwayModel(other);
+		assertEquals(UndoManager.CANT_UNDO, undo.getTopMessage());
+		undo.restore(snapshot);
+		assertEquals(expected, TestPathways.toGpml(other));
+		assertFalse(expected.equals(TestPathways.toGpml(p)));
+		assertNull(undo.takeSnapshot().getChangedSince(snapshot));
+	}
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.pathvisio.io.GpmlFormat;
+import org.pathvisio.model.DataNode;
+import org.pathvisio.model.Group;
+import org.pathvisio.model.Interaction;
+import org.pathvisio.model.Label;
+import org.pathvisio.model.LineElement.LinePoint;
+import org.pathvisio.model.PathwayModel;
+import org.pathvisio.model.type.ArrowHeadType;
+import org.pathvisio.model.type.DataNodeType;
+import org.pathvisio.model.type.GroupType;
+
+/**
+ * Small pathways for the undo and snapshot tests, and a way to compare them.
+ */
+public class TestPathways {
+
+	/**
+	 * @return a pathway with two data nodes in a group, an interaction between
+	 *         them and a label.
+	 */
+	public static PathwayModel create() {
+		PathwayModel p = new PathwayModel();
+		DataNode a = new DataNode("A", DataNodeType.GENEPRODUCT);
+		a.setCenterX(100);
+		a.setCenterY(100);
+		a.setWidth(80);
+		a.setHeight(20);
+		p.addDataNode(a);
+		DataNode b = new DataNode("B", DataNodeType.METABOLITE);
+		b.setCenterX(300);
+		b.setCenterY(100);
+		b.setWidth(80);
+		b.setHeight(20);
+		p.addDataNode(b);
+
+		Interaction line = new Interaction();
+		List<LinePoint> points = new ArrayList<LinePoint>();
+		points.add(line.new LinePoint(ArrowHeadType.UNDIRECTED, 140, 100));
+		points.add(line.new LinePoint(ArrowHeadType.DIRECTED, 260, 100));
+		line.setLinePoints(points);
+		p.addInteraction(line);
+		line.getStartLinePoint().linkTo(a, 1, 0);
+		line.getEndLinePoint().linkTo(b, -1, 0);
+
+		Label label = new Label("Label");
+		label.setCenterX(200);
+		label.setCenterY(50);
+		label.setWidth(60);
+		label.setHeight(20);
+		p.addLabel(label);
+
+		Group group = new Group(GroupType.GROUP);
+		p.add(group);
+		a.setGroupRefTo(group);
+		b.setGroupRefTo(group);
+		return p;
+	}
+
+	/**
+	 * The pathway as GPML, one line per item, sorted. Elements that were removed
+	 * and added back may be written in another order, which doesn't matter here.
+	 */
+	public static List<String> toGpml(PathwayModel p) throws Exception {
+		File file = File.createTempFile("pathway", ".gpml");
+		try {
+			GpmlFormat.writeToXml(p, file, true);
+			List<String> lines = new ArrayList<String>();
+			for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+				lines.add(line.trim());
+			}
+			Collections.sort(lines);
+			return lines;
+		} finally {
+			file.delete();
+		}
+	}
+}
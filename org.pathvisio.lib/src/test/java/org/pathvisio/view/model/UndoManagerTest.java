@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * PathVisio, a tool for data visualization and analysis using biological pathways
+ * Copyright 2006-2021 BiGCaT Bioinformatics, WikiPathways
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ ******************************************************************************/
+package org.pathvisio.view.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pathvisio.controller.Engine;
+import org.pathvisio.model.DataNode;
+import org.pathvisio.model.PathwayModel;
+import org.pathvisio.model.type.DataNodeType;
+import org.pathvisio.util.preferences.GlobalPreference;
+import org.pathvisio.util.preferences.PreferenceManager;
+
+/**
+ * Changes a pathway with undo in delta mode, undoes the changes and compares
+ * the result with the original pathway.
+ */
+public class UndoManagerTest {
+
+	private String oldDelta;
+	private PathwayModel p;
+	private List<String> original;
+	private UndoManager undo;
+
+	@Before
+	public void setUp() throws Exception {
+		PreferenceManager.init();
+		// not stored, only changed for the undo managers of this test
+		oldDelta = PreferenceManager.getCurrent().get(GlobalPreference.UNDO_DELTA);
+		PreferenceManager.getCurrent().setBoolean(GlobalPreference.UNDO_DELTA, true);
+
+		p = TestPathways.create();
+		original = TestPathways.toGpml(p);
+		undo = new UndoManager();
+		undo.activate(new Engine());
+		undo.setPathwayModel(p);
+		assertTrue(undo.isDeltaMode());
+	}
+
+	@After
+	public void tearDown() {
+		PreferenceManager.getCurrent().set(GlobalPreference.UNDO_DELTA, oldDelta);
+	}
+
+	@Test
+	public void undoPropertyChange() throws Exception {
+		undo.newAction("Change");
+		DataNode a = p.getDataNodes().get(0);
+		a.setCenterX(500);
+		a.setTextColor(Color.RED);
+		p.getPathway().setTitle("Changed");
+		assertEquals("Change", undo.getTopMessage());
+		undo.undo();
+
+		assertEquals(original, TestPathways.toGpml(p));
+		assertEquals(UndoManager.CANT_UNDO, undo.getTopMessage());
+	}
+
+	@Test
+	public void undoAdd() throws Exception {
+		undo.newAction("Add");
+		DataNode c = new DataNode("C", DataNodeType.PROTEIN);
+		p.addDataNode(c);
+		c.setCenterX(400);
+		undo.undo();
+
+		assertEquals(original, TestPathways.toGpml(p));
+	}
+
+	@Test
+	public void undoRemove() throws Exception {
+		undo.newAction("Remove");
+		p.remove(p.getDataNodes().get(0));
+		p.remove(p.getInteractions().get(0));
+		undo.undo();
+
+		assertEquals(original, TestPathways.toGpml(p));
+	}
+
+	/** Many drags, each a separate action of many small moves, undone one by one */
+	@Test
+	public void undoRepeatedDrags() throws Exception {
+		DataNode a = p.getDataNodes().get(0);
+		DataNode b = p.getDataNodes().get(1);
+		@SuppressWarnings("unchecked")
+		List<String>[] states = new List[10];
+		for (int i = 0; i < states.length; ++i) {
+			states[i] = TestPathways.toGpml(p);
+			undo.newAction("Drag " + i);
+			DataNode n = i % 2 == 0 ? a : b;
+			for (int j = 0; j < 20; ++j) {
+				n.setCenterX(n.getCenterX() + 1);
+				n.setCenterY(n.getCenterY() - 1);
+			}
+		}
+		for (int i = states.length - 1; i >= 0; --i) {
+			assertEquals("Drag " + i, undo.getTopMessage());
+			undo.undo();
+			assertEquals(states[i], TestPathways.toGpml(p));
+		}
+		assertEquals(original, TestPathways.toGpml(p));
+		assertEquals(UndoManager.CANT_UNDO, undo.getTopMessage());
+	}
+
+	/** The modification count is kept, although delta mode takes no snapshots */
+	@Test
+	public void modificationCount() {
+		int count = undo.getModificationCount();
+		undo.newAction("Change");
+		p.getDataNodes().get(0).setCenterX(500);
+		assertTrue(undo.getModificationCount() > count);
+	}
+}